@@ -0,0 +1,86 @@
+/**
+ *
+ */
+package org.theseed.genome.kmers;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This class presents a region of a byte buffer as a DNA sequence, one byte per base.  The buffer
+ * can be a memory-mapped file, such as a FASTA file whose sequence lines have been located, so the
+ * kmer traversers can run over a contig without ever reading it into the heap.  The bases are read
+ * with absolute gets, so the position and limit of the buffer are not used or changed.
+ *
+ * Each byte is treated as an ISO-8859-1 character, so ASCII sequence data comes through unchanged.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class BufferSequence implements CharSequence {
+
+    // FIELDS
+    /** buffer containing the sequence */
+    private ByteBuffer buffer;
+    /** index of the first base in the buffer */
+    private int offset;
+    /** number of bases in the sequence */
+    private int length;
+
+    /**
+     * Create a sequence from the remaining bytes of a buffer.
+     *
+     * @param buffer	buffer containing the sequence
+     */
+    public BufferSequence(ByteBuffer buffer) {
+        this(buffer, buffer.position(), buffer.remaining());
+    }
+
+    /**
+     * Create a sequence from a region of a buffer.
+     *
+     * @param buffer	buffer containing the sequence
+     * @param offset	index of the first base in the buffer
+     * @param length	number of bases in the sequence
+     */
+    public BufferSequence(ByteBuffer buffer, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > buffer.limit()) {
+            throw new IndexOutOfBoundsException("Invalid sequence region at " + offset + " with length "
+                    + length + " in buffer with limit " + buffer.limit() + ".");
+        }
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    public int length() {
+        return this.length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= this.length) {
+            throw new IndexOutOfBoundsException("Index " + index + " is outside a sequence of length "
+                    + this.length + ".");
+        }
+        return (char) (this.buffer.get(this.offset + index) & 0xFF);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > this.length || start > end) {
+            throw new IndexOutOfBoundsException("Invalid subsequence from " + start + " to " + end + ".");
+        }
+        return new BufferSequence(this.buffer, this.offset + start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        char[] retVal = new char[this.length];
+        for (int i = 0; i < this.length; i++) {
+            retVal[i] = (char) (this.buffer.get(this.offset + i) & 0xFF);
+        }
+        return new String(retVal);
+    }
+
+}
@@ -0,0 +1,82 @@
+/**
+ *
+ */
+package org.theseed.genome.kmers;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class presents a region of a byte array as a DNA sequence, one byte per base.  It lets the
+ * kmer traversers run over sequences that were never converted to strings, which store two bytes
+ * per base.  The bytes are not copied, so the array should not be changed while the sequence is
+ * in use.
+ *
+ * Each byte is treated as an ISO-8859-1 character, so ASCII sequence data comes through unchanged.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ByteSequence implements CharSequence {
+
+    // FIELDS
+    /** array containing the sequence */
+    private byte[] bases;
+    /** index of the first base in the array */
+    private int offset;
+    /** number of bases in the sequence */
+    private int length;
+
+    /**
+     * Create a sequence from an entire byte array.
+     *
+     * @param bases		array containing the sequence
+     */
+    public ByteSequence(byte[] bases) {
+        this(bases, 0, bases.length);
+    }
+
+    /**
+     * Create a sequence from a region of a byte array.
+     *
+     * @param bases		array containing the sequence
+     * @param offset	index of the first base in the array
+     * @param length	number of bases in the sequence
+     */
+    public ByteSequence(byte[] bases, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > bases.length) {
+            throw new IndexOutOfBoundsException("Invalid sequence region at " + offset + " with length "
+                    + length + " in array of size " + bases.length + ".");
+        }
+        this.bases = bases;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    public int length() {
+        return this.length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= this.length) {
+            throw new IndexOutOfBoundsException("Index " + index + " is outside a sequence of length "
+                    + this.length + ".");
+        }
+        return (char) (this.bases[this.offset + index] & 0xFF);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > this.length || start > end) {
+            throw new IndexOutOfBoundsException("Invalid subsequence from " + start + " to " + end + ".");
+        }
+        return new ByteSequence(this.bases, this.offset + start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        return new String(this.bases, this.offset, this.length, StandardCharsets.ISO_8859_1);
+    }
+
+}
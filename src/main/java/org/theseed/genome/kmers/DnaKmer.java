@@ -3,11 +3,18 @@
  */
 package org.theseed.genome.kmers;
 
+import java.util.Arrays;
+
 /**
  * This class represents a DNA kmer.  All the DNA kmers have a fixed length determined at runtime,
- * and they are represented internally as signed integers.  The special value -1 represents a null
+ * and they are represented internally as signed long integers.  The special value -1 represents a null
  * kmer.  These particular kmers cannot contain ambiguity characters, and their length cannot be
- * greater than 15.
+ * greater than 31.
+ *
+ * A kmer of 15 or fewer base pairs fits in an ordinary integer, and {@link #idx()} returns it that
+ * way, so the dense, array-based code can keep using integer indexes.  Longer kmers must be
+ * accessed with {@link #longIdx()}, and idx() throws an exception for them rather than return a
+ * truncated index.  The reverse-complement index from {@link #rIdx()} is always a long.
  *
  * @author Bruce Parrello
  *
@@ -16,7 +23,7 @@ public class DnaKmer implements Comparable<DnaKmer> {
 
     // FIELDS
     /** integer representation of the kmer */
-    private int kIdx;
+    private long kIdx;
 
     // RUN-TIME CONSTANTS
     /** number of base pairs in the kmer */
@@ -25,8 +32,22 @@ public class DnaKmer implements Comparable<DnaKmer> {
     public static final int NULL = -1;
     /** end-of-string kmer value */
     public static final int EOF = -2;
+    /** largest kmer size whose index fits in an integer */
+    public static final int MAX_INT_SIZE = 15;
+    /** largest supported kmer size */
+    public static final int MAX_SIZE = 31;
     /** bit to base converter */
     private static final char[] bitMap = new char[] {'a', 'c', 'g', 't'};
+    /** base to bit converter; -1 indicates an invalid character */
+    private static final byte[] codeMap = new byte[128];
+    static {
+        Arrays.fill(codeMap, (byte) -1);
+        codeMap['a'] = 0;
+        codeMap['c'] = 1;
+        codeMap['g'] = 2;
+        codeMap['t'] = 3;
+        codeMap['u'] = 3;
+    }
 
 
     /**
@@ -58,34 +79,96 @@ public class DnaKmer implements Comparable<DnaKmer> {
     /**
      * Create a DNA kmer from an index number.
      */
-    public DnaKmer(int kIdx) {
+    public DnaKmer(long kIdx) {
         this.kIdx = kIdx;
     }
 
     /**
-     * @return the DNA kmer array index.
+     * @return the DNA kmer array index.  This is only valid if the kmer size is no greater
+     * 		   than MAX_INT_SIZE.
+     *
+     * @throws IllegalStateException if the kmer size is greater than MAX_INT_SIZE
      */
     public int idx() {
+        checkIntIndex(kmerSize);
+        return (int) this.kIdx;
+    }
+
+    /**
+     * Insure that the indexes of kmers of a specified size fit in an integer.
+     *
+     * @param size	number of base pairs in the kmers
+     *
+     * @throws IllegalStateException if the size is greater than MAX_INT_SIZE
+     */
+    protected static void checkIntIndex(int size) {
+        if (size > MAX_INT_SIZE) {
+            throw new IllegalStateException("Kmer size " + size + " is too big for an integer index.");
+        }
+    }
+
+    /**
+     * @return the full DNA kmer index.  This is valid for all kmer sizes.
+     */
+    public long longIdx() {
         return this.kIdx;
     }
 
     /**
-     * @return the DNA kmer array index for our reverse compliment.
+     * @return the DNA kmer index for our reverse compliment, or NULL if this kmer is invalid.  Like
+     * 		   longIdx, this is a long, so it is valid for all kmer sizes.  (It was an int before long
+     * 		   kmers were supported; a caller that needs an integer array index must cast it, which
+     * 		   is only valid if the kmer size is no greater than MAX_INT_SIZE.)
      */
-    public int rIdx() {
-        int retVal = 0;
+    public long rIdx() {
+        long retVal;
         if (this.kIdx < 0) {
             retVal = NULL;
         } else {
-            int reverse = ~this.kIdx;
-            for (int i = 0; i < kmerSize; i++) {
-                retVal = (retVal << 2) | (reverse & 3);
-                reverse >>= 2;
-            }
+            retVal = reverseIdx(this.kIdx);
         }
         return retVal;
     }
 
+    /**
+     * @return the index of the reverse complement of the kmer with the specified index
+     *
+     * @param kIdx	index of a valid kmer
+     */
+    public static int reverseIdx(int kIdx) {
+        // Reverse the order of the two-bit groups in the word.
+        int x = ((kIdx >>> 2) & 0x33333333) | ((kIdx & 0x33333333) << 2);
+        x = ((x >>> 4) & 0x0F0F0F0F) | ((x & 0x0F0F0F0F) << 4);
+        x = Integer.reverseBytes(x);
+        // Shift the kmer back down and complement it.
+        int bits = 2 * kmerSize;
+        return ~(x >>> (32 - bits)) & (int) ((1L << bits) - 1);
+    }
+
+    /**
+     * @return the index of the reverse complement of the kmer with the specified index
+     *
+     * @param kIdx	index of a valid kmer of any supported size
+     */
+    public static long reverseIdx(long kIdx) {
+        return reverseIdx(kIdx, kmerSize);
+    }
+
+    /**
+     * @return the index of the reverse complement of the kmer with the specified index, for a
+     * 		   specified kmer size rather than the global one
+     *
+     * @param kIdx	index of a valid kmer
+     * @param size	number of base pairs in the kmer
+     */
+    public static long reverseIdx(long kIdx, int size) {
+        long x = ((kIdx >>> 2) & 0x3333333333333333L) | ((kIdx & 0x3333333333333333L) << 2);
+        x = ((x >>> 4) & 0x0F0F0F0F0F0F0F0FL) | ((x & 0x0F0F0F0F0F0F0F0FL) << 4);
+        x = Long.reverseBytes(x);
+        int bits = 2 * size;
+        return ~(x >>> (64 - bits)) & ((1L << bits) - 1);
+    }
+
     /**
      * @return the DNA kmer sequence.
      */
@@ -100,14 +183,14 @@ public class DnaKmer implements Comparable<DnaKmer> {
      */
     @Override
     public int hashCode() {
-        return this.kIdx;
+        return Long.hashCode(this.kIdx);
     }
 
     /**
      * @return the reverse complement of the DNA kmer sequence.
      */
     public String toRString() {
-        int rIdx = this.rIdx();
+        long rIdx = this.rIdx();
         return fromKmer(rIdx);
     }
 
@@ -127,8 +210,8 @@ public class DnaKmer implements Comparable<DnaKmer> {
         kmerSize = newSize;
         if (newSize <= 0) {
             throw new IllegalArgumentException("Invalid kmer size " + newSize + ": cannot be negative.");
-        } else if (newSize > 15) {
-            throw new IllegalArgumentException("Invalid kmer size " + newSize + ": cannot be greater than 15.");
+        } else if (newSize > MAX_SIZE) {
+            throw new IllegalArgumentException("Invalid kmer size " + newSize + ": cannot be greater than " + MAX_SIZE + ".");
         }
     }
 
@@ -136,7 +219,7 @@ public class DnaKmer implements Comparable<DnaKmer> {
      * Store a new value for the kmer index.
      * @param newIdx	new index to store
      */
-    public void setIdx(int newIdx) {
+    public void setIdx(long newIdx) {
         this.kIdx = newIdx;
     }
 
@@ -150,14 +233,14 @@ public class DnaKmer implements Comparable<DnaKmer> {
      * @return 	an empty string if the index is negative, else the original kmer from which the index
      * 			was computed
      */
-    static private String fromKmer(int kIdx) {
-        StringBuilder retVal = new StringBuilder("xxxxxxxxxxxxxxx");
+    static private String fromKmer(long kIdx) {
+        StringBuilder retVal = new StringBuilder(MAX_SIZE);
         if (kIdx < 0) {
             retVal.setLength(0);
         } else {
             retVal.setLength(kmerSize);
             for (int i = kmerSize - 1; i >= 0; i--) {
-                retVal.setCharAt(i, bitMap[kIdx & 3]);
+                retVal.setCharAt(i, bitMap[(int) kIdx & 3]);
                 kIdx >>= 2;
             }
         }
@@ -174,8 +257,23 @@ public class DnaKmer implements Comparable<DnaKmer> {
      *
      * @return the numeric index for the kmer, or -1 if
      */
-    static public int fromString(String sequence, int pos) {
-        int retVal = 0;
+    static public long fromString(String sequence, int pos) {
+        return fromString(sequence, pos, kmerSize);
+    }
+
+    /**
+     * Compute the numeric representation of a DNA kmer of a specified size.  The global kmer
+     * size is not used or changed.
+     *
+     * @param sequence	the string of base pairs containing the kmer
+     * @param pos		the position in the string to start pulling the kmer (1-based)
+     * @param kmerSize	number of base pairs in the kmer
+     *
+     * @return the numeric index for the kmer, -1 if it contains an invalid base pair, or -2 if
+     * 		   the string is too short
+     */
+    static public long fromString(String sequence, int pos, int kmerSize) {
+        long retVal = 0;
         if ((pos - 1) + kmerSize > sequence.length()) {
             retVal = EOF;
         } else {
@@ -212,8 +310,8 @@ public class DnaKmer implements Comparable<DnaKmer> {
      *
      * @return the numeric index for the kmer, or -1 if
      */
-    static public int fromRString(String sequence) {
-        int retVal = 0;
+    static public long fromRString(String sequence) {
+        long retVal = 0;
         if (kmerSize > sequence.length()) {
             retVal = EOF;
         } else {
@@ -241,12 +339,30 @@ public class DnaKmer implements Comparable<DnaKmer> {
     }
 
     /**
-     * @return the number of possible kmers
+     * @return the two-bit code for a base pair (0 for 'a', 1 for 'c', 2 for 'g', 3 for 't' or 'u'),
+     * 			or -1 if the character is not a valid base pair
+     *
+     * @param c		character to convert
+     */
+    public static int baseCode(char c) {
+        return (c < 128 ? codeMap[c] : -1);
+    }
+
+    /**
+     * @return the number of possible kmers, for a kmer size no greater than MAX_INT_SIZE
      */
     public static int maxKmers() {
+        checkIntIndex(kmerSize);
         return 4 << (2 * (kmerSize - 1));
     }
 
+    /**
+     * @return the number of possible kmers, for any kmer size
+     */
+    public static long kmerSpace() {
+        return 1L << (2 * kmerSize);
+    }
+
     /**
      * Increment this kmer to get the next sequential kmer by index.
      */
@@ -267,7 +383,7 @@ public class DnaKmer implements Comparable<DnaKmer> {
         } else if (arg0.kIdx == DnaKmer.EOF) {
             retVal = -1;
         } else {
-            retVal = (this.kIdx - arg0.kIdx);
+            retVal = Long.compare(this.kIdx, arg0.kIdx);
         }
         return retVal;
     }
@@ -0,0 +1,130 @@
+/**
+ *
+ */
+package org.theseed.genome.kmers;
+
+/**
+ * This class describes a kind of kmer:  its type (normal or spaced) and its size.  Unlike the
+ * global kmer size in DnaKmer, a specification belongs to the object that uses it, so several
+ * kinds of kmer can be processed at the same time.
+ *
+ * A specification is written as a number for normal kmers, or a number followed by "p" for spaced
+ * kmers.  Normal kmer sizes must be a multiple of 3, and spaced kmer sizes a multiple of 2.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class KmerSpec {
+
+    // FIELDS
+    /** type of kmer */
+    private Class<? extends SequenceDnaKmers> kmerType;
+    /** number of base pairs in each kmer */
+    private int kmerSize;
+
+    /**
+     * Create a kmer specification.
+     *
+     * @param kmerType	type of kmer
+     * @param kmerSize	number of base pairs in each kmer
+     */
+    public KmerSpec(Class<? extends SequenceDnaKmers> kmerType, int kmerSize) {
+        if (kmerSize <= 0 || kmerSize > DnaKmer.MAX_SIZE) {
+            throw new IllegalArgumentException("Invalid kmer size " + kmerSize + ": must be from 1 to "
+                    + DnaKmer.MAX_SIZE + ".");
+        }
+        this.kmerType = kmerType;
+        this.kmerSize = kmerSize;
+    }
+
+    /**
+     * @return the kmer specification described by a string
+     *
+     * @param spec	kmer size, followed by "p" for spaced kmers
+     */
+    public static KmerSpec parse(String spec) {
+        KmerSpec retVal;
+        try {
+            if (spec.endsWith("p")) {
+                int realSize = Integer.valueOf(spec.substring(0, spec.length() - 1));
+                // Insure the size is valid for a spaced kmer.
+                if (realSize % 2 != 0) {
+                    throw new IllegalArgumentException("Spaced kmer sizes must be a multiple of 2.");
+                }
+                retVal = new KmerSpec(SequenceDnaSpacedKmers.class, realSize);
+            } else {
+                int realSize = Integer.valueOf(spec);
+                // Insure the size is valid for a normal kmer.
+                if (realSize % 3 != 0) {
+                    throw new IllegalArgumentException("Normal kmer sizes must be a multiple of 3.");
+                }
+                retVal = new KmerSpec(SequenceDnaNormalKmers.class, realSize);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid kmer specification \"" + spec + "\".");
+        }
+        return retVal;
+    }
+
+    /**
+     * @return a kmer-traversal object for a sequence using this specification
+     *
+     * @param sequence	sequence to traverse
+     */
+    public SequenceDnaKmers traverse(CharSequence sequence) {
+        return SequenceDnaKmers.build(this.kmerType, sequence, this.kmerSize);
+    }
+
+    /**
+     * @return the size of the region covered by a kmer of this specification
+     */
+    public int regionSize() {
+        int retVal = this.kmerSize;
+        if (this.kmerType == SequenceDnaSpacedKmers.class) {
+            retVal = this.kmerSize / 2 * 3;
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the type of kmer
+     */
+    public Class<? extends SequenceDnaKmers> getKmerType() {
+        return this.kmerType;
+    }
+
+    /**
+     * @return the number of base pairs in each kmer
+     */
+    public int getKmerSize() {
+        return this.kmerSize;
+    }
+
+    /**
+     * @return the string form of this specification, as accepted by "parse"
+     */
+    @Override
+    public String toString() {
+        String retVal = Integer.toString(this.kmerSize);
+        if (this.kmerType == SequenceDnaSpacedKmers.class) {
+            retVal += "p";
+        }
+        return retVal;
+    }
+
+    @Override
+    public int hashCode() {
+        return this.kmerType.hashCode() * 31 + this.kmerSize;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        boolean retVal = false;
+        if (obj instanceof KmerSpec) {
+            KmerSpec other = (KmerSpec) obj;
+            retVal = (this.kmerType == other.kmerType && this.kmerSize == other.kmerSize);
+        }
+        return retVal;
+    }
+
+}
@@ -6,6 +6,15 @@ package org.theseed.genome.kmers;
 /**
  * Class for looping through the kmers in a DNA sequence.
  *
+ * The sequence can be any character sequence, not just a string.  A {@link ByteSequence} or
+ * {@link BufferSequence} holds one byte per base, so a large contig taken from a byte array,
+ * a packed cache, or a memory-mapped file can be traversed without first being copied into a
+ * string.
+ *
+ * Each traversal object has its own kmer size, which defaults to the global size when the object is
+ * created.  Objects built with an explicit size can traverse the same sequence for several kmer
+ * sizes at once.  The methods that convert a kmer to or from a string still use the global size.
+ *
  * @author Bruce Parrello
  *
  */
@@ -14,12 +23,16 @@ public abstract class SequenceDnaKmers extends DnaKmer {
     // FIELDS
 
     /** sequence to iterate through */
-    protected String sequence;
+    protected CharSequence sequence;
     /** current position in the sequence */
     protected int pos;
+    /** number of base pairs in each kmer */
+    protected int kmerSize;
 
     // Create a blank sequence kmer traversal object.
-    protected SequenceDnaKmers() { }
+    protected SequenceDnaKmers() {
+        this.kmerSize = DnaKmer.getSize();
+    }
 
 
     /**
@@ -27,8 +40,9 @@ public abstract class SequenceDnaKmers extends DnaKmer {
      *
      * @param sequence	sequence to traverse
      */
-    public SequenceDnaKmers(String sequence) {
+    public SequenceDnaKmers(CharSequence sequence) {
         super();
+        this.kmerSize = DnaKmer.getSize();
         init(sequence);
     }
 
@@ -38,7 +52,7 @@ public abstract class SequenceDnaKmers extends DnaKmer {
      *
      * @param sequence	sequence to traverse
      */
-    protected void init(String sequence) {
+    protected void init(CharSequence sequence) {
         // Save the sequence.
         this.sequence = sequence;
         // Denote we haven't started.
@@ -46,6 +60,25 @@ public abstract class SequenceDnaKmers extends DnaKmer {
     }
 
 
+    /**
+     * @return the number of base pairs in each kmer
+     */
+    public int getKmerSize() {
+        return this.kmerSize;
+    }
+
+    /**
+     * @return the DNA kmer array index.  This is only valid if the size of these kmers (not the
+     * 		   global kmer size) is no greater than MAX_INT_SIZE.
+     *
+     * @throws IllegalStateException if the kmer size is greater than MAX_INT_SIZE
+     */
+    @Override
+    public int idx() {
+        checkIntIndex(this.kmerSize);
+        return (int) this.longIdx();
+    }
+
     /**
      * @return the current position in the sequence
      */
@@ -59,7 +92,7 @@ public abstract class SequenceDnaKmers extends DnaKmer {
      * @return TRUE if successful, FALSE if we are at end-of-sequence
      */
     public boolean nextKmer() {
-        int retVal = DnaKmer.NULL;
+        long retVal = DnaKmer.NULL;
         while (retVal == DnaKmer.NULL) {
             this.pos++;
             String letters = this.getLetters();
@@ -78,7 +111,7 @@ public abstract class SequenceDnaKmers extends DnaKmer {
      * @return a copy of the kmer at the current position
      */
     public DnaKmer getCopy() {
-        return new DnaKmer(this.idx());
+        return new DnaKmer(this.longIdx());
     }
 
     /**
@@ -89,10 +122,29 @@ public abstract class SequenceDnaKmers extends DnaKmer {
      *
      * @return	an object of the proper subclass type to traverse the kmers in the sequence
      */
-    public static SequenceDnaKmers build(Class<? extends SequenceDnaKmers> sequenceClass, String sequence) {
+    public static SequenceDnaKmers build(Class<? extends SequenceDnaKmers> sequenceClass, CharSequence sequence) {
+        return build(sequenceClass, sequence, DnaKmer.getSize());
+    }
+
+    /**
+     * Create a sequence kmer-traversal object for the specified kmer type and size.  The global
+     * kmer size is not used or changed.
+     *
+     * @param sequenceClass	class representing the type of kmer to use
+     * @param sequence		sequence to traverse
+     * @param kmerSize		number of base pairs in each kmer
+     *
+     * @return	an object of the proper subclass type to traverse the kmers in the sequence
+     */
+    public static SequenceDnaKmers build(Class<? extends SequenceDnaKmers> sequenceClass, CharSequence sequence,
+            int kmerSize) {
+        if (kmerSize <= 0 || kmerSize > DnaKmer.MAX_SIZE) {
+            throw new IllegalArgumentException("Invalid kmer size " + kmerSize + ".");
+        }
         SequenceDnaKmers retVal;
         try {
             retVal = sequenceClass.newInstance();
+            retVal.kmerSize = kmerSize;
             retVal.init(sequence);
         } catch (Exception e) {
             throw new RuntimeException("Error creating kmer-traversal object.", e);
@@ -103,6 +155,7 @@ public abstract class SequenceDnaKmers extends DnaKmer {
 
     /**
      * Set the embedded DNA kmer to the reverse complement of what's at the current position.
+     * For normal kmers this toggles, so a second call restores the forward kmer.
      */
     public abstract void reverse();
 
@@ -117,7 +170,7 @@ public abstract class SequenceDnaKmers extends DnaKmer {
         int start = this.pos - 1;
         int end = start + len;
         if (end > this.sequence.length()) end = this.sequence.length();
-        return this.sequence.substring(start, end);
+        return this.sequence.subSequence(start, end).toString();
     }
 
     /**
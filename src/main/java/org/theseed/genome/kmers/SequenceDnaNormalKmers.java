@@ -7,35 +7,106 @@ package org.theseed.genome.kmers;
  * This class extracts normal kmers from a contig.  Normal kmers correspond character-for-character
  * to the contig contents.
  *
+ * The kmers are computed with a rolling encoder:  as we move one position to the right, the
+ * forward index shifts in the new base and the reverse-complement index shifts in its complement,
+ * so each position costs O(1) no matter how big the kmer is.  When an ambiguity character is
+ * found, the encoder starts over after it, which skips all the kmers containing it.  The indexes
+ * are kept as long integers so that kmers of up to 31 base pairs can be encoded.
+ *
  * @author Bruce Parrello
  *
  */
 public class SequenceDnaNormalKmers extends SequenceDnaKmers {
 
+    // FIELDS
+    /** forward kmer index for the window ending at the last base read */
+    private long fwdIdx;
+    /** reverse-complement kmer index for the window ending at the last base read */
+    private long revIdx;
+    /** number of consecutive valid bases ending at the last base read (capped at the kmer size) */
+    private int filled;
+    /** index (0-based) of the next base to read */
+    private int nextBase;
+
     public SequenceDnaNormalKmers() {
         super();
     }
 
-    public SequenceDnaNormalKmers(String sequence) {
+    public SequenceDnaNormalKmers(CharSequence sequence) {
         super(sequence);
     }
 
+    @Override
+    protected void init(CharSequence sequence) {
+        super.init(sequence);
+        this.fwdIdx = 0;
+        this.revIdx = 0;
+        this.filled = 0;
+        this.nextBase = 0;
+    }
+
+    @Override
+    public boolean nextKmer() {
+        final int kSize = this.kmerSize;
+        final long mask = (1L << (2 * kSize)) - 1;
+        final int highShift = 2 * (kSize - 1);
+        final int n = this.sequence.length();
+        boolean retVal = true;
+        // Read bases until we have a full window that ends on a base we have not yet returned.
+        do {
+            if (this.nextBase >= n) {
+                retVal = false;
+            } else {
+                int code = DnaKmer.baseCode(this.sequence.charAt(this.nextBase));
+                this.nextBase++;
+                if (code < 0) {
+                    this.filled = 0;
+                } else {
+                    this.fwdIdx = ((this.fwdIdx << 2) | code) & mask;
+                    this.revIdx = (this.revIdx >>> 2) | ((long) (3 - code) << highShift);
+                    if (this.filled < kSize) this.filled++;
+                }
+            }
+        } while (retVal && this.filled < kSize);
+        if (retVal) {
+            this.pos = this.nextBase - kSize + 1;
+            this.setIdx(this.fwdIdx);
+        } else {
+            // Position past the last kmer, just as a one-at-a-time scan would.
+            this.pos = Math.max(n - kSize + 2, 1);
+            this.setIdx(DnaKmer.EOF);
+        }
+        return retVal;
+    }
+
     @Override
     protected String getLetters() {
         int i = this.pos - 1;
-        int n = i + DnaKmer.getSize();
+        int n = i + this.kmerSize;
         if (n > this.sequence.length()) n = sequence.length();
-        return this.sequence.substring(i, n);
+        return this.sequence.subSequence(i, n).toString();
     }
 
+    /**
+     * Replace the current kmer with its reverse complement.  Calling this a second time restores
+     * the forward kmer.
+     */
     @Override
     public void reverse() {
-        this.setIdx(this.rIdx());
+        long current = this.longIdx();
+        if (current < 0) {
+            this.setIdx(DnaKmer.NULL);
+        } else if (current == this.fwdIdx) {
+            // This is the usual case, where the encoder already has the reverse complement.
+            this.setIdx(this.revIdx);
+        } else {
+            this.setIdx(DnaKmer.reverseIdx(current, this.kmerSize));
+        }
     }
 
     @Override
     public int regionSize() {
-        return DnaKmer.getSize();
+        return this.kmerSize;
     }
 
 }
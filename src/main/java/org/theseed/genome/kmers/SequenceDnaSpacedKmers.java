@@ -7,56 +7,133 @@ package org.theseed.genome.kmers;
  * This class handles spaced kmers.  A spaced kmer pulls the first two of three characters out of
  * the contig until it fills the desired size.
  *
+ * The kmers are computed with rolling encoders.  Two kmers three positions apart share all but
+ * one of their character pairs, so we keep a separate forward and reverse-complement index for
+ * each of the three codon phases and shift one new pair into the appropriate phase at each
+ * position.  This makes both the forward and reverse kmers O(1) per position.  The indexes are kept
+ * as long integers so that kmers of up to 31 base pairs can be encoded.
+ *
  * @author Bruce Parrello
  *
  */
 public class SequenceDnaSpacedKmers extends SequenceDnaKmers {
 
+    // FIELDS
+    /** forward kmer index for each codon phase */
+    private long[] fwdIdx;
+    /** reverse-complement kmer index for each codon phase */
+    private long[] revIdx;
+    /** number of consecutive valid forward pairs for each codon phase (capped at the pair count) */
+    private int[] fwdFilled;
+    /** number of consecutive valid reverse pairs for each codon phase (capped at the pair count) */
+    private int[] revFilled;
+    /** index (0-based) of the next character pair to read */
+    private int nextPair;
+    /** reverse-complement kmer index for the current position */
+    private long currentRev;
+
     public SequenceDnaSpacedKmers() {
         super();
     }
 
-    public SequenceDnaSpacedKmers(String sequence) {
+    public SequenceDnaSpacedKmers(CharSequence sequence) {
         super(sequence);
     }
 
     @Override
-    protected String getLetters() {
-        String retVal = getKmerRegion(0);
-        return retVal;
+    protected void init(CharSequence sequence) {
+        super.init(sequence);
+        this.fwdIdx = new long[3];
+        this.revIdx = new long[3];
+        this.fwdFilled = new int[3];
+        this.revFilled = new int[3];
+        this.nextPair = 0;
+        this.currentRev = DnaKmer.NULL;
+    }
+
+    @Override
+    public boolean nextKmer() {
+        final int pairs = this.kmerSize / 2;
+        final int regionSize = this.regionSize();
+        final long mask = (1L << (4 * pairs)) - 1;
+        final int highShift = 4 * (pairs - 1);
+        // A kmer is only returned if there is a character after its region, so the last pair we
+        // can use starts four characters from the end.
+        final int limit = this.sequence.length() - 3;
+        boolean found = false;
+        while (! found && this.nextPair < limit) {
+            int q = this.nextPair;
+            this.nextPair++;
+            int phase = q % 3;
+            // Get the three characters that feed this position's pairs.
+            int c0 = DnaKmer.baseCode(this.sequence.charAt(q));
+            int c1 = DnaKmer.baseCode(this.sequence.charAt(q + 1));
+            int c2 = DnaKmer.baseCode(this.sequence.charAt(q + 2));
+            // The forward kmer uses the first two characters of each triple.
+            if (c0 < 0 || c1 < 0) {
+                this.fwdFilled[phase] = 0;
+            } else {
+                this.fwdIdx[phase] = ((this.fwdIdx[phase] << 4) | (c0 << 2) | c1) & mask;
+                if (this.fwdFilled[phase] < pairs) this.fwdFilled[phase]++;
+            }
+            // The reverse kmer is the complement of the last two characters, read backward.
+            if (c1 < 0 || c2 < 0) {
+                this.revFilled[phase] = 0;
+            } else {
+                long rPair = ((3 - c2) << 2) | (3 - c1);
+                this.revIdx[phase] = (this.revIdx[phase] >>> 4) | (rPair << highShift);
+                if (this.revFilled[phase] < pairs) this.revFilled[phase]++;
+            }
+            // The pair just read is the last one for the kmer starting one region back.
+            if (this.fwdFilled[phase] == pairs) {
+                found = true;
+                this.pos = q + 4 - regionSize;
+                this.setIdx(this.fwdIdx[phase]);
+                this.currentRev = (this.revFilled[phase] == pairs ? this.revIdx[phase] : DnaKmer.NULL);
+            }
+        }
+        if (! found) {
+            // Position past the last kmer, just as a one-at-a-time scan would.
+            this.pos = Math.max(this.sequence.length() - regionSize + 1, 1);
+            this.setIdx(DnaKmer.EOF);
+        }
+        return found;
     }
 
     /**
-     * @return the letters in the region spanned by this kmer
-     *
-     * @param offset	if 0, then the first two of each triple are returned; if 1, then the last two
-     * 					of each triple are returned
+     * @return the letters used by the kmer at the current position:  the first two of each triple
+     * 		   in the region it spans
      */
-    private String getKmerRegion(int offset) {
-        StringBuilder retVal = new StringBuilder(DnaKmer.getSize());
+    @Override
+    protected String getLetters() {
+        StringBuilder retVal = new StringBuilder(this.kmerSize);
         // Figure out position of the first character pair that won't be in the kmer.
-        int n = this.pos + DnaKmer.getSize() / 2 * 3 - 1;
+        int n = this.pos + this.kmerSize / 2 * 3 - 1;
         // Insure we stay in bounds.
         int limit = sequence.length() - 3;
         if (n > limit) n = limit;
         // Loop through getting the letters.
         for (int i = this.pos-1; i < n; i += 3) {
-            retVal.append(this.sequence.charAt(i + offset));
-            retVal.append(this.sequence.charAt(i + offset + 1));
+            retVal.append(this.sequence.charAt(i));
+            retVal.append(this.sequence.charAt(i + 1));
         }
         return retVal.toString();
     }
 
+    /**
+     * Replace the current kmer with the reverse complement of the region at the current position.
+     * The reverse is built from the last two of each triple in the region rather than the first
+     * two, so it is not the reverse complement of the kmer itself, and calling this a second time
+     * leaves it unchanged.
+     */
     @Override
     public void reverse() {
-        // Get the letters at the current position.
-        String myLetters = this.getKmerRegion(1);
-        this.setIdx(DnaKmer.fromRString(myLetters));
+        this.setIdx(this.currentRev);
     }
 
     @Override
     public int regionSize() {
-        return DnaKmer.getSize() / 2 * 3;
+        return this.kmerSize / 2 * 3;
     }
 
 
@@ -0,0 +1,310 @@
+/**
+ *
+ */
+package org.theseed.genome.kmers.coding;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * This class manages a large array of unsigned counts that can be incremented safely from
+ * multiple threads without locking.  Each count has a narrow cell of 8 or 16 bits, and the cells
+ * are packed into 32-bit words.  An increment is a compare-and-swap on the containing word.
+ * Because the words are small and spread over a huge array, two threads rarely contend for the
+ * same word, so the increments scale with the number of threads.
+ *
+ * When a cell reaches its maximum value, it saturates:  it stays at the maximum, and further
+ * increments are added to an overflow table.  The true count is the cell value plus the overflow
+ * value, so no count is ever lost, and the carry never spills into the neighboring cell.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class AtomicCountArray implements CountArray {
+
+    // FIELDS
+    /** packed count words */
+    private AtomicIntegerArray words;
+    /** number of counts in the array */
+    private int size;
+    /** number of bits in a cell */
+    private int bits;
+    /** log base 2 of the number of bits in a cell */
+    private int bitShift;
+    /** log base 2 of the number of cells in a word */
+    private int cellShift;
+    /** mask for a single cell, which is also the saturated cell value */
+    private int cellMask;
+    /** overflow counts for the saturated cells */
+    private OverflowTable overflow;
+
+    /** default number of bits in a cell */
+    public static final int DEFAULT_BITS = 16;
+    /** size in bytes of the buffer used for bulk transfers */
+    private static final int BUFFER_SIZE = 1 << 22;
+
+    /**
+     * Create a new, zeroed count array with 16-bit cells.
+     *
+     * @param size	number of counts to hold
+     */
+    public AtomicCountArray(int size) {
+        this(size, DEFAULT_BITS);
+    }
+
+    /**
+     * Create a new, zeroed count array.
+     *
+     * @param size	number of counts to hold
+     * @param bits	number of bits in a cell (8 or 16)
+     */
+    public AtomicCountArray(int size, int bits) {
+        if (bits != 8 && bits != 16) {
+            throw new IllegalArgumentException("Invalid count cell width " + bits + ": must be 8 or 16.");
+        }
+        this.size = size;
+        this.bits = bits;
+        this.bitShift = (bits == 8 ? 3 : 4);
+        this.cellShift = 5 - this.bitShift;
+        this.cellMask = (1 << bits) - 1;
+        int perWord = 1 << this.cellShift;
+        this.words = new AtomicIntegerArray((size + perWord - 1) >> this.cellShift);
+        this.overflow = new OverflowTable();
+    }
+
+    /**
+     * @return the number of counts in this array
+     */
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return the number of bits in a cell
+     */
+    @Override
+    public int getCellBits() {
+        return this.bits;
+    }
+
+    /**
+     * @return the count at the specified position
+     *
+     * @param i		index of the desired count
+     */
+    @Override
+    public int get(int i) {
+        int retVal = this.cell(i);
+        if (retVal == this.cellMask) {
+            retVal += this.overflow.get(i);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the raw cell value at the specified position
+     *
+     * @param i		index of the desired cell
+     */
+    private int cell(int i) {
+        return (this.words.get(i >> this.cellShift) >>> this.shift(i)) & this.cellMask;
+    }
+
+    /**
+     * @return TRUE if all the counts in a range are zero
+     *
+     * @param first		index of the first count in the range; this must be the first count in a word
+     * @param n			number of counts in the range
+     */
+    public boolean isEmpty(int first, int n) {
+        int w = first >> this.cellShift;
+        int end = (first + n + (1 << this.cellShift) - 1) >> this.cellShift;
+        boolean retVal = true;
+        while (retVal && w < end) {
+            retVal = (this.words.get(w) == 0);
+            w++;
+        }
+        return retVal;
+    }
+
+    /**
+     * Store a count at the specified position.  This is safe against concurrent increments of
+     * the neighboring counts.
+     *
+     * @param i			index of the count to store
+     * @param value		new count value
+     */
+    public void set(int i, int value) {
+        if (value >= this.cellMask) {
+            this.setCell(i, this.cellMask);
+            this.overflow.set(i, value - this.cellMask);
+        } else {
+            this.setCell(i, value);
+            this.overflow.set(i, 0);
+        }
+    }
+
+    /**
+     * Store a raw cell value at the specified position.
+     *
+     * @param i			index of the cell to store
+     * @param value		new cell value
+     */
+    private void setCell(int i, int value) {
+        int w = i >> this.cellShift;
+        int shift = this.shift(i);
+        int mask = this.cellMask << shift;
+        int newBits = (value & this.cellMask) << shift;
+        int old;
+        do {
+            old = this.words.get(w);
+        } while (! this.words.compareAndSet(w, old, (old & ~mask) | newBits));
+    }
+
+    /**
+     * Increment the count at the specified position.  This is thread-safe, and it is lock-free
+     * unless the cell is saturated.
+     *
+     * @param i		index of the count to increment
+     */
+    public void increment(int i) {
+        int w = i >> this.cellShift;
+        int shift = this.shift(i);
+        int old;
+        boolean saturated;
+        do {
+            old = this.words.get(w);
+            saturated = (((old >>> shift) & this.cellMask) == this.cellMask);
+        } while (! saturated && ! this.words.compareAndSet(w, old, old + (1 << shift)));
+        if (saturated) {
+            this.overflow.add(i, 1);
+        }
+    }
+
+    /**
+     * Erase all the counts.  This is not safe to call while other threads are counting.
+     */
+    public void clear() {
+        int n = this.words.length();
+        for (int w = 0; w < n; w++) {
+            this.words.lazySet(w, 0);
+        }
+        this.overflow.clear();
+    }
+
+    @Override
+    public OverflowTable getOverflow() {
+        return this.overflow;
+    }
+
+    /**
+     * Write all the cells to an output channel as big-endian integers of the cell width.  The cells
+     * are moved a buffer at a time, so this is much faster than writing them individually.
+     *
+     * @param out	output channel
+     *
+     * @throws IOException
+     */
+    @Override
+    public void writeTo(WritableByteChannel out) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        IntBuffer ints = buffer.asIntBuffer();
+        // Process all the full words.
+        int nFull = this.size >> this.cellShift;
+        int w = 0;
+        while (w < nFull) {
+            ints.clear();
+            int n = Math.min(ints.capacity(), nFull - w);
+            for (int i = 0; i < n; i++) {
+                // The lowest cell is first in the file, so it is the high end of the big-endian int.
+                ints.put(this.fileOrder(this.words.get(w + i)));
+            }
+            w += n;
+            buffer.clear();
+            buffer.limit(n * 4);
+            ChannelIO.writeFully(out, buffer);
+        }
+        // Process the leftover cells at the end, if any.
+        buffer.clear();
+        for (int i = nFull << this.cellShift; i < this.size; i++) {
+            this.putCell(buffer, this.cell(i));
+        }
+        buffer.flip();
+        ChannelIO.writeFully(out, buffer);
+    }
+
+    /**
+     * Read all the cells from an input channel containing big-endian integers of the cell width.
+     * This is the reverse of writeTo.  It is not safe to call while other threads are counting.
+     *
+     * @param in	input channel
+     *
+     * @throws IOException
+     */
+    public void readFrom(ReadableByteChannel in) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        IntBuffer ints = buffer.asIntBuffer();
+        int nFull = this.size >> this.cellShift;
+        int w = 0;
+        while (w < nFull) {
+            int n = Math.min(ints.capacity(), nFull - w);
+            buffer.clear();
+            buffer.limit(n * 4);
+            ChannelIO.readFully(in, buffer);
+            ints.clear();
+            for (int i = 0; i < n; i++) {
+                this.words.lazySet(w + i, this.fileOrder(ints.get()));
+            }
+            w += n;
+        }
+        int first = nFull << this.cellShift;
+        if (first < this.size) {
+            buffer.clear();
+            buffer.limit((this.size - first) * (this.bits >> 3));
+            ChannelIO.readFully(in, buffer);
+            buffer.flip();
+            for (int i = first; i < this.size; i++) {
+                this.setCell(i, (this.bits == 8 ? buffer.get() : buffer.getShort()));
+            }
+        }
+    }
+
+    /**
+     * @return a word with its cells swapped between memory order and file order; this operation
+     * 		   is its own inverse
+     *
+     * @param word	word to convert
+     */
+    private int fileOrder(int word) {
+        return (this.bits == 8 ? Integer.reverseBytes(word) : Integer.rotateLeft(word, 16));
+    }
+
+    /**
+     * Put a single cell value into a buffer.
+     *
+     * @param buffer	target buffer
+     * @param value		cell value to put
+     */
+    private void putCell(ByteBuffer buffer, int value) {
+        if (this.bits == 8) {
+            buffer.put((byte) value);
+        } else {
+            buffer.putShort((short) value);
+        }
+    }
+
+    /**
+     * @return the bit shift for the cell at the specified position within its word
+     *
+     * @param i		index of the cell
+     */
+    private int shift(int i) {
+        return (i & ((1 << this.cellShift) - 1)) << this.bitShift;
+    }
+
+}
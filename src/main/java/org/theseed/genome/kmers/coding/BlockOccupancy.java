@@ -0,0 +1,66 @@
+/**
+ *
+ */
+package org.theseed.genome.kmers.coding;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class is a coarse occupancy bitmap for a frame count store, with one bit for each block of
+ * 2^BLOCK_BITS slots.  A bit is set the first time a slot in its block is incremented, so a scan can
+ * skip the blocks that are entirely empty.  Bits can be set safely from multiple threads.
+ *
+ * @author Bruce Parrello
+ *
+ */
+class BlockOccupancy {
+
+    // FIELDS
+    /** bitmap words, with one bit per block */
+    private AtomicLongArray bits;
+
+    /**
+     * Create an empty occupancy bitmap.
+     *
+     * @param slots		number of slots in the store
+     */
+    protected BlockOccupancy(long slots) {
+        long blocks = (slots + (1 << FrameCountStore.BLOCK_BITS) - 1) >> FrameCountStore.BLOCK_BITS;
+        this.bits = new AtomicLongArray((int) ((blocks + 63) >> 6));
+    }
+
+    /**
+     * Denote that the block containing a slot is occupied.
+     *
+     * @param slot	slot that has been incremented
+     */
+    protected void mark(long slot) {
+        long block = slot >>> FrameCountStore.BLOCK_BITS;
+        int w = (int) (block >>> 6);
+        long bit = 1L << block;
+        // Most of the time the bit is already set, so we check before trying to set it.
+        long old = this.bits.get(w);
+        while ((old & bit) == 0 && ! this.bits.compareAndSet(w, old, old | bit)) {
+            old = this.bits.get(w);
+        }
+    }
+
+    /**
+     * @return TRUE if the specified block is occupied
+     *
+     * @param block		index of the block (the slot number shifted right by BLOCK_BITS)
+     */
+    protected boolean isOccupied(long block) {
+        return (this.bits.get((int) (block >>> 6)) & (1L << block)) != 0;
+    }
+
+    /**
+     * Mark all the blocks empty.  This is not safe to call while other threads are counting.
+     */
+    protected void clear() {
+        for (int w = 0; w < this.bits.length(); w++) {
+            this.bits.lazySet(w, 0);
+        }
+    }
+
+}
@@ -0,0 +1,50 @@
+/**
+ *
+ */
+package org.theseed.genome.kmers.coding;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Utility methods for moving whole buffers to and from channels.
+ *
+ * @author Bruce Parrello
+ *
+ */
+class ChannelIO {
+
+    /**
+     * Write the entire contents of a buffer to a channel.
+     *
+     * @param out		output channel
+     * @param buffer	buffer to write
+     *
+     * @throws IOException
+     */
+    static void writeFully(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * Fill a buffer from a channel.
+     *
+     * @param in		input channel
+     * @param buffer	buffer to fill
+     *
+     * @throws IOException
+     */
+    static void readFully(ReadableByteChannel in, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer) < 0) {
+                throw new EOFException("Premature end of file reading kmer counts.");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,60 @@
+/**
+ *
+ */
+package org.theseed.genome.kmers.coding;
+
+/**
+ * This interface represents the contigs of a genome, reduced to what frame counting needs:  the
+ * contig sequences and, for each contig, the frames of the regions along it.  It allows the kmer
+ * counter to process a genome without caring whether it came from a full GTO or a cache.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public interface CodingContigs {
+
+    /**
+     * @return the number of contigs
+     */
+    public int size();
+
+    /**
+     * @return the ID of a contig
+     *
+     * @param i		index of the contig of interest
+     */
+    public String getContigId(int i);
+
+    /**
+     * @return the DNA sequence of a contig; this need not be a string, so implementations can
+     * 		   hold their sequences one byte per base
+     *
+     * @param i		index of the contig of interest
+     */
+    public CharSequence getSequence(int i);
+
+    /**
+     * @return the frame track for a contig
+     *
+     * @param i				index of the contig of interest
+     * @param regionSize	size of the regions (usually the kmer region size) whose frames are desired
+     */
+    public ContigFrameTrack getFrameTrack(int i, int regionSize);
+
+    /**
+     * @return the frame tracks for a contig for several region sizes, computed together
+     *
+     * @param i				index of the contig of interest
+     * @param regionSizes	sizes of the regions whose frames are desired
+     */
+    public ContigFrameTrack[] getFrameTracks(int i, int[] regionSizes);
+
+    /**
+     * @return a frame track for a contig that keeps the size-independent frames of its runs, so
+     * 		   that it can be saved in a contig cache
+     *
+     * @param i				index of the contig of interest
+     */
+    public ContigFrameTrack getRunTrack(int i);
+
+}
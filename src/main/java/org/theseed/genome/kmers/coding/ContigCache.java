@@ -0,0 +1,251 @@
+/**
+ *
+ */
+package org.theseed.genome.kmers.coding;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import org.theseed.genome.kmers.DnaKmer;
+
+/**
+ * This class is a compact binary cache of the contigs of a genome, holding only what frame
+ * counting needs.  Each contig sequence is packed two bits per base, with a separate bit mask
+ * marking the ambiguous positions, and the frame track of each contig is stored in its
+ * size-independent form, so one cache serves every kmer size and type.  Reading a cache is much
+ * faster than parsing the GTO it came from, since the file is memory-mapped and read sequentially.
+ *
+ * The file begins with a magic number, the number of contigs, and the genome name.  For each contig
+ * there follows the contig ID, the sequence length, the number of frame-track runs, the packed
+ * bases, the ambiguity mask, the run start positions, the run end positions, and the run frames.
+ * Everything is big-endian.
+ *
+ * A decoded sequence is equivalent to the original for kmer purposes:  'u' comes back as 't', and
+ * every ambiguous character comes back as 'n'.  The sequence is a view of the mapped file that
+ * decodes each base when it is asked for, so a contig is never copied into the heap.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ContigCache implements CodingContigs {
+
+    // FIELDS
+    /** mapped cache file */
+    private MappedByteBuffer data;
+    /** name of the genome */
+    private String name;
+    /** ID of each contig */
+    private String[] contigIds;
+    /** length of each contig */
+    private int[] lengths;
+    /** number of frame-track runs for each contig */
+    private int[] runCounts;
+    /** file offset of the packed bases of each contig */
+    private int[] offsets;
+
+    /** magic number identifying a contig cache file */
+    private static final int MAGIC = 0x43544731;
+    /** file name suffix for a cache file */
+    public static final String SUFFIX = ".ctg";
+
+    /**
+     * Open a contig cache file.
+     *
+     * @param cacheFile		file containing the cache
+     *
+     * @throws IOException
+     */
+    public ContigCache(File cacheFile) throws IOException {
+        try (FileInputStream inStream = new FileInputStream(cacheFile)) {
+            FileChannel channel = inStream.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Contig cache file " + cacheFile + " is too large.");
+            }
+            this.data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        ByteBuffer buffer = this.data.duplicate();
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("File " + cacheFile + " is not a contig cache.");
+        }
+        int n = buffer.getInt();
+        this.name = readString(buffer);
+        this.contigIds = new String[n];
+        this.lengths = new int[n];
+        this.runCounts = new int[n];
+        this.offsets = new int[n];
+        // Skip through the file to find each contig.
+        for (int i = 0; i < n; i++) {
+            this.contigIds[i] = readString(buffer);
+            int len = buffer.getInt();
+            int runs = buffer.getInt();
+            this.lengths[i] = len;
+            this.runCounts[i] = runs;
+            this.offsets[i] = buffer.position();
+            buffer.position(buffer.position() + packedSize(len) + maskSize(len)
+                    + runs * (8 + ContigFrameTrack.RUN_FRAMES));
+        }
+    }
+
+    /**
+     * Write a contig cache file.
+     *
+     * @param cacheFile		file to contain the cache
+     * @param contigs		contigs to save
+     *
+     * @throws IOException
+     */
+    public static void save(File cacheFile, CodingContigs contigs) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(cacheFile)))) {
+            out.writeInt(MAGIC);
+            int n = contigs.size();
+            out.writeInt(n);
+            writeString(out, contigs.toString());
+            for (int i = 0; i < n; i++) {
+                CharSequence sequence = contigs.getSequence(i);
+                int len = sequence.length();
+                // The runs and their size-independent frames come from a single sweep of the contig.
+                ContigFrameTrack track = contigs.getRunTrack(i);
+                int runs = track.size();
+                writeString(out, contigs.getContigId(i));
+                out.writeInt(len);
+                out.writeInt(runs);
+                // Pack the bases and build the ambiguity mask.
+                byte[] packed = new byte[packedSize(len)];
+                byte[] mask = new byte[maskSize(len)];
+                for (int pos = 0; pos < len; pos++) {
+                    int code = DnaKmer.baseCode(sequence.charAt(pos));
+                    if (code < 0) {
+                        mask[pos >> 3] |= 1 << (pos & 7);
+                    } else {
+                        packed[pos >> 2] |= code << ((pos & 3) << 1);
+                    }
+                }
+                out.write(packed);
+                out.write(mask);
+                // Write the frame track.
+                for (int run = 0; run < runs; run++) {
+                    out.writeInt(track.getRunStart(run));
+                }
+                for (int run = 0; run < runs; run++) {
+                    out.writeInt(track.getRunEnd(run));
+                }
+                out.write(track.getRunFrames());
+            }
+        }
+    }
+
+    /**
+     * @return TRUE if a cache file exists and is at least as new as the GTO file it came from
+     *
+     * @param cacheFile		cache file to check
+     * @param gtoFile		GTO file from which the cache is built
+     */
+    public static boolean isCurrent(File cacheFile, File gtoFile) {
+        return cacheFile.isFile() && cacheFile.lastModified() >= gtoFile.lastModified();
+    }
+
+    /**
+     * @return the number of bytes needed for the packed bases of a sequence
+     *
+     * @param len	length of the sequence
+     */
+    private static int packedSize(int len) {
+        return (len + 3) >> 2;
+    }
+
+    /**
+     * @return the number of bytes needed for the ambiguity mask of a sequence
+     *
+     * @param len	length of the sequence
+     */
+    private static int maskSize(int len) {
+        return (len + 7) >> 3;
+    }
+
+    /**
+     * Write a string as a length followed by UTF-8 bytes.
+     *
+     * @param out		output stream
+     * @param string	string to write
+     *
+     * @throws IOException
+     */
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * @return a string read as a length followed by UTF-8 bytes
+     *
+     * @param buffer	buffer positioned on the string
+     */
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public int size() {
+        return this.contigIds.length;
+    }
+
+    @Override
+    public String getContigId(int i) {
+        return this.contigIds[i];
+    }
+
+    @Override
+    public CharSequence getSequence(int i) {
+        int len = this.lengths[i];
+        int packedStart = this.offsets[i];
+        return new PackedSequence(this.data, packedStart, packedStart + packedSize(len), 0, len);
+    }
+
+    @Override
+    public ContigFrameTrack getFrameTrack(int i, int regionSize) {
+        return this.getFrameTracks(i, new int[] { regionSize })[0];
+    }
+
+    @Override
+    public ContigFrameTrack getRunTrack(int i) {
+        return this.getFrameTracks(i, new int[] { 1 })[0];
+    }
+
+    @Override
+    public ContigFrameTrack[] getFrameTracks(int i, int[] regionSizes) {
+        int len = this.lengths[i];
+        int runs = this.runCounts[i];
+        ByteBuffer buffer = this.data.duplicate();
+        buffer.position(this.offsets[i] + packedSize(len) + maskSize(len));
+        int[] starts = new int[runs];
+        int[] ends = new int[runs];
+        byte[] runFrames = new byte[runs * ContigFrameTrack.RUN_FRAMES];
+        buffer.asIntBuffer().get(starts);
+        buffer.position(buffer.position() + runs * 4);
+        buffer.asIntBuffer().get(ends);
+        buffer.position(buffer.position() + runs * 4);
+        buffer.get(runFrames);
+        ContigFrameTrack[] retVal = new ContigFrameTrack[regionSizes.length];
+        for (int k = 0; k < regionSizes.length; k++) {
+            retVal[k] = new ContigFrameTrack(starts, ends, runFrames, runs, regionSizes[k]);
+        }
+        return retVal;
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+
+}
@@ -0,0 +1,323 @@
+/**
+ *
+ */
+package org.theseed.genome.kmers.coding;
+
+import java.util.Arrays;
+
+import org.theseed.locations.DiscreteLocationList;
+import org.theseed.locations.Frame;
+
+/**
+ * This class holds a precomputed frame track for a contig.  It answers the question "what is the
+ * frame of the region of a given size starting at a given position" in constant time, instead
+ * of searching the location list for every kmer.
+ *
+ * The contig is divided into runs.  Each run is a maximal stretch of the contig that is uniform:
+ * either it lies entirely inside a single coding region, or it is entirely non-coding.  A region
+ * has a valid frame if and only if it fits inside a single run, and inside a run the frames repeat
+ * with a period of three.  So for each run we only need its limits and the frames of the regions
+ * starting at its first three positions.
+ *
+ * The runs are found in a single sweep along the contig.  Because any piece of a uniform region
+ * is also uniform, the end of each run can be found with a galloping binary search, which means
+ * the location list is consulted a few dozen times per run rather than once per position.
+ *
+ * The runs themselves do not depend on the region size.  Inside a run, the frame of a region
+ * depends only on the phases of its two ends, so the frames for every region size can be derived
+ * from the frames for sizes 1, 2, and 3.  This allows a track to be saved once in a size-independent
+ * form and rebuilt for any region size without the location list.  A track computed for several
+ * sizes at once, or rebuilt from the size-independent form, keeps that form so it can be saved.
+ *
+ * A track is not thread-safe, since it remembers the most recent run for fast sequential lookups.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ContigFrameTrack {
+
+    // FIELDS
+    /** start position (1-based) of each run */
+    private int[] starts;
+    /** end position (1-based, inclusive) of each run */
+    private int[] ends;
+    /** frame ordinals for the regions starting at the first three positions of each run */
+    private byte[] phaseFrames;
+    /** number of runs */
+    private int nRuns;
+    /** size of the regions whose frames are tracked */
+    private int regionSize;
+    /** index of the run containing the most recent lookup */
+    private int cursor;
+    /** size-independent frames for each run, or NULL if they are not being computed */
+    private byte[] runFrames;
+
+    /** ordinal used for an invalid frame */
+    private static final byte NO_FRAME = (byte) Frame.XX.ordinal();
+    /** number of frames per run in the size-independent form (three phases times three residues) */
+    public static final int RUN_FRAMES = 9;
+
+    /**
+     * Compute the frame track for a contig.
+     *
+     * @param contigLocs	location list for the contig
+     * @param length		length of the contig
+     * @param regionSize	size of the regions (usually the kmer region size) whose frames are desired
+     */
+    public ContigFrameTrack(DiscreteLocationList contigLocs, int length, int regionSize) {
+        this(contigLocs, length, regionSize, false);
+    }
+
+    /**
+     * Compute the frame track for a contig, optionally computing the size-independent frames as well.
+     *
+     * @param contigLocs	location list for the contig
+     * @param length		length of the contig
+     * @param regionSize	size of the regions whose frames are desired
+     * @param allSizes		TRUE to compute the size-independent frames of each run
+     */
+    private ContigFrameTrack(DiscreteLocationList contigLocs, int length, int regionSize, boolean allSizes) {
+        this.regionSize = regionSize;
+        int capacity = 16;
+        this.starts = new int[capacity];
+        this.ends = new int[capacity];
+        this.phaseFrames = new byte[capacity * 3];
+        this.runFrames = (allSizes ? new byte[capacity * RUN_FRAMES] : null);
+        this.nRuns = 0;
+        this.cursor = 0;
+        int start = 1;
+        while (start <= length) {
+            int end;
+            if (contigLocs.computeRegionFrame(start, start) == Frame.XX) {
+                // Here the position itself is ambiguous, so no region containing it has a frame.
+                end = start;
+            } else {
+                // Gallop forward to find a position past the end of the run.
+                int lo = start;
+                int hi = length + 1;
+                int step = 1;
+                boolean searching = true;
+                while (searching) {
+                    int probe = start + step;
+                    if (probe > length) {
+                        searching = false;
+                    } else if (contigLocs.computeRegionFrame(start, probe) == Frame.XX) {
+                        hi = probe;
+                        searching = false;
+                    } else {
+                        lo = probe;
+                        step <<= 1;
+                    }
+                }
+                // Binary search between the last uniform end and the first non-uniform end.
+                while (hi - lo > 1) {
+                    int mid = (lo + hi) >>> 1;
+                    if (contigLocs.computeRegionFrame(start, mid) == Frame.XX) {
+                        hi = mid;
+                    } else {
+                        lo = mid;
+                    }
+                }
+                end = lo;
+            }
+            this.addRun(contigLocs, start, end);
+            start = end + 1;
+        }
+    }
+
+    /**
+     * Compute the frame track for a contig along with the size-independent frames of its runs.
+     *
+     * @param contigLocs	location list for the contig
+     * @param length		length of the contig
+     *
+     * @return a frame track for region size 1 whose size-independent frames are available
+     */
+    static ContigFrameTrack allSizes(DiscreteLocationList contigLocs, int length) {
+        return new ContigFrameTrack(contigLocs, length, 1, true);
+    }
+
+    /**
+     * Compute the frame tracks for a contig for several region sizes at once.  The runs are found
+     * in a single sweep, and the tracks for all the sizes are derived from them, so this is about
+     * as fast as computing a single track.
+     *
+     * @param contigLocs	location list for the contig
+     * @param length		length of the contig
+     * @param regionSizes	sizes of the regions whose frames are desired
+     *
+     * @return an array of frame tracks, parallel to the region sizes
+     */
+    public static ContigFrameTrack[] forSizes(DiscreteLocationList contigLocs, int length, int[] regionSizes) {
+        ContigFrameTrack[] retVal = new ContigFrameTrack[regionSizes.length];
+        if (regionSizes.length == 1) {
+            retVal[0] = new ContigFrameTrack(contigLocs, length, regionSizes[0]);
+        } else {
+            ContigFrameTrack base = allSizes(contigLocs, length);
+            for (int i = 0; i < regionSizes.length; i++) {
+                retVal[i] = new ContigFrameTrack(base.starts, base.ends, base.runFrames, base.nRuns,
+                        regionSizes[i]);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Rebuild a frame track from its size-independent form.
+     *
+     * @param starts		start position (1-based) of each run
+     * @param ends			end position (1-based, inclusive) of each run
+     * @param runFrames		RUN_FRAMES frame ordinals for each run, as returned by getRunFrames; the
+     * 						array is kept by the track, not copied
+     * @param nRuns			number of runs
+     * @param regionSize	size of the regions whose frames are desired
+     */
+    public ContigFrameTrack(int[] starts, int[] ends, byte[] runFrames, int nRuns, int regionSize) {
+        this.regionSize = regionSize;
+        this.starts = Arrays.copyOf(starts, nRuns);
+        this.ends = Arrays.copyOf(ends, nRuns);
+        this.phaseFrames = new byte[nRuns * 3];
+        this.nRuns = nRuns;
+        this.cursor = 0;
+        this.runFrames = runFrames;
+        int residue = regionSize % 3;
+        for (int run = 0; run < nRuns; run++) {
+            for (int i = 0; i < 3; i++) {
+                byte frame = NO_FRAME;
+                // The region only has a frame if it fits in the run.
+                if (starts[run] + i + regionSize - 1 <= ends[run]) {
+                    frame = runFrames[run * RUN_FRAMES + i * 3 + residue];
+                }
+                this.phaseFrames[run * 3 + i] = frame;
+            }
+        }
+    }
+
+    /**
+     * @return the size-independent frames for the runs of this track, or NULL if the track was
+     * 		   computed for a single region size.  For each run, there are three frames for each of
+     * 		   the first three positions:  the frames of the regions of size 3, 1, and 2 starting
+     * 		   there, in that order, so that the frame for region size R is at index R % 3.
+     */
+    byte[] getRunFrames() {
+        byte[] retVal = null;
+        if (this.runFrames != null) {
+            retVal = Arrays.copyOf(this.runFrames, this.nRuns * RUN_FRAMES);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the start position (1-based) of a run
+     *
+     * @param run	index of the run of interest
+     */
+    public int getRunStart(int run) {
+        return this.starts[run];
+    }
+
+    /**
+     * @return the end position (1-based, inclusive) of a run
+     *
+     * @param run	index of the run of interest
+     */
+    public int getRunEnd(int run) {
+        return this.ends[run];
+    }
+
+    /**
+     * Add a new run to this track.
+     *
+     * @param contigLocs	location list for the contig
+     * @param start			start position of the run
+     * @param end			end position of the run
+     */
+    private void addRun(DiscreteLocationList contigLocs, int start, int end) {
+        if (this.nRuns >= this.starts.length) {
+            int capacity = this.starts.length * 2;
+            this.starts = Arrays.copyOf(this.starts, capacity);
+            this.ends = Arrays.copyOf(this.ends, capacity);
+            this.phaseFrames = Arrays.copyOf(this.phaseFrames, capacity * 3);
+            if (this.runFrames != null) {
+                this.runFrames = Arrays.copyOf(this.runFrames, capacity * RUN_FRAMES);
+            }
+        }
+        this.starts[this.nRuns] = start;
+        this.ends[this.nRuns] = end;
+        // Compute the frames of the regions starting at the first three positions.
+        for (int i = 0; i < 3; i++) {
+            int pos = start + i;
+            int regionEnd = pos + this.regionSize - 1;
+            byte frame = NO_FRAME;
+            if (regionEnd <= end) {
+                frame = (byte) contigLocs.computeRegionFrame(pos, regionEnd).ordinal();
+            }
+            this.phaseFrames[this.nRuns * 3 + i] = frame;
+            if (this.runFrames != null) {
+                // Compute the frames for region sizes 3, 1, and 2, in the order used by runFrames.
+                for (int residue = 0; residue < 3; residue++) {
+                    regionEnd = pos + (residue == 0 ? 3 : residue) - 1;
+                    frame = NO_FRAME;
+                    if (regionEnd <= end) {
+                        frame = (byte) contigLocs.computeRegionFrame(pos, regionEnd).ordinal();
+                    }
+                    this.runFrames[this.nRuns * RUN_FRAMES + i * 3 + residue] = frame;
+                }
+            }
+        }
+        this.nRuns++;
+    }
+
+    /**
+     * @return the frame of the region starting at the specified position, or Frame.XX if the
+     * 			region is not uniform
+     *
+     * @param pos	position (1-based) of the start of the region
+     */
+    public Frame frameAt(int pos) {
+        Frame retVal = Frame.XX;
+        int run = this.findRun(pos);
+        if (run >= 0 && pos + this.regionSize - 1 <= this.ends[run]) {
+            retVal = Frame.idxFrame(this.phaseFrames[run * 3 + (pos - this.starts[run]) % 3]);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the index of the run containing the specified position, or -1 if it is off the contig
+     *
+     * @param pos	position (1-based) of interest
+     */
+    private int findRun(int pos) {
+        int retVal = -1;
+        if (this.nRuns > 0 && pos >= 1 && pos <= this.ends[this.nRuns - 1]) {
+            int run = this.cursor;
+            if (pos < this.starts[run]) {
+                // We have moved backward, so search from the beginning.
+                run = Arrays.binarySearch(this.starts, 0, this.nRuns, pos);
+                if (run < 0) run = -run - 2;
+            } else {
+                // Walk forward.  This is the normal case for a left-to-right scan.
+                while (pos > this.ends[run]) run++;
+            }
+            this.cursor = run;
+            retVal = run;
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the number of runs in this track
+     */
+    public int size() {
+        return this.nRuns;
+    }
+
+    /**
+     * @return the size of the regions whose frames are tracked
+     */
+    public int getRegionSize() {
+        return this.regionSize;
+    }
+
+}
@@ -0,0 +1,55 @@
+/**
+ *
+ */
+package org.theseed.genome.kmers.coding;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * This interface describes a large array of unsigned counts, indexed by kmer number, used to
+ * hold the counts for a single frame.  Each count is kept in a narrow cell.  A cell that reaches
+ * its maximum value is saturated, and the rest of its count is kept in an overflow table.
+ *
+ * The interface only reads the counts, so a memory-mapped array can implement it without
+ * pretending to support updates.  The in-memory {@link AtomicCountArray} adds the methods that
+ * change them.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public interface CountArray {
+
+    /**
+     * @return the number of counts in this array
+     */
+    public int size();
+
+    /**
+     * @return the number of bits in a cell
+     */
+    public int getCellBits();
+
+    /**
+     * @return the count at the specified position
+     *
+     * @param i		index of the desired count
+     */
+    public int get(int i);
+
+    /**
+     * @return the overflow table holding the excess for the saturated cells
+     */
+    public OverflowTable getOverflow();
+
+    /**
+     * Write all the cells to an output channel as big-endian integers of the cell width.  The
+     * overflow table is not included.
+     *
+     * @param out	output channel
+     *
+     * @throws IOException
+     */
+    public void writeTo(WritableByteChannel out) throws IOException;
+
+}
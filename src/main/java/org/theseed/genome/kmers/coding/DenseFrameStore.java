@@ -0,0 +1,107 @@
+/**
+ *
+ */
+package org.theseed.genome.kmers.coding;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+
+import org.theseed.locations.Frame;
+
+/**
+ * This is the dense frame count store.  It is a set of giant in-memory arrays, one per frame, each
+ * indexed by slot number, with lock-free increments.  A saved dense store can also be memory-mapped
+ * instead of loaded, in which case it is presented as a read-only {@link DenseFrameView}.
+ *
+ * The store keeps a coarse occupancy bitmap with one bit for each block of slots, so that a scan
+ * can skip the empty parts of the arrays.  A bit is set the first time a slot in its block is
+ * incremented, and it is recomputed when the store is loaded.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class DenseFrameStore extends DenseFrameView implements FrameCountStore {
+
+    // FIELDS
+    /** the in-memory count arrays, indexed by frame ordinal (these are the arrays the view reads) */
+    private AtomicCountArray[] atomicArray;
+
+    /**
+     * Create a new, empty dense store with 16-bit cells.
+     *
+     * @param slots		number of slots to hold
+     */
+    public DenseFrameStore(int slots) {
+        this(slots, AtomicCountArray.DEFAULT_BITS);
+    }
+
+    /**
+     * Create a new, empty dense store.
+     *
+     * @param slots		number of slots to hold
+     * @param bits		number of bits in a count cell (8 or 16)
+     */
+    public DenseFrameStore(int slots, int bits) {
+        super(new AtomicCountArray[Frame.nFrames], new BlockOccupancy(slots));
+        this.atomicArray = (AtomicCountArray[]) this.countArray;
+        for (int i = 0; i < Frame.nFrames; i++) {
+            this.atomicArray[i] = new AtomicCountArray(slots, bits);
+        }
+    }
+
+    /**
+     * @return a dense store whose counts are read from an input channel
+     *
+     * @param in			input channel, positioned on the first count
+     * @param slots			number of slots in the store
+     * @param bits			number of bits in a count cell
+     * @param overflow		TRUE if the cells are followed by overflow tables
+     *
+     * @throws IOException
+     */
+    public static DenseFrameStore load(ReadableByteChannel in, int slots, int bits, boolean overflow)
+            throws IOException {
+        DenseFrameStore retVal = new DenseFrameStore(slots, bits);
+        for (int i = 0; i < Frame.nFrames; i++) {
+            retVal.atomicArray[i].readFrom(in);
+        }
+        if (overflow) {
+            retVal.readOverflow(in);
+        }
+        retVal.computeOccupancy();
+        return retVal;
+    }
+
+    /**
+     * Compute the occupancy bitmap from the counts.
+     */
+    private void computeOccupancy() {
+        int slots = this.atomicArray[0].size();
+        int blockSize = 1 << BLOCK_BITS;
+        for (int first = 0; first < slots; first += blockSize) {
+            int n = Math.min(blockSize, slots - first);
+            boolean empty = true;
+            for (int i = 0; empty && i < Frame.nFrames; i++) {
+                empty = this.atomicArray[i].isEmpty(first, n);
+            }
+            if (! empty) {
+                this.occupancy.mark(first);
+            }
+        }
+    }
+
+    @Override
+    public void increment(long slot, int ordinal) {
+        this.atomicArray[ordinal].increment((int) slot);
+        this.occupancy.mark(slot);
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < Frame.nFrames; i++) {
+            this.atomicArray[i].clear();
+        }
+        this.occupancy.clear();
+    }
+
+}
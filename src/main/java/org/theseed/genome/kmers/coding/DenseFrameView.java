@@ -0,0 +1,139 @@
+/**
+ *
+ */
+package org.theseed.genome.kmers.coding;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import org.theseed.locations.Frame;
+
+/**
+ * This is the read-only form of the dense frame count store.  It is a set of giant arrays, one per
+ * frame, each indexed by slot number.  A dense store memory-mapped from a saved file is presented
+ * this way, since its arrays cannot be updated.  The in-memory {@link DenseFrameStore} extends it
+ * with lock-free increments.  Because the arrays are indexed by integers, a dense store can only be
+ * used for slot numbers that fit in an integer.
+ *
+ * The cells of the arrays are 16 bits wide by default.  An 8-bit store uses only one byte per
+ * frame for each slot.  In either case, the counts too big for a cell are kept in overflow tables.
+ *
+ * The store may also have a coarse occupancy bitmap with one bit for each block of slots, so that a
+ * scan can skip the empty parts of the arrays.  A mapped store has no bitmap, since building one
+ * would page in the whole file, so all its blocks are considered occupied.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class DenseFrameView implements FrameCountView {
+
+    // FIELDS
+    /** the count arrays, indexed by frame ordinal */
+    protected CountArray[] countArray;
+    /** occupancy bitmap, with one bit per block of slots, or NULL if the occupancy is unknown */
+    protected BlockOccupancy occupancy;
+
+    /**
+     * Create a dense view of existing count arrays.
+     *
+     * @param arrays		array of count arrays, indexed by frame ordinal
+     * @param occupancy		occupancy bitmap, or NULL if the occupancy is unknown
+     */
+    protected DenseFrameView(CountArray[] arrays, BlockOccupancy occupancy) {
+        this.countArray = arrays;
+        this.occupancy = occupancy;
+    }
+
+    /**
+     * @return a read-only dense store whose counts are memory-mapped from a file
+     *
+     * @param channel		channel for the input file
+     * @param offset		byte offset in the file of the first count
+     * @param slots			number of slots in the store
+     * @param bits			number of bits in a count cell
+     * @param overflow		TRUE if the cells are followed by overflow tables
+     *
+     * @throws IOException
+     */
+    public static DenseFrameView map(FileChannel channel, long offset, int slots, int bits, boolean overflow)
+            throws IOException {
+        CountArray[] arrays = new CountArray[Frame.nFrames];
+        long frameBytes = ((long) slots) * (bits >> 3);
+        for (int i = 0; i < Frame.nFrames; i++) {
+            arrays[i] = new MappedCountArray(channel, offset + i * frameBytes, slots, bits);
+        }
+        DenseFrameView retVal = new DenseFrameView(arrays, null);
+        if (overflow) {
+            // The overflow tables are small, so they are read into memory.
+            channel.position(offset + Frame.nFrames * frameBytes);
+            retVal.readOverflow(channel);
+        }
+        return retVal;
+    }
+
+    /**
+     * Read the overflow tables for all the frames.
+     *
+     * @param in	input channel, positioned on the first overflow table
+     *
+     * @throws IOException
+     */
+    protected void readOverflow(ReadableByteChannel in) throws IOException {
+        for (int i = 0; i < Frame.nFrames; i++) {
+            this.countArray[i].getOverflow().readFrom(in);
+        }
+    }
+
+    /**
+     * @return the number of bits in a count cell
+     */
+    public int getCellBits() {
+        return this.countArray[0].getCellBits();
+    }
+
+    @Override
+    public int getCount(long slot, int ordinal) {
+        return this.countArray[ordinal].get((int) slot);
+    }
+
+    @Override
+    public void getCounts(long slot, int[] counts) {
+        for (int i = 0; i < Frame.nFrames; i++) {
+            counts[i] = this.countArray[i].get((int) slot);
+        }
+    }
+
+    /**
+     * A dense store must be scanned, so this always returns NULL.
+     */
+    @Override
+    public long[] occupiedSlots() {
+        return null;
+    }
+
+    @Override
+    public boolean isBlockOccupied(long block) {
+        boolean retVal = true;
+        if (this.occupancy != null) {
+            retVal = this.occupancy.isOccupied(block);
+        }
+        return retVal;
+    }
+
+    /**
+     * Write the counts to an output channel.  The output is the cells for each frame, followed by
+     * the overflow table for each frame.
+     */
+    @Override
+    public void writeTo(WritableByteChannel out) throws IOException {
+        for (int i = 0; i < Frame.nFrames; i++) {
+            this.countArray[i].writeTo(out);
+        }
+        for (int i = 0; i < Frame.nFrames; i++) {
+            this.countArray[i].getOverflow().writeTo(out);
+        }
+    }
+
+}
@@ -0,0 +1,29 @@
+/**
+ *
+ */
+package org.theseed.genome.kmers.coding;
+
+/**
+ * This interface describes the writable storage behind a kmer frame counter.  It adds counting
+ * to the read-only {@link FrameCountView}.  Increments must be safe to perform from multiple
+ * threads.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public interface FrameCountStore extends FrameCountView {
+
+    /**
+     * Increment the count for a slot in the frame with the specified ordinal.
+     *
+     * @param slot		slot to increment
+     * @param ordinal	ordinal of the frame to increment
+     */
+    public void increment(long slot, int ordinal);
+
+    /**
+     * Erase all the counts.
+     */
+    public void clear();
+
+}
@@ -0,0 +1,65 @@
+/**
+ *
+ */
+package org.theseed.genome.kmers.coding;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * This interface describes read-only access to the storage behind a kmer frame counter.  The
+ * storage holds a count for each frame of each slot.  (A slot is usually a kmer index, but in
+ * canonical mode the counter maps each kmer pair to a single slot.)  Slots are long integers so
+ * that kmers longer than 15 base pairs can be stored.
+ *
+ * A store memory-mapped from a saved file is presented only through this interface, since its
+ * counts cannot be changed.  A {@link FrameCountStore} adds the methods for counting.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public interface FrameCountView {
+
+    /** log base 2 of the number of slots in an occupancy block */
+    public static final int BLOCK_BITS = 12;
+
+    /**
+     * @return the count for a slot in the frame with the specified ordinal
+     *
+     * @param slot		slot of interest
+     * @param ordinal	ordinal of the frame whose count is desired
+     */
+    public int getCount(long slot, int ordinal);
+
+    /**
+     * Get the counts for a slot in all the frames at once.
+     *
+     * @param slot		slot of interest
+     * @param counts	array to receive the counts, indexed by frame ordinal
+     */
+    public void getCounts(long slot, int[] counts);
+
+    /**
+     * @return a sorted array of the slots that may have nonzero counts, or NULL if the store
+     * 		   cannot list them cheaply and should be scanned instead
+     */
+    public long[] occupiedSlots();
+
+    /**
+     * @return FALSE if no slot in the specified block can have a nonzero count, else TRUE; a block
+     * 		   contains 2^BLOCK_BITS consecutive slots
+     *
+     * @param block		index of the block (the slot number shifted right by BLOCK_BITS)
+     */
+    public boolean isBlockOccupied(long block);
+
+    /**
+     * Write the counts to an output channel.
+     *
+     * @param out	output channel
+     *
+     * @throws IOException
+     */
+    public void writeTo(WritableByteChannel out) throws IOException;
+
+}
@@ -0,0 +1,93 @@
+/**
+ *
+ */
+package org.theseed.genome.kmers.coding;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.theseed.genome.Contig;
+import org.theseed.genome.Genome;
+import org.theseed.locations.DiscreteLocationList;
+
+/**
+ * This class presents the contigs of a fully-loaded genome for frame counting.  The frame tracks
+ * are computed from the genome's coding map, which is built when the first track is requested, so
+ * that the work is done by the thread processing the genome.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class GenomeContigs implements CodingContigs {
+
+    // FIELDS
+    /** genome being presented */
+    private Genome genome;
+    /** contigs of the genome */
+    private List<Contig> contigs;
+    /** map of contig IDs to coding location lists, or NULL if it has not been built yet */
+    private Map<String, DiscreteLocationList> contigMap;
+
+    /**
+     * Prepare a genome for frame counting.
+     *
+     * @param genome	genome whose contigs are to be presented
+     */
+    public GenomeContigs(Genome genome) {
+        this.genome = genome;
+        this.contigs = new ArrayList<Contig>(genome.getContigs());
+        this.contigMap = null;
+    }
+
+    @Override
+    public int size() {
+        return this.contigs.size();
+    }
+
+    @Override
+    public String getContigId(int i) {
+        return this.contigs.get(i).getId();
+    }
+
+    @Override
+    public String getSequence(int i) {
+        return this.contigs.get(i).getSequence();
+    }
+
+    @Override
+    public ContigFrameTrack getFrameTrack(int i, int regionSize) {
+        Contig contig = this.contigs.get(i);
+        return new ContigFrameTrack(this.getContigLocs(contig), contig.getSequence().length(), regionSize);
+    }
+
+    @Override
+    public ContigFrameTrack[] getFrameTracks(int i, int[] regionSizes) {
+        Contig contig = this.contigs.get(i);
+        return ContigFrameTrack.forSizes(this.getContigLocs(contig), contig.getSequence().length(), regionSizes);
+    }
+
+    @Override
+    public ContigFrameTrack getRunTrack(int i) {
+        Contig contig = this.contigs.get(i);
+        return ContigFrameTrack.allSizes(this.getContigLocs(contig), contig.getSequence().length());
+    }
+
+    /**
+     * @return the coding location list for a contig
+     *
+     * @param contig	contig of interest
+     */
+    private DiscreteLocationList getContigLocs(Contig contig) {
+        if (this.contigMap == null) {
+            this.contigMap = DiscreteLocationList.createGenomeCodingMap(this.genome);
+        }
+        return this.contigMap.get(contig.getId());
+    }
+
+    @Override
+    public String toString() {
+        return this.genome.toString();
+    }
+
+}
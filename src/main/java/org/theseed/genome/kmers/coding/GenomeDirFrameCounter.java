@@ -6,25 +6,40 @@ package org.theseed.genome.kmers.coding;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
-import java.util.Map;
+import java.util.Deque;
+import java.util.Formatter;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.kohsuke.args4j.Argument;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Localizable;
 import org.kohsuke.args4j.Option;
-import org.theseed.counters.QualityCountMap;
-import org.theseed.genome.Contig;
 import org.theseed.genome.Genome;
 import org.theseed.genome.GenomeDirectory;
 import org.theseed.genome.kmers.DnaKmer;
+import org.theseed.genome.kmers.KmerSpec;
 import org.theseed.genome.kmers.SequenceDnaKmers;
 import org.theseed.genome.kmers.SequenceDnaNormalKmers;
 import org.theseed.genome.kmers.SequenceDnaSpacedKmers;
 import org.theseed.genome.kmers.predictor.FramePredictor;
 import org.theseed.locations.Frame;
-import org.theseed.locations.DiscreteLocationList;
 
 /**
  *
@@ -32,13 +47,45 @@ import org.theseed.locations.DiscreteLocationList;
  * The command-line options are
  *
  * 	-K		kmer size and type (default is 15); use a number for normal kmers, a number followed
- * 			by "p" for spaced kmers
+ * 			by "p" for spaced kmers; sizes over 15 (up to 31) always use the SPARSE backend; this
+ * 			option can be repeated to count several kinds of kmer in a single pass over the genomes
  * 	-t		minimum best-fraction for a useful kmer (default is 0.80)
  * 	-m		minimum best-hits for a useful kmer (default is 30)
  * 	-i		input directory containing the genomes-- if omitted, a previously-built database is
  * 			loaded from the output directory
+ * 	--threads	number of threads to use for counting the input genomes, selecting the useful
+ * 				kmers, and testing them against the testing set (default is 1)
+ * 	--loaders	number of threads to use for loading and parsing the input genomes ahead of the
+ * 				counting (default is 0, meaning the genomes are loaded by the counting loop itself);
+ * 				this cannot be used with --cache
+ * 	--stream	read the GTO files in streaming mode, keeping only the contigs and the coding
+ * 				locations, instead of loading full genomes
+ * 	--cache		directory for binary caches of the input genomes; each input GTO is converted to a
+ * 				cache file once, and afterward the cache is read instead of the GTO
+ * 	--mapped	when reloading a previously-built database, memory-map it instead of reading it
+ * 	--batch		when counting, sort each genome's increments into address order before applying
+ * 				them, which reduces the memory-access cost for large kmer sizes
+ * 	--canonical	store each normal kmer and its reverse complement together, halving the work
+ * 				and, for odd kmer sizes, the memory
+ * 	--backend	storage for the counts:  DENSE (default) for one array per frame, COMPACT for one
+ * 				array per frame with one byte per kmer, SPARSE for a hash table that holds only the
+ * 				kmers found, INTERLEAVED for one array with all the frame counts for a kmer together
+ * 	--sweep		grid of best-fraction and best-hits settings to try in place of -t and -m, as a
+ * 				comma-separated list of "threshold:minHits" pairs, either side of which may be a
+ * 				slash-separated list (e.g. "0.8/0.9:10/30,0.95:50" is five points)
  *
  * The positional parameter is the name of the output directory (which may need to be created).
+ * The kmer counts are saved there in "kmers.ser", the useful kmers in "kmers.tbl", and the report in
+ * "kmers.report.txt".  The useful kmers are also saved in "kmers.pred", a binary file that a
+ * FramePredictor can memory-map without parsing.  If more than one kmer specification is given,
+ * each one gets its own set of files in a subdirectory of the output directory named for the
+ * specification (e.g. "K15" or "K12p").  The genomes are read once, and each contig's kmers are
+ * counted for every specification at the same time.
+ *
+ * In sweep mode, the kmer counts are scanned once for the whole grid.  Each grid point gets a
+ * subdirectory named for its settings (e.g. "T0.8-M30") containing its "kmers.tbl" and "kmers.pred".
+ * The report is "kmers.sweep.txt", with one row per grid point.  If there is a testing set, it is
+ * processed once for all the grid points, using a combined predictor saved in "kmers.sweep.pred".
  *
  * @author Bruce Parrello
  */
@@ -46,11 +93,59 @@ public class GenomeDirFrameCounter {
 
     // FIELDS
 
+    /** number of kmer ranges to scan when searching for useful kmers */
+    private static final int SCAN_SHARDS = 1024;
+
+    /** default kmer specification */
+    private static final KmerSpec DEFAULT_KMER = new KmerSpec(SequenceDnaNormalKmers.class, 15);
+
     /** object to manage input directory */
     private GenomeDirectory inputGenomes;
 
-    /** type of kmer processing */
-    Class<? extends SequenceDnaKmers> kmerType;
+    /** types and sizes of kmer to count */
+    private List<KmerSpec> kmerSpecs;
+
+    /** background genome loader, or NULL if the genomes are loaded by the counting loop */
+    private GenomePrefetcher prefetcher;
+
+    /** contig cache files for the input genomes, or NULL if the cache is not used */
+    private File[] cacheFiles;
+
+    /** best-fraction threshold for each grid point */
+    private double[] thresholds;
+
+    /** minimum best-frame hits for each grid point */
+    private int[] minHitCounts;
+
+    /**
+     * Errors found while validating the command-line options.  Each message is a format string for
+     * the arguments of the exception.
+     */
+    private static enum UsageError implements Localizable {
+        THREADS("Thread count must be at least 1."),
+        CANONICAL("Canonical storage is not supported for spaced kmers."),
+        LOADERS("Loader count cannot be negative."),
+        CACHE_LOADERS("Loader threads cannot be used with a contig cache."),
+        SWEEP("Invalid sweep grid: %s");
+
+        /** format string for the message */
+        private String text;
+
+        private UsageError(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public String formatWithLocale(Locale locale, Object... args) {
+            return String.format(locale, this.text, args);
+        }
+
+        @Override
+        public String format(Object... args) {
+            return String.format(this.text, args);
+        }
+
+    }
 
     // COMMAND LINE
 
@@ -58,29 +153,13 @@ public class GenomeDirFrameCounter {
     @Option(name="-h", aliases={"--help"}, help=true)
     private boolean help;
 
-    /** kmer size and type to use (default 15); suffix "p" indicates spaced kmers
-     * @throws CmdLineException */
-    @Option(name="-K", aliases={"--kmer"}, metaVar="15", usage="kmer size (XX for normal, XXp for spaced)")
+    /** kmer size and type to use (default 15); suffix "p" indicates spaced kmers; may be repeated */
+    @Option(name="-K", aliases={"--kmer"}, metaVar="15", usage="kmer size (XX for normal, XXp for spaced); may be repeated")
     private void setKmer(String newSize) {
-        int realSize;
-        // Determine the kmer type.
-        if (newSize.endsWith("p")) {
-            kmerType = SequenceDnaSpacedKmers.class;
-            realSize = Integer.valueOf(newSize.substring(0, newSize.length() - 1));
-            // Insure the size is valid for a spaced kmer.
-            if (realSize % 2 != 0) {
-                throw new IllegalArgumentException("Spaced kmer sizes must be a multiple of 2.");
-            }
-        } else {
-            kmerType = SequenceDnaNormalKmers.class;
-            realSize = Integer.valueOf(newSize);
-            // Insure the size is valid for a normal kmer.
-            if (realSize % 3 != 0) {
-                throw new IllegalArgumentException("Normal kmer sizes must be a multiple of 3.");
-            }
+        KmerSpec spec = KmerSpec.parse(newSize);
+        if (! this.kmerSpecs.contains(spec)) {
+            this.kmerSpecs.add(spec);
         }
-        // Store the kmer size.
-        DnaKmer.setSize(realSize);
     }
 
     /** genome directory for optional testing set */
@@ -95,10 +174,46 @@ public class GenomeDirFrameCounter {
     @Option(name="-m", aliases= {"--minHits"}, metaVar="30", usage="minimum hits in the best frame for a useful kmer")
     private int minHits;
 
+    /** grid of threshold and minimum-hit settings to sweep, or NULL for a single setting */
+    @Option(name="--sweep", metaVar="0.8/0.9:30", usage="grid of threshold:minHits settings to try (either side may be a slash-separated list)")
+    private String sweep;
+
     /** input directory name; if omitted, the kmer database is reloaded from the output directory */
     @Option(name="-i", aliases={"--inputDir"}, metaVar="inputDir", usage="input GTO directory")
     private File inputDir;
 
+    /** number of threads to use for counting */
+    @Option(name="--threads", metaVar="8", usage="number of threads for counting genomes, selecting kmers, and testing")
+    private int threads;
+
+    /** number of threads to use for loading genomes ahead of the counting */
+    @Option(name="--loaders", metaVar="2", usage="number of threads for loading genomes ahead of counting (0 for none)")
+    private int loaders;
+
+    /** if TRUE, GTO files are read in streaming mode */
+    @Option(name="--stream", usage="read only the contigs and coding locations from the GTO files")
+    private boolean stream;
+
+    /** directory for the contig caches of the input genomes */
+    @Option(name="--cache", metaVar="cacheDir", usage="directory for binary contig caches of the input genomes")
+    private File cacheDir;
+
+    /** if TRUE, a reloaded kmer database is memory-mapped */
+    @Option(name="--mapped", usage="memory-map a reloaded kmer database instead of reading it")
+    private boolean mapped;
+
+    /** if TRUE, the increments for each genome are sorted into address order before being applied */
+    @Option(name="--batch", usage="apply the counts for each genome in address order")
+    private boolean batch;
+
+    /** if TRUE, kmers are counted with canonical storage */
+    @Option(name="--canonical", usage="share counts between each normal kmer and its reverse complement")
+    private boolean canonical;
+
+    /** type of storage for the kmer counts */
+    @Option(name="--backend", metaVar="SPARSE", usage="kmer count storage type (DENSE, COMPACT, SPARSE, or INTERLEAVED)")
+    private KmerFrameCounter.Backend backend;
+
     /** output directory */
     @Argument(index=0, metaVar="outDir", usage="output result directory",
             required=true, multiValued=false)
@@ -118,15 +233,46 @@ public class GenomeDirFrameCounter {
         this.minHits = 30;
         this.inputDir = null;
         this.testDir = null;
+        this.threads = 1;
+        this.loaders = 0;
+        this.cacheDir = null;
+        this.stream = false;
+        this.mapped = false;
+        this.batch = false;
+        this.canonical = false;
+        this.backend = KmerFrameCounter.Backend.DENSE;
+        this.kmerSpecs = new ArrayList<KmerSpec>();
+        this.sweep = null;
         CmdLineParser parser = new CmdLineParser(this);
         try {
             parser.parseArgument(args);
+            if (this.kmerSpecs.isEmpty()) {
+                this.kmerSpecs.add(DEFAULT_KMER);
+            }
+            // The global kmer size matches the first specification.
+            DnaKmer.setSize(this.kmerSpecs.get(0).getKmerSize());
             if (this.help) {
                 parser.printUsage(System.err);
+            } else if (this.threads < 1) {
+                throw new CmdLineException(parser, UsageError.THREADS);
+            } else if (this.loaders < 0) {
+                throw new CmdLineException(parser, UsageError.LOADERS);
+            } else if (this.loaders > 0 && this.cacheDir != null) {
+                throw new CmdLineException(parser, UsageError.CACHE_LOADERS);
+            } else if (this.canonical && this.hasSpacedKmers()) {
+                throw new CmdLineException(parser, UsageError.CANONICAL);
             } else {
+                try {
+                    this.setupGrid();
+                } catch (IllegalArgumentException e) {
+                    throw new CmdLineException(parser, UsageError.SWEEP, e.getMessage());
+                }
                 if (this.inputDir != null) {
                     this.inputGenomes = new GenomeDirectory(this.inputDir.getPath());
                 }
+                if (this.cacheDir != null && ! this.cacheDir.isDirectory() && ! this.cacheDir.mkdirs()) {
+                    throw new IOException("Could not create cache directory " + this.cacheDir + ".");
+                }
                 if (this.outDir.isDirectory()) {
                     retVal = true;
                 } else {
@@ -145,6 +291,53 @@ public class GenomeDirFrameCounter {
         return retVal;
     }
 
+    /**
+     * Set up the grid of threshold and minimum-hit settings.  Without a sweep, the grid is the
+     * single point specified by the threshold and minimum-hit options.
+     */
+    private void setupGrid() {
+        List<Double> thresholdList = new ArrayList<Double>();
+        List<Integer> minHitList = new ArrayList<Integer>();
+        if (this.sweep == null) {
+            thresholdList.add(this.threshold);
+            minHitList.add(this.minHits);
+        } else {
+            for (String item : this.sweep.split(",")) {
+                String[] parts = item.split(":");
+                if (parts.length != 2) {
+                    throw new IllegalArgumentException("setting \"" + item + "\" must be threshold:minHits.");
+                }
+                for (String thresholdString : parts[0].split("/")) {
+                    double newThreshold = Double.parseDouble(thresholdString);
+                    for (String minHitString : parts[1].split("/")) {
+                        int newMinHits = Integer.parseInt(minHitString);
+                        // Skip duplicate points, since they would share an output directory.
+                        boolean found = false;
+                        for (int p = 0; p < thresholdList.size(); p++) {
+                            if (thresholdList.get(p) == newThreshold && minHitList.get(p) == newMinHits) {
+                                found = true;
+                            }
+                        }
+                        if (! found) {
+                            thresholdList.add(newThreshold);
+                            minHitList.add(newMinHits);
+                        }
+                    }
+                }
+            }
+            if (thresholdList.size() > SweepTally.MAX_POINTS) {
+                throw new IllegalArgumentException("grid has " + thresholdList.size() + " points, but the limit is "
+                        + SweepTally.MAX_POINTS + ".");
+            }
+        }
+        this.thresholds = new double[thresholdList.size()];
+        this.minHitCounts = new int[minHitList.size()];
+        for (int p = 0; p < this.thresholds.length; p++) {
+            this.thresholds[p] = thresholdList.get(p);
+            this.minHitCounts[p] = minHitList.get(p);
+        }
+    }
+
     public void run() {
         // Display the parameters.
         if (this.inputDir != null) {
@@ -155,112 +348,683 @@ public class GenomeDirFrameCounter {
         }
         System.err.println("Output directory is " + this.outDir + ".");
         try {
-            // Compute the kmer file name.
-            File saveFile = new File(this.outDir, "kmers.ser");
-            // Create the kmer counter.
-            KmerFrameCounter bigCounter;
+            // Create the kmer counters.
+            KmerFrameCounter[] counters = new KmerFrameCounter[this.kmerSpecs.size()];
             if (this.inputDir != null) {
-                // Here we have to create the kmer counter from the input directory.
-                System.err.println("Kmer size is " + DnaKmer.getSize() + ".");
-                bigCounter = new KmerFrameCounter(this.kmerType);
-                // Process the genomes.
-                int gCount = 0;
-                long start = System.currentTimeMillis();
-                for (Genome genome : this.inputGenomes) {
-                    gCount++;
-                    System.err.println("Processing #" + gCount + ": " + genome + ".");
-                    bigCounter.processGenome(genome);
-                    // Display a time estimate every 100 genomes.
-                    if (gCount % 100 == 0) {
-                        double secsPerGenome = ((double) (System.currentTimeMillis() - start)) / (1000 * gCount);
-                        double remainingMinutes = (this.inputGenomes.size() - gCount) * secsPerGenome / 60;
-                        System.err.printf("TIME ESTIMATE: %4.2f seconds/genome, %4.1f minutes left.\n",
-                                secsPerGenome, remainingMinutes);
+                // Here we have to create the kmer counters from the input directory.
+                for (int k = 0; k < counters.length; k++) {
+                    System.err.println("Counting kmers of size " + this.kmerSpecs.get(k) + ".");
+                    counters[k] = new KmerFrameCounter(this.kmerSpecs.get(k), this.canonical, this.backend);
+                }
+                // If we are using the cache, bring it up to date.  Otherwise, if we have loaders,
+                // start them.  The queue holds two genomes per loader.
+                if (this.cacheDir != null) {
+                    this.cacheFiles = this.updateCache();
+                } else if (this.loaders > 0) {
+                    System.err.println("Loading genomes with " + this.loaders + " threads.");
+                    this.prefetcher = new GenomePrefetcher(this.inputDir, this.loaders, this.loaders * 2, this.stream);
+                }
+                try {
+                    // Process the genomes.
+                    if (this.threads > 1) {
+                        this.countThreaded(counters);
+                    } else {
+                        int gCount = 0;
+                        long start = System.currentTimeMillis();
+                        // In batched mode, the increments go through buffers that sort them.
+                        KmerCountBuffer[] buffers = null;
+                        if (this.batch) {
+                            buffers = this.createBuffers(counters, true);
+                        }
+                        for (CodingContigs genome : this.genomeSource()) {
+                            gCount++;
+                            System.err.println("Processing #" + gCount + ": " + genome + ".");
+                            KmerFrameCounter.processContigs(genome, counters, buffers);
+                            this.showProgress(gCount, start);
+                        }
+                    }
+                } finally {
+                    if (this.prefetcher != null) {
+                        this.prefetcher.close();
                     }
                 }
                 System.err.println("Saving results.");
-                bigCounter.save(saveFile);
+                for (int k = 0; k < counters.length; k++) {
+                    counters[k].save(new File(this.specDir(this.kmerSpecs.get(k)), "kmers.ser"));
+                }
             } else {
-                // Here we have to reload an existing kmer counter database.
-                System.err.println("Loading saved kmer database.");
-                long start = System.currentTimeMillis();
-                bigCounter = new KmerFrameCounter(saveFile);
-                this.kmerType = bigCounter.getKmerType();
-                double timeToLoad = ((double) (System.currentTimeMillis() - start)) / 1000;
-                System.err.printf("%4.2f seconds to load database.\n", timeToLoad);
-                System.err.println("Kmer size is " + DnaKmer.getSize() + ".");
-            }
-            System.err.println("Searching for useful kmers.");
-            // Open the kmer output file.
-            File kmerFile = new File(this.outDir, "kmers.tbl");
-            PrintWriter kmerWriter = new PrintWriter(kmerFile);
-            // Start with a header.
-            kmerWriter.println("kmer\tframe\tfraction\thits");
-            // This will count the good kmers found.
-            int goodCount = 0;
-            // These are used to compute the mean hits and fraction.
-            double totalFrac = 0.0;
-            int countKmers = 0;
-            long totalHits = 0;
-            // This will count the good kmers per frame.
-            int[] found = new int[Frame.nFrames];
-            Arrays.fill(found, 0);
-            long start = System.currentTimeMillis();
-            // Loop through all the kmers.
-            for (DnaKmer kmer : bigCounter) {
-                Frame bestFrame = bigCounter.getBest(kmer);
-                double frac = bigCounter.getFrac(kmer, bestFrame);
-                int hits = bigCounter.getCount(kmer, bestFrame);
-                totalFrac += frac;
-                totalHits += hits;
-                countKmers++;
-                if (frac > this.threshold && hits > this.minHits) {
-                    // Here the kmer is good enough.
-                    kmerWriter.format("%s\t%s\t%04.2f\t%d%n", kmer, bestFrame, frac, hits);
-                    goodCount++;
-                    found[bestFrame.ordinal()]++;
+                // Here we have to reload existing kmer counter databases.
+                for (int k = 0; k < counters.length; k++) {
+                    System.err.println("Loading saved kmer database.");
+                    long start = System.currentTimeMillis();
+                    File saveFile = new File(this.specDir(this.kmerSpecs.get(k)), "kmers.ser");
+                    counters[k] = new KmerFrameCounter(saveFile, this.mapped);
+                    double timeToLoad = ((double) (System.currentTimeMillis() - start)) / 1000;
+                    System.err.printf("%4.2f seconds to load database.\n", timeToLoad);
                 }
             }
-            double secsToSearch = ((double) (System.currentTimeMillis() - start)) / 1000;
-            System.err.format("%4.2f seconds to search kmer database%n", secsToSearch);
+            // Write the useful kmers and the report for each counter.
+            for (int k = 0; k < counters.length; k++) {
+                this.writeResults(counters[k], this.specDir(this.kmerSpecs.get(k)));
+            }
+            System.err.println("All done.");
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Search a kmer counter for useful kmers and write the kmer table, the predictor file, and
+     * the report for each grid point.  The global kmer size is set to match the counter, so the
+     * kmers display properly and the predictors are saved with the right size.
+     *
+     * @param bigCounter	kmer frame counter to search
+     * @param dir			output directory for the files
+     *
+     * @throws IOException
+     * @throws InterruptedException
+     * @throws ExecutionException
+     */
+    private void writeResults(KmerFrameCounter bigCounter, File dir)
+            throws IOException, InterruptedException, ExecutionException {
+        KmerSpec spec = bigCounter.getKmerSpec();
+        DnaKmer.setSize(spec.getKmerSize());
+        System.err.println("Kmer size is " + spec + ".");
+        System.err.println("Searching for useful kmers.");
+        // Open the kmer output files.  Without a sweep, there is only one, in the main directory.
+        int points = this.thresholds.length;
+        File[] pointDirs = new File[points];
+        PrintWriter[] kmerWriters = new PrintWriter[points];
+        for (int p = 0; p < points; p++) {
+            pointDirs[p] = (this.sweep == null ? dir : this.pointDir(dir, p));
+            kmerWriters[p] = new PrintWriter(new File(pointDirs[p], "kmers.tbl"));
+            // Start with a header.
+            kmerWriters[p].println("kmer\tframe\tfraction\thits");
+        }
+        long start = System.currentTimeMillis();
+        // Scan all the kmers.
+        KmerSelector selector = this.selectKmers(bigCounter, kmerWriters);
+        double secsToSearch = ((double) (System.currentTimeMillis() - start)) / 1000;
+        System.err.format("%4.2f seconds to search kmer database%n", secsToSearch);
+        for (PrintWriter kmerWriter : kmerWriters) {
             kmerWriter.close();
-            System.err.println("Writing report.");
+        }
+        // Save the useful kmers in binary form, so that predictors can load them quickly.
+        for (int p = 0; p < points; p++) {
+            selector.savePoint(new File(pointDirs[p], "kmers.pred"), spec, p);
+        }
+        System.err.println("Writing report.");
+        double meanFrac = selector.totalFrac / selector.countKmers;
+        double meanHits = ((double) selector.totalHits) / selector.countKmers;
+        if (this.sweep != null) {
+            System.err.println(selector.countKmers + " unique kmers found.");
+            System.err.format("Mean hits per kmer = %4.2f, mean fraction = %4.2f%n", meanHits, meanFrac);
+            this.writeSweepReport(selector, dir, spec);
+        } else {
             // Open the report output file.
-            File reportFile = new File(this.outDir, "kmers.report.txt");
+            File reportFile = new File(dir, "kmers.report.txt");
             PrintWriter reportWriter = new PrintWriter(reportFile);
             // Write the report.
-            reportWriter.println(goodCount + " good kmers found.");
-            reportWriter.println(countKmers + " unique kmers found.");
-            double meanFrac = totalFrac / countKmers;
-            double meanHits = ((double) totalHits) / countKmers;
+            reportWriter.println(selector.goodCount[0] + " good kmers found.");
+            reportWriter.println(selector.countKmers + " unique kmers found.");
             reportWriter.format("Mean hits per kmer = %4.2f, mean fraction = %4.2f%n",
                     meanHits, meanFrac);
-            this.testFramePredictions(kmerFile, reportWriter, found);
+            this.testFramePredictions(new File(dir, "kmers.pred"), reportWriter, selector.found[0], spec);
             reportWriter.close();
-            System.err.println("All done.");
-        } catch (Exception e) {
-            e.printStackTrace();
         }
     }
 
     /**
-     * Produce a report on the predictive power of a kmer set produced by this object.
+     * Write the sweep report, with one row per grid point.  If there is a testing set, it is
+     * processed once, using a combined predictor containing the kmers from every grid point.
+     *
+     * @param selector		kmer selector containing the useful kmers for each grid point
+     * @param dir			output directory for the report
+     * @param spec			type and size of the kmers
+     *
+     * @throws IOException
+     * @throws InterruptedException
+     * @throws ExecutionException
+     */
+    private void writeSweepReport(KmerSelector selector, File dir, KmerSpec spec)
+            throws IOException, InterruptedException, ExecutionException {
+        int points = this.thresholds.length;
+        SweepTally tally = null;
+        FramePredictor testPred = null;
+        if (this.testDir != null) {
+            // Save the combined predictor and mark each of its slots with the grid points that use it.
+            File predFile = new File(dir, "kmers.sweep.pred");
+            FramePredictor.save(predFile, KmerFrameCounter.typeCode(spec.getKmerType()), spec.getKmerSize(),
+                    selector.goodKmers, selector.goodFrames, selector.unionCount);
+            testPred = new FramePredictor(predFile, true);
+            long[] masks = new long[testPred.slotCount()];
+            for (int i = 0; i < selector.unionCount; i++) {
+                masks[testPred.slotOf(selector.goodKmers[i])] = selector.goodMasks[i];
+            }
+            tally = this.testPredictor(testPred, masks, points, spec);
+        }
+        try (PrintWriter reportWriter = new PrintWriter(new File(dir, "kmers.sweep.txt"))) {
+            reportWriter.print("threshold\tminHits\tkmers");
+            if (tally != null) {
+                reportWriter.print("\tgoodHits\tbadHits\tmisses\thitPercent\tgoodKmers\tbadKmers\tgoodPercent");
+            }
+            reportWriter.println();
+            int[] goodKmers = new int[Frame.nFrames];
+            int[] badKmers = new int[Frame.nFrames];
+            for (int p = 0; p < points; p++) {
+                reportWriter.format("%s\t%d\t%d", this.thresholds[p], this.minHitCounts[p], selector.goodCount[p]);
+                if (tally != null) {
+                    long goodHits = tally.getGoodHits(p);
+                    long badHits = tally.getBadHits(p);
+                    long misses = tally.getMisses(p);
+                    double hitPercent = ((double) (goodHits + badHits) * 100) / (goodHits + badHits + misses);
+                    tally.countKmers(p, testPred, goodKmers, badKmers);
+                    int good = 0;
+                    int bad = 0;
+                    for (int i = 0; i < Frame.nFrames; i++) {
+                        good += goodKmers[i];
+                        bad += badKmers[i];
+                    }
+                    double goodPercent = (good <= 0 ? 0 : ((double) (good * 100)) / (good + bad));
+                    reportWriter.format("\t%d\t%d\t%d\t%4.2f\t%d\t%d\t%4.2f", goodHits, badHits, misses,
+                            hitPercent, good, bad, goodPercent);
+                }
+                reportWriter.println();
+            }
+        }
+    }
+
+    /**
+     * @return the output directory for a grid point in sweep mode, named for its settings
+     *
+     * @param dir	output directory for the sweep
+     * @param p		index of the grid point
+     *
+     * @throws IOException
+     */
+    private File pointDir(File dir, int p) throws IOException {
+        File retVal = new File(dir, "T" + this.thresholds[p] + "-M" + this.minHitCounts[p]);
+        if (! retVal.isDirectory() && ! retVal.mkdirs()) {
+            throw new IOException("Could not create output directory " + retVal + ".");
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the output directory for a kmer specification:  the main output directory if
+     * 		   there is only one specification, else a subdirectory named for it
+     *
+     * @param spec	kmer specification of interest
+     *
+     * @throws IOException
+     */
+    private File specDir(KmerSpec spec) throws IOException {
+        File retVal = this.outDir;
+        if (this.kmerSpecs.size() > 1) {
+            retVal = new File(this.outDir, "K" + spec);
+            if (! retVal.isDirectory() && ! retVal.mkdirs()) {
+                throw new IOException("Could not create output directory " + retVal + ".");
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return TRUE if any of the kmer specifications are for spaced kmers
+     */
+    private boolean hasSpacedKmers() {
+        boolean retVal = false;
+        for (KmerSpec spec : this.kmerSpecs) {
+            if (spec.getKmerType() == SequenceDnaSpacedKmers.class) {
+                retVal = true;
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return a set of count buffers, one for each kmer counter
+     *
+     * @param counters	kmer counters to receive the counts
+     * @param batched	TRUE if the increments should be applied in address order
+     */
+    private KmerCountBuffer[] createBuffers(KmerFrameCounter[] counters, boolean batched) {
+        KmerCountBuffer[] retVal = new KmerCountBuffer[counters.length];
+        for (int k = 0; k < counters.length; k++) {
+            retVal[k] = new KmerCountBuffer(counters[k], KmerCountBuffer.DEFAULT_CAPACITY, batched);
+        }
+        return retVal;
+    }
+
+    /**
+     * Scan the kmer counter for useful kmers and write them to the kmer tables, one for each grid
+     * point.  The kmers are divided into ranges that are scanned in parallel, each into its own
+     * output shards.  The shards are written in kmer order and their totals are combined in the
+     * same order, so the output is identical no matter how many threads are used.
+     *
+     * @param bigCounter	kmer frame counter to scan
+     * @param kmerWriters	output writer for the useful kmers of each grid point
+     *
+     * @return a kmer selector containing the useful kmers and the totals for the report
+     *
+     * @throws InterruptedException
+     * @throws ExecutionException
+     */
+    private KmerSelector selectKmers(KmerFrameCounter bigCounter, PrintWriter[] kmerWriters)
+            throws InterruptedException, ExecutionException {
+        KmerSelector retVal = new KmerSelector();
+        int nThreads = Math.max(1, this.threads);
+        ForkJoinPool pool = new ForkJoinPool(nThreads);
+        try {
+            // The number of shards waiting to be written is limited so they do not pile up in memory.
+            int window = nThreads * 4;
+            Deque<ForkJoinTask<KmerSelector>> shards = new ArrayDeque<ForkJoinTask<KmerSelector>>(window);
+            for (final KmerFrameCounter.ScanRange range : bigCounter.scanRanges(SCAN_SHARDS)) {
+                if (shards.size() >= window) {
+                    retVal.merge(shards.remove().get(), kmerWriters);
+                }
+                shards.add(pool.submit(new Callable<KmerSelector>() {
+                    @Override
+                    public KmerSelector call() {
+                        KmerSelector shard = new KmerSelector();
+                        range.scan(shard);
+                        return shard;
+                    }
+                }));
+            }
+            while (! shards.isEmpty()) {
+                retVal.merge(shards.remove().get(), kmerWriters);
+            }
+        } finally {
+            pool.shutdown();
+        }
+        return retVal;
+    }
+
+    /**
+     * This class receives the statistics for each kmer found, formats the useful kmers into an
+     * output shard for each grid point, and accumulates the totals for the report.  The useful
+     * kmers for all the grid points are kept in a single list, with a bit mask telling which grid
+     * points selected each one.
+     */
+    private class KmerSelector implements KmerStatsHandler {
+
+        /** output shard for the useful kmers of each grid point */
+        private StringBuilder[] shards;
+        /** work area for formatting an output line */
+        private StringBuilder line;
+        /** formatter for the output line */
+        private Formatter formatter;
+        /** number of good kmers found for each grid point */
+        protected int[] goodCount;
+        /** total of the best-frame fractions, for computing the mean */
+        protected double totalFrac;
+        /** number of kmers found */
+        protected int countKmers;
+        /** total of the best-frame hits, for computing the mean */
+        protected long totalHits;
+        /** number of good kmers found in each frame for each grid point */
+        protected int[][] found;
+        /** indexes of the kmers good at any grid point, in kmer order */
+        protected long[] goodKmers;
+        /** best-frame ordinals of the good kmers, parallel to the kmer indexes */
+        protected byte[] goodFrames;
+        /** bit masks of the grid points that selected each good kmer, parallel to the kmer indexes */
+        protected long[] goodMasks;
+        /** number of kmers good at any grid point */
+        protected int unionCount;
+
+        /**
+         * Create a new kmer selector with empty output shards.
+         */
+        protected KmerSelector() {
+            int points = thresholds.length;
+            this.shards = new StringBuilder[points];
+            for (int p = 0; p < points; p++) {
+                this.shards[p] = new StringBuilder();
+            }
+            this.line = new StringBuilder();
+            this.formatter = new Formatter(this.line);
+            this.goodCount = new int[points];
+            this.totalFrac = 0.0;
+            this.countKmers = 0;
+            this.totalHits = 0;
+            this.found = new int[points][Frame.nFrames];
+            this.goodKmers = new long[16];
+            this.goodFrames = new byte[16];
+            this.goodMasks = new long[16];
+            this.unionCount = 0;
+        }
+
+        @Override
+        public void handle(DnaKmer kmer, Frame bestFrame, int bestCount, int total, double frac) {
+            this.totalFrac += frac;
+            this.totalHits += bestCount;
+            this.countKmers++;
+            long mask = 0;
+            for (int p = 0; p < thresholds.length; p++) {
+                if (frac > thresholds[p] && bestCount > minHitCounts[p]) {
+                    mask |= 1L << p;
+                }
+            }
+            if (mask != 0) {
+                // Here the kmer is good enough for at least one grid point.
+                this.line.setLength(0);
+                this.formatter.format("%s\t%s\t%04.2f\t%d%n", kmer, bestFrame, frac, bestCount);
+                for (int p = 0; p < thresholds.length; p++) {
+                    if ((mask & (1L << p)) != 0) {
+                        this.shards[p].append(this.line);
+                        this.goodCount[p]++;
+                        this.found[p][bestFrame.ordinal()]++;
+                    }
+                }
+                this.addGood(kmer.longIdx(), (byte) bestFrame.ordinal(), mask);
+            }
+        }
+
+        /**
+         * Record a good kmer.
+         *
+         * @param kIdx		index of the kmer
+         * @param ordinal	ordinal of its best frame
+         * @param mask		bit mask of the grid points at which it was selected
+         */
+        private void addGood(long kIdx, byte ordinal, long mask) {
+            if (this.unionCount >= this.goodKmers.length) {
+                this.goodKmers = Arrays.copyOf(this.goodKmers, this.unionCount * 2);
+                this.goodFrames = Arrays.copyOf(this.goodFrames, this.unionCount * 2);
+                this.goodMasks = Arrays.copyOf(this.goodMasks, this.unionCount * 2);
+            }
+            this.goodKmers[this.unionCount] = kIdx;
+            this.goodFrames[this.unionCount] = ordinal;
+            this.goodMasks[this.unionCount] = mask;
+            this.unionCount++;
+        }
+
+        /**
+         * Write the output shards of another selector and add its totals to this one.  The shards
+         * must be merged in kmer order.
+         *
+         * @param other			selector for the next range of kmers
+         * @param kmerWriters	output writer for the useful kmers of each grid point
+         */
+        protected void merge(KmerSelector other, PrintWriter[] kmerWriters) {
+            for (int p = 0; p < kmerWriters.length; p++) {
+                kmerWriters[p].append(other.shards[p]);
+                this.goodCount[p] += other.goodCount[p];
+                for (int i = 0; i < Frame.nFrames; i++) {
+                    this.found[p][i] += other.found[p][i];
+                }
+            }
+            for (int i = 0; i < other.unionCount; i++) {
+                this.addGood(other.goodKmers[i], other.goodFrames[i], other.goodMasks[i]);
+            }
+            this.totalFrac += other.totalFrac;
+            this.countKmers += other.countKmers;
+            this.totalHits += other.totalHits;
+        }
+
+        /**
+         * Save the useful kmers for a grid point in a binary predictor file.
+         *
+         * @param predFile	output file
+         * @param spec		type and size of the kmers
+         * @param p			index of the grid point
+         *
+         * @throws IOException
+         */
+        protected void savePoint(File predFile, KmerSpec spec, int p) throws IOException {
+            long[] kmers = this.goodKmers;
+            byte[] frames = this.goodFrames;
+            if (this.goodCount[p] < this.unionCount) {
+                // Extract the kmers for this grid point.
+                kmers = new long[this.goodCount[p]];
+                frames = new byte[this.goodCount[p]];
+                int n = 0;
+                for (int i = 0; i < this.unionCount; i++) {
+                    if ((this.goodMasks[i] & (1L << p)) != 0) {
+                        kmers[n] = this.goodKmers[i];
+                        frames[n] = this.goodFrames[i];
+                        n++;
+                    }
+                }
+            }
+            FramePredictor.save(predFile, KmerFrameCounter.typeCode(spec.getKmerType()), spec.getKmerSize(), kmers,
+                    frames, this.goodCount[p]);
+        }
+
+    }
+
+    /**
+     * @return the source of the input genomes:  the contig caches if we are using them, else the
+     * 		   prefetcher if there is one, else the input directory
+     *
+     * @throws IOException
+     */
+    private Iterable<CodingContigs> genomeSource() throws IOException {
+        Iterable<CodingContigs> retVal;
+        if (this.cacheFiles != null) {
+            retVal = new InputSource(this.cacheFiles, true);
+        } else if (this.prefetcher != null) {
+            retVal = this.prefetcher;
+        } else if (this.stream) {
+            retVal = new InputSource(GenomePrefetcher.listGtoFiles(this.inputDir), false);
+        } else {
+            retVal = new InputSource(this.inputGenomes);
+        }
+        return retVal;
+    }
+
+    /**
+     * This class iterates through a set of genomes, presenting them as contigs for counting.  The
+     * genomes come from a genome directory, from GTO files read in streaming mode, or from
+     * contig cache files.
+     */
+    private static class InputSource implements Iterable<CodingContigs>, Iterator<CodingContigs> {
+
+        /** iterator for loaded genomes, or NULL if we are reading files directly */
+        private Iterator<Genome> genomes;
+        /** files to read, or NULL if we are using loaded genomes */
+        private File[] files;
+        /** TRUE if the files are contig caches, FALSE if they are GTOs to read in streaming mode */
+        private boolean cached;
+        /** index of the next file */
+        private int next;
+
+        /**
+         * Iterate through the genomes in a genome directory.
+         *
+         * @param genomes	genome directory to traverse
+         */
+        protected InputSource(GenomeDirectory genomes) {
+            this.genomes = genomes.iterator();
+            this.files = null;
+        }
+
+        /**
+         * Iterate through the genomes in a list of files.
+         *
+         * @param files		files to read
+         * @param cached	TRUE for contig cache files, FALSE for GTO files
+         */
+        protected InputSource(File[] files, boolean cached) {
+            this.genomes = null;
+            this.files = files;
+            this.cached = cached;
+            this.next = 0;
+        }
+
+        @Override
+        public Iterator<CodingContigs> iterator() {
+            return this;
+        }
+
+        @Override
+        public boolean hasNext() {
+            boolean retVal;
+            if (this.genomes == null) {
+                retVal = (this.next < this.files.length);
+            } else {
+                retVal = this.genomes.hasNext();
+            }
+            return retVal;
+        }
+
+        @Override
+        public CodingContigs next() {
+            CodingContigs retVal;
+            if (this.genomes == null) {
+                if (this.next >= this.files.length) {
+                    throw new NoSuchElementException("No more genome files.");
+                }
+                File inFile = this.files[this.next];
+                try {
+                    if (this.cached) {
+                        retVal = new ContigCache(inFile);
+                    } else {
+                        retVal = new GtoContigs(inFile);
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException("Error reading " + inFile + ": " + e.getMessage(), e);
+                }
+                this.next++;
+            } else {
+                retVal = new GenomeContigs(this.genomes.next());
+            }
+            return retVal;
+        }
+
+    }
+
+    /**
+     * Insure there is an up-to-date contig cache file for each input genome.  The GTO files
+     * whose caches are missing or out of date are loaded and converted.
+     *
+     * @return the cache files for the input genomes
+     *
+     * @throws IOException
+     */
+    private File[] updateCache() throws IOException {
+        File[] gtoFiles = GenomePrefetcher.listGtoFiles(this.inputDir);
+        File[] retVal = new File[gtoFiles.length];
+        int converted = 0;
+        for (int i = 0; i < gtoFiles.length; i++) {
+            String name = gtoFiles[i].getName();
+            File cacheFile = new File(this.cacheDir, name.substring(0, name.length() - 4) + ContigCache.SUFFIX);
+            if (! ContigCache.isCurrent(cacheFile, gtoFiles[i])) {
+                CodingContigs genome;
+                if (this.stream) {
+                    genome = new GtoContigs(gtoFiles[i]);
+                } else {
+                    genome = new GenomeContigs(new Genome(gtoFiles[i]));
+                }
+                System.err.println("Caching " + genome + ".");
+                ContigCache.save(cacheFile, genome);
+                converted++;
+            }
+            retVal[i] = cacheFile;
+        }
+        System.err.println(converted + " genomes added to cache in " + this.cacheDir + ".");
+        return retVal;
+    }
+
+    /**
+     * Display a time estimate every 100 genomes.  If the genomes are being loaded in the
+     * background, also display the loading queue depth and the time each side has spent waiting
+     * for the other.
+     *
+     * @param gCount	number of genomes processed so far
+     * @param start		time at which processing started
+     */
+    private void showProgress(int gCount, long start) {
+        if (gCount % 100 == 0) {
+            double secsPerGenome = ((double) (System.currentTimeMillis() - start)) / (1000 * gCount);
+            double remainingMinutes = (this.inputGenomes.size() - gCount) * secsPerGenome / 60;
+            System.err.printf("TIME ESTIMATE: %4.2f seconds/genome, %4.1f minutes left.\n",
+                    secsPerGenome, remainingMinutes);
+            if (this.prefetcher != null) {
+                System.err.printf("LOADING: %d genomes queued, %4.2f seconds waiting for genomes, "
+                        + "%4.2f seconds waiting for room in the queue.\n", this.prefetcher.getQueueDepth(),
+                        this.prefetcher.getConsumerWaitSeconds(), this.prefetcher.getLoaderWaitSeconds());
+            }
+        }
+    }
+
+    /**
+     * Count the input genomes using multiple threads.  The genomes are read by the main thread
+     * and handed to a pool of workers.  Each worker counts into its own small buffers, which are
+     * flushed into the shared counters, so the results are identical to a single-threaded run.
+     * The number of genomes in flight is limited so that loaded genomes do not pile up in memory.
+     *
+     * @param counters		kmer frame counters to receive the counts
+     *
+     * @throws InterruptedException
+     * @throws ExecutionException
+     * @throws IOException
+     */
+    private void countThreaded(final KmerFrameCounter[] counters)
+            throws InterruptedException, ExecutionException, IOException {
+        System.err.println("Counting with " + this.threads + " threads.");
+        ExecutorService pool = Executors.newFixedThreadPool(this.threads);
+        // Each worker thread gets its own count buffers.
+        final ThreadLocal<KmerCountBuffer[]> buffers = new ThreadLocal<KmerCountBuffer[]>() {
+            @Override
+            protected KmerCountBuffer[] initialValue() {
+                return createBuffers(counters, batch);
+            }
+        };
+        // This limits the number of genomes waiting to be counted.
+        final Semaphore slots = new Semaphore(this.threads * 2);
+        final AtomicInteger doneCount = new AtomicInteger(0);
+        final long start = System.currentTimeMillis();
+        List<Future<?>> results = new ArrayList<Future<?>>(this.inputGenomes.size());
+        int gCount = 0;
+        try {
+            for (CodingContigs genome : this.genomeSource()) {
+                gCount++;
+                System.err.println("Processing #" + gCount + ": " + genome + ".");
+                slots.acquire();
+                final CodingContigs myGenome = genome;
+                results.add(pool.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            KmerFrameCounter.processContigs(myGenome, counters, buffers.get());
+                            showProgress(doneCount.incrementAndGet(), start);
+                        } finally {
+                            slots.release();
+                        }
+                    }
+                }));
+            }
+        } finally {
+            pool.shutdown();
+        }
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        // Check for errors in the workers.
+        for (Future<?> result : results) {
+            result.get();
+        }
+    }
+
+    /**
+     * Produce a report on the predictive power of a kmer set produced by this object.  If there
+     * are multiple threads, the test genomes are processed in parallel, but the report is the same.
      *
-     * @param predFile		"kmers.tbl" file output by this object.
+     * @param predFile		binary "kmers.pred" file output by this object
      * @param reportWriter	output writer for the report
      * @param found			an array of kmers found for each frame
+     * @param spec			type and size of the kmers in the predictor
      *
-     * @throws NumberFormatException
      * @throws IOException
+     * @throws InterruptedException
+     * @throws ExecutionException
      */
-    private void testFramePredictions(File predFile, PrintWriter reportWriter, int[] found)
-            throws NumberFormatException, IOException {
-        // We will track counts in here.
-        QualityCountMap<DnaKmer> testCounts = new QualityCountMap<DnaKmer>();
-        int misses = 0;
+    private void testFramePredictions(File predFile, PrintWriter reportWriter, int[] found, KmerSpec spec)
+            throws IOException, InterruptedException, ExecutionException {
         // Load the predictor.
         long start = System.currentTimeMillis();
-        FramePredictor testPred = new FramePredictor(predFile.getPath());
+        FramePredictor testPred = new FramePredictor(predFile, true);
         double loadTime = ((double) (System.currentTimeMillis() - start) / 1000);
         System.err.format("Predictor load test successful. %4.2f seconds.%n", loadTime);
         // Do we have genomes to test?
@@ -268,64 +1032,27 @@ public class GenomeDirFrameCounter {
             // No.  Write out the frame counts.
             reportWriter.format("%-8s %8s%n", "Frame", "kmers");
             for (Frame frm : Frame.all) {
-                reportWriter.format("%-8s %8d %8d%n", frm, found[frm.ordinal()]);
+                reportWriter.format("%-8s %8d%n", frm, found[frm.ordinal()]);
             }
         } else {
-            // Yes.  Load the genomes so we can test the predictor.
-            GenomeDirectory genomes = new GenomeDirectory(this.testDir.getPath());
-            for (Genome myGto : genomes) {
-                System.err.println("Testing against " + myGto);
-                Map<String, DiscreteLocationList> gtoMap = DiscreteLocationList.createGenomeCodingMap(myGto);
-                // Loop through the contigs.
-                Collection<Contig> allContigs = myGto.getContigs();
-                for (Contig contig : allContigs) {
-                    SequenceDnaKmers contigKmers = SequenceDnaKmers.build(this.kmerType, contig.getSequence());
-                    DiscreteLocationList contigLocs = gtoMap.get(contig.getId());
-                    while (contigKmers.nextKmer()) {
-                        int pos = contigKmers.getPos();
-                        Frame predicted = testPred.frameOf(contigKmers);
-                        if (predicted == Frame.XX) {
-                            misses++;
-                        } else {
-                            Frame kmerFrame = contigLocs.computeRegionFrame(pos, pos + DnaKmer.getSize() - 1);
-                            if (kmerFrame != Frame.XX) {
-                                // Get an immutable copy of the kmer to use as a key.
-                                DnaKmer kmer = contigKmers.getCopy();
-                                if (! kmerFrame.equals(predicted)) {
-                                    testCounts.setBad(kmer);
-                                } else {
-                                    testCounts.setGood(kmer);
-                                }
-                            }
-                        }
-                    }
-                }
-            }
-            // Loop through the results, looking for problems.
-            Collection<DnaKmer> results = testCounts.keys();
-            QualityCountMap<Frame> frameCounts = new QualityCountMap<Frame>();
-            int badHits = 0;
-            int goodHits = 0;
-            for (DnaKmer kmer : results) {
-                int good = testCounts.good(kmer);
-                int bad = testCounts.bad(kmer);
-                badHits += bad;
-                goodHits += good;
-                if (bad > 0) {
-                    frameCounts.setBad(testPred.frameOf(kmer));
-                } else {
-                    frameCounts.setGood(testPred.frameOf(kmer));
-                }
-            }
+            // Yes.  Test the predictor as a grid with a single point.
+            SweepTally tally = this.testPredictor(testPred, null, 1, spec);
+            // Count the kmers that made good and bad predictions.
+            int[] goodKmers = new int[Frame.nFrames];
+            int[] badKmers = new int[Frame.nFrames];
+            tally.countKmers(0, testPred, goodKmers, badKmers);
+            long goodHits = tally.getGoodHits(0);
+            long badHits = tally.getBadHits(0);
+            long misses = tally.getMisses(0);
             // Output what we found.
             double hitPercent = ((double) (goodHits + badHits) * 100) / (goodHits + badHits + misses);
-            reportWriter.format("%d genomes were examined.%n", genomes.size());
+            reportWriter.format("%d genomes were examined.%n", tally.getGenomes());
             reportWriter.format("Total hits = %d good, %d bad. Percent hits %4.2f. Total misses = %d.%n",
                     goodHits, badHits, hitPercent, misses);
             reportWriter.format("%-8s %8s %8s %8s %8s%n", "Frame", "kmers", "goodHits", "badHits", "%good");
             for (Frame frm : Frame.sorted) {
-                int good = frameCounts.good(frm);
-                int bad = frameCounts.bad(frm);
+                int good = goodKmers[frm.ordinal()];
+                int bad = badKmers[frm.ordinal()];
                 double goodPercent = (good <= 0 ? 0 : ((double) (good * 100)) / (good + bad));
                 reportWriter.format("%-8s %8d %8d %8d %8.2f %n", frm, found[frm.ordinal()],
                         good, bad, goodPercent);
@@ -334,17 +1061,244 @@ public class GenomeDirFrameCounter {
     }
 
     /**
-     * @return the type of kmers used for counting
+     * Test a predictor against the testing set.  The predictor can combine the kmers of several
+     * grid points, in which case each of its slots has a mask of the points that use it.
+     *
+     * @param testPred	predictor to test
+     * @param masks		bit mask of the grid points for each predictor slot, or NULL if every
+     * 					slot belongs to every point
+     * @param points	number of grid points
+     * @param spec		type and size of the kmers in the predictor
+     *
+     * @return a tally of the results for each grid point
+     *
+     * @throws IOException
+     * @throws InterruptedException
+     * @throws ExecutionException
+     */
+    private SweepTally testPredictor(FramePredictor testPred, long[] masks, int points, KmerSpec spec)
+            throws IOException, InterruptedException, ExecutionException {
+        // Most of the test kmers will be misses, so a Bloom filter speeds things up.
+        testPred.enableFilter();
+        // Set up the genomes so we can test the predictor.
+        InputSource genomes;
+        int genomeCount;
+        if (this.stream) {
+            File[] gtoFiles = GenomePrefetcher.listGtoFiles(this.testDir);
+            genomes = new InputSource(gtoFiles, false);
+            genomeCount = gtoFiles.length;
+        } else {
+            GenomeDirectory genomeDir = new GenomeDirectory(this.testDir.getPath());
+            genomes = new InputSource(genomeDir);
+            genomeCount = genomeDir.size();
+        }
+        SweepTally retVal;
+        if (this.threads > 1) {
+            retVal = this.testThreaded(genomes, genomeCount, testPred, masks, points, spec);
+        } else {
+            retVal = new SweepTally(masks, points, testPred.slotCount());
+            for (CodingContigs myGto : genomes) {
+                System.err.println("Testing against " + myGto);
+                this.testGenome(myGto, testPred, spec, retVal);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Test a frame predictor against the contigs of a single genome.
+     *
+     * @param myGto		genome to test against
+     * @param testPred	predictor to test
+     * @param spec		type and size of the kmers in the predictor
+     * @param tally		tally to receive the results
+     */
+    private void testGenome(CodingContigs myGto, FramePredictor testPred, KmerSpec spec, SweepTally tally) {
+        // Loop through the contigs.
+        int n = myGto.size();
+        for (int i = 0; i < n; i++) {
+            CharSequence sequence = myGto.getSequence(i);
+            SequenceDnaKmers contigKmers = spec.traverse(sequence);
+            ContigFrameTrack frames = myGto.getFrameTrack(i, spec.getKmerSize());
+            while (contigKmers.nextKmer()) {
+                int slot = testPred.slotOf(contigKmers.longIdx());
+                if (slot < 0) {
+                    tally.miss();
+                } else {
+                    tally.found(slot, frames.frameAt(contigKmers.getPos()), testPred.slotFrame(slot));
+                }
+            }
+        }
+        tally.addGenome();
+    }
+
+    /**
+     * Test a frame predictor against the test genomes using multiple threads.  The genomes are
+     * read by the main thread and handed to a pool of workers.  Each worker accumulates its
+     * results in its own tally, and the tallies are merged at the end.
+     *
+     * @param genomes		source of the test genomes
+     * @param count			number of test genomes
+     * @param testPred		predictor to test
+     * @param masks			bit mask of the grid points for each predictor slot, or NULL
+     * @param points		number of grid points
+     * @param spec			type and size of the kmers in the predictor
+     *
+     * @return a tally of the results for all the genomes
+     *
+     * @throws InterruptedException
+     * @throws ExecutionException
+     */
+    private SweepTally testThreaded(Iterable<CodingContigs> genomes, int count, final FramePredictor testPred,
+            final long[] masks, final int points, final KmerSpec spec) throws InterruptedException, ExecutionException {
+        System.err.println("Testing with " + this.threads + " threads.");
+        ExecutorService pool = Executors.newFixedThreadPool(this.threads);
+        // Each worker thread gets its own tally.  We keep a list of them for merging.
+        final List<SweepTally> tallies = new ArrayList<SweepTally>(this.threads);
+        final ThreadLocal<SweepTally> threadTally = new ThreadLocal<SweepTally>() {
+            @Override
+            protected SweepTally initialValue() {
+                SweepTally retVal = new SweepTally(masks, points, testPred.slotCount());
+                synchronized (tallies) {
+                    tallies.add(retVal);
+                }
+                return retVal;
+            }
+        };
+        // This limits the number of genomes waiting to be tested.
+        final Semaphore slots = new Semaphore(this.threads * 2);
+        List<Future<?>> results = new ArrayList<Future<?>>(count);
+        try {
+            for (CodingContigs genome : genomes) {
+                System.err.println("Testing against " + genome);
+                slots.acquire();
+                final CodingContigs myGto = genome;
+                results.add(pool.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            testGenome(myGto, testPred, spec, threadTally.get());
+                        } finally {
+                            slots.release();
+                        }
+                    }
+                }));
+            }
+        } finally {
+            pool.shutdown();
+        }
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        // Check for errors in the workers.
+        for (Future<?> result : results) {
+            result.get();
+        }
+        SweepTally retVal = new SweepTally(masks, points, testPred.slotCount());
+        for (SweepTally tally : tallies) {
+            retVal.merge(tally);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the type of kmers used for counting (the first type, if there are several)
      */
     public Class<? extends SequenceDnaKmers> getKmerType() {
-        return this.kmerType;
+        return this.kmerSpecs.get(0).getKmerType();
     }
 
     /**
-     * @return the kmer size used for counting
+     * @return the kmer size used for counting (the first size, if there are several)
      */
     public int getKmerSize() {
-        return DnaKmer.getSize();
+        return this.kmerSpecs.get(0).getKmerSize();
+    }
+
+    /**
+     * @return the types and sizes of kmer to count
+     */
+    public List<KmerSpec> getKmerSpecs() {
+        return this.kmerSpecs;
+    }
+
+    /**
+     * @return the number of threshold and minimum-hit settings to try
+     */
+    public int getGridSize() {
+        return this.thresholds.length;
+    }
+
+    /**
+     * @return the best-fraction threshold for a grid point
+     *
+     * @param p		index of the grid point
+     */
+    public double getGridThreshold(int p) {
+        return this.thresholds[p];
+    }
+
+    /**
+     * @return the minimum best-frame hits for a grid point
+     *
+     * @param p		index of the grid point
+     */
+    public int getGridMinHits(int p) {
+        return this.minHitCounts[p];
+    }
+
+    /**
+     * @return TRUE if a grid of settings is being swept
+     */
+    public boolean isSweep() {
+        return (this.sweep != null);
+    }
+
+    /**
+     * @return the type of storage for the kmer counts
+     */
+    public KmerFrameCounter.Backend getBackend() {
+        return this.backend;
+    }
+
+    /**
+     * @return TRUE if the counter should use canonical storage
+     */
+    public boolean isCanonical() {
+        return this.canonical;
+    }
+
+    /**
+     * @return TRUE if the increments for each genome are applied in address order
+     */
+    public boolean isBatch() {
+        return this.batch;
+    }
+
+    /**
+     * @return TRUE if GTO files are read in streaming mode
+     */
+    public boolean isStream() {
+        return this.stream;
+    }
+
+    /**
+     * @return the directory for the contig caches, or NULL if the cache is not used
+     */
+    public File getCacheDir() {
+        return this.cacheDir;
+    }
+
+    /**
+     * @return the number of threads to use for loading genomes ahead of the counting
+     */
+    public int getLoaders() {
+        return this.loaders;
+    }
+
+    /**
+     * @return the number of threads to use for counting
+     */
+    public int getThreads() {
+        return this.threads;
     }
 
     /**
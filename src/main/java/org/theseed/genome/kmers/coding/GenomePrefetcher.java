@@ -0,0 +1,234 @@
+/**
+ *
+ */
+package org.theseed.genome.kmers.coding;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.theseed.genome.Genome;
+
+/**
+ * This class loads the genomes in a GTO directory on background threads, so that reading and
+ * parsing the GTO files overlaps with the work done on the genomes.  The genomes are presented as
+ * contigs for frame counting, and can be loaded either as full genomes or in streaming mode.  The
+ * loaded genomes are passed through a bounded queue.  When the queue is full, the loaders wait, so
+ * parsed genomes cannot pile up in memory.
+ *
+ * The genomes are returned in the order they finish loading, which is not necessarily the order
+ * of the files.  The object keeps track of the time each side spends waiting for the other, so
+ * the caller can tell whether loading or processing is the bottleneck.
+ *
+ * The iterator must be used by a single consumer thread.  The prefetcher should be closed when
+ * the caller is done with it, to stop the loaders if the iteration ends early.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class GenomePrefetcher implements Iterable<CodingContigs>, Iterator<CodingContigs>, AutoCloseable {
+
+    // FIELDS
+    /** GTO files to load */
+    private File[] gtoFiles;
+    /** index of the next file to load */
+    private AtomicInteger nextFile;
+    /** queue of loaded genomes */
+    private BlockingQueue<Loaded> queue;
+    /** loader threads */
+    private Thread[] loaders;
+    /** TRUE if the GTO files are read in streaming mode */
+    private boolean streaming;
+    /** number of genomes returned to the consumer */
+    private int delivered;
+    /** total nanoseconds the consumer has spent waiting for genomes */
+    private volatile long consumerWait;
+    /** total nanoseconds the loaders have spent waiting for room in the queue */
+    private AtomicLong loaderWait;
+
+    /**
+     * This class holds a loaded genome, or the error that occurred loading it.
+     */
+    private static class Loaded {
+
+        /** the genome loaded, or NULL if there was an error */
+        private CodingContigs genome;
+        /** the error that occurred, or NULL if the load succeeded */
+        private Throwable error;
+
+        /**
+         * Record the result of a load.
+         *
+         * @param genome	the genome loaded, or NULL
+         * @param error		the error that occurred, or NULL
+         */
+        private Loaded(CodingContigs genome, Throwable error) {
+            this.genome = genome;
+            this.error = error;
+        }
+
+    }
+
+    /**
+     * Start loading the genomes in a GTO directory.
+     *
+     * @param gtoDir		directory containing the GTO files
+     * @param nLoaders		number of loader threads
+     * @param capacity		maximum number of loaded genomes waiting to be processed
+     * @param streaming		TRUE to read only the contigs and coding locations, FALSE to load full genomes
+     *
+     * @throws IOException
+     */
+    public GenomePrefetcher(File gtoDir, int nLoaders, int capacity, boolean streaming) throws IOException {
+        this.gtoFiles = listGtoFiles(gtoDir);
+        this.streaming = streaming;
+        this.nextFile = new AtomicInteger(0);
+        this.queue = new ArrayBlockingQueue<Loaded>(Math.max(1, capacity));
+        this.delivered = 0;
+        this.consumerWait = 0;
+        this.loaderWait = new AtomicLong(0);
+        // Start the loaders.
+        this.loaders = new Thread[Math.max(1, nLoaders)];
+        for (int i = 0; i < this.loaders.length; i++) {
+            Thread loader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    load();
+                }
+            }, "GenomeLoader-" + i);
+            loader.setDaemon(true);
+            loader.start();
+            this.loaders[i] = loader;
+        }
+    }
+
+    /**
+     * @return the GTO files in a directory, sorted by name
+     *
+     * @param gtoDir	directory containing the GTO files
+     *
+     * @throws IOException
+     */
+    public static File[] listGtoFiles(File gtoDir) throws IOException {
+        File[] retVal = gtoDir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File pathname) {
+                return pathname.isFile() && pathname.getName().endsWith(".gto");
+            }
+        });
+        if (retVal == null) {
+            throw new IOException("Could not read GTO directory " + gtoDir + ".");
+        }
+        Arrays.sort(retVal);
+        return retVal;
+    }
+
+    /**
+     * Load genomes until all the files are claimed or the thread is interrupted.
+     */
+    private void load() {
+        try {
+            int i = this.nextFile.getAndIncrement();
+            while (i < this.gtoFiles.length) {
+                Loaded result;
+                try {
+                    CodingContigs genome;
+                    if (this.streaming) {
+                        genome = new GtoContigs(this.gtoFiles[i]);
+                    } else {
+                        genome = new GenomeContigs(new Genome(this.gtoFiles[i]));
+                    }
+                    result = new Loaded(genome, null);
+                } catch (Throwable e) {
+                    // The error is passed to the consumer, so it does not wait forever.  This
+                    // includes errors such as running out of memory, which would otherwise kill
+                    // the loader silently.
+                    result = new Loaded(null, e);
+                }
+                long start = System.nanoTime();
+                this.queue.put(result);
+                this.loaderWait.addAndGet(System.nanoTime() - start);
+                i = this.nextFile.getAndIncrement();
+            }
+        } catch (InterruptedException e) {
+            // Here we are being shut down.
+        }
+    }
+
+    @Override
+    public Iterator<CodingContigs> iterator() {
+        return this;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return (this.delivered < this.gtoFiles.length);
+    }
+
+    @Override
+    public CodingContigs next() {
+        if (! this.hasNext()) {
+            throw new NoSuchElementException("No more genomes to load.");
+        }
+        Loaded result;
+        long start = System.nanoTime();
+        try {
+            result = this.queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted waiting for a genome.", e);
+        }
+        this.consumerWait += System.nanoTime() - start;
+        this.delivered++;
+        if (result.error != null) {
+            throw new RuntimeException("Error loading genome: " + result.error.getMessage(), result.error);
+        }
+        return result.genome;
+    }
+
+    /**
+     * Stop the loader threads.
+     */
+    @Override
+    public void close() {
+        for (Thread loader : this.loaders) {
+            loader.interrupt();
+        }
+    }
+
+    /**
+     * @return the number of genomes in the directory
+     */
+    public int size() {
+        return this.gtoFiles.length;
+    }
+
+    /**
+     * @return the number of loaded genomes waiting in the queue
+     */
+    public int getQueueDepth() {
+        return this.queue.size();
+    }
+
+    /**
+     * @return the total number of seconds the consumer has spent waiting for genomes
+     */
+    public double getConsumerWaitSeconds() {
+        return this.consumerWait / 1e9;
+    }
+
+    /**
+     * @return the total number of seconds the loaders have spent waiting for room in the queue
+     */
+    public double getLoaderWaitSeconds() {
+        return this.loaderWait.get() / 1e9;
+    }
+
+}
@@ -0,0 +1,317 @@
+/**
+ *
+ */
+package org.theseed.genome.kmers.coding;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.theseed.genome.kmers.ByteSequence;
+import org.theseed.locations.DiscreteLocationList;
+import org.theseed.locations.Location;
+
+/**
+ * This class reads a GTO file in streaming mode, keeping only what frame counting needs:  the
+ * contig IDs and sequences, and the locations of the protein-coding features.  Everything else in
+ * the file (the annotations, translations, analysis events, subsystems, and so forth) is skipped
+ * without being built in memory, so this is much faster and smaller than loading a full Genome.
+ *
+ * The coding map is built exactly as for a full genome:  each contig gets a location list, and the
+ * location of each CDS feature is added to the list for its contig in file order.  The contig
+ * sequences are kept one byte per base, which is half the size of a string.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class GtoContigs implements CodingContigs {
+
+    // FIELDS
+    /** genome ID */
+    private String genomeId;
+    /** genome name */
+    private String name;
+    /** contig IDs */
+    private List<String> contigIds;
+    /** contig sequences, one byte per base */
+    private List<byte[]> sequences;
+    /** map of contig IDs to coding location lists */
+    private Map<String, DiscreteLocationList> contigMap;
+    /** contig ID for each coding location segment */
+    private String[] segContigs;
+    /** strand for each coding location segment */
+    private String[] segStrands;
+    /** begin position for each coding location segment */
+    private int[] segBegins;
+    /** length of each coding location segment */
+    private int[] segLengths;
+    /** index of the first segment of each coding location, with an extra entry at the end */
+    private int[] locStarts;
+    /** number of coding location segments */
+    private int nSegs;
+    /** number of coding locations */
+    private int nLocs;
+
+    /** empty sequence for a contig with no DNA */
+    private static final byte[] NO_BASES = new byte[0];
+
+    /**
+     * Read the contigs and coding locations from a GTO file.
+     *
+     * @param gtoFile	GTO file to read
+     *
+     * @throws IOException
+     */
+    public GtoContigs(File gtoFile) throws IOException {
+        this.contigIds = new ArrayList<String>();
+        this.sequences = new ArrayList<byte[]>();
+        this.segContigs = new String[64];
+        this.segStrands = new String[64];
+        this.segBegins = new int[64];
+        this.segLengths = new int[64];
+        this.locStarts = new int[64];
+        this.nSegs = 0;
+        this.nLocs = 0;
+        try (Reader reader = new InputStreamReader(new FileInputStream(gtoFile), StandardCharsets.UTF_8)) {
+            JsonTokenizer tokenizer = new JsonTokenizer(reader);
+            tokenizer.expect('{');
+            while (tokenizer.more('}')) {
+                String key = tokenizer.readString();
+                tokenizer.expect(':');
+                switch (key) {
+                case "id" :
+                    this.genomeId = tokenizer.readScalar();
+                    break;
+                case "scientific_name" :
+                    this.name = tokenizer.readScalar();
+                    break;
+                case "contigs" :
+                    this.readContigs(tokenizer);
+                    break;
+                case "features" :
+                    this.readFeatures(tokenizer);
+                    break;
+                default :
+                    tokenizer.skipValue();
+                }
+            }
+        } catch (IOException e) {
+            throw new IOException("Error reading GTO file " + gtoFile + ": " + e.getMessage(), e);
+        }
+        this.locStarts[this.nLocs] = this.nSegs;
+        this.buildCodingMap();
+    }
+
+    /**
+     * Read the contig array.
+     *
+     * @param tokenizer		JSON tokenizer positioned on the array
+     *
+     * @throws IOException
+     */
+    private void readContigs(JsonTokenizer tokenizer) throws IOException {
+        tokenizer.expect('[');
+        while (tokenizer.more(']')) {
+            String contigId = null;
+            byte[] sequence = NO_BASES;
+            tokenizer.expect('{');
+            while (tokenizer.more('}')) {
+                String key = tokenizer.readString();
+                tokenizer.expect(':');
+                if (key.equals("id")) {
+                    contigId = tokenizer.readScalar();
+                } else if (key.equals("dna")) {
+                    sequence = tokenizer.readBytes();
+                } else {
+                    tokenizer.skipValue();
+                }
+            }
+            this.contigIds.add(contigId);
+            this.sequences.add(sequence);
+        }
+    }
+
+    /**
+     * Read the feature array, keeping the locations of the protein-coding features.
+     *
+     * @param tokenizer		JSON tokenizer positioned on the array
+     *
+     * @throws IOException
+     */
+    private void readFeatures(JsonTokenizer tokenizer) throws IOException {
+        tokenizer.expect('[');
+        while (tokenizer.more(']')) {
+            // The type may come before or after the location, so we save the location tentatively.
+            String type = null;
+            String featureId = null;
+            String badLocation = null;
+            int firstSeg = this.nSegs;
+            tokenizer.expect('{');
+            while (tokenizer.more('}')) {
+                String key = tokenizer.readString();
+                tokenizer.expect(':');
+                if (key.equals("type")) {
+                    type = tokenizer.readScalar();
+                } else if (key.equals("id")) {
+                    featureId = tokenizer.readScalar();
+                } else if (key.equals("location")) {
+                    this.nSegs = firstSeg;
+                    badLocation = this.readLocation(tokenizer);
+                } else {
+                    tokenizer.skipValue();
+                }
+            }
+            if (badLocation != null) {
+                throw new IOException("Malformed location segment " + badLocation + " in feature " + featureId
+                        + ": a segment must have a contig ID, begin position, strand, and length.");
+            }
+            if (("CDS".equals(type) || "peg".equals(type)) && this.nSegs > firstSeg) {
+                if (this.nLocs + 1 >= this.locStarts.length) {
+                    this.locStarts = Arrays.copyOf(this.locStarts, this.locStarts.length * 2);
+                }
+                this.locStarts[this.nLocs] = firstSeg;
+                this.nLocs++;
+            } else {
+                // Not a coding feature, so discard the location.
+                this.nSegs = firstSeg;
+            }
+        }
+    }
+
+    /**
+     * Read a feature location.  This is an array of segments, each of which is an array containing
+     * the contig ID, the begin position, the strand, and the length.  A segment with fewer values is
+     * not saved, and the whole location is read, so the caller can report the error with the ID of
+     * the feature.
+     *
+     * @param tokenizer		JSON tokenizer positioned on the location array
+     *
+     * @return NULL if the location is valid, else the values of its first incomplete segment
+     *
+     * @throws IOException
+     */
+    private String readLocation(JsonTokenizer tokenizer) throws IOException {
+        String retVal = null;
+        tokenizer.expect('[');
+        while (tokenizer.more(']')) {
+            if (this.nSegs >= this.segBegins.length) {
+                int capacity = this.nSegs * 2;
+                this.segContigs = Arrays.copyOf(this.segContigs, capacity);
+                this.segStrands = Arrays.copyOf(this.segStrands, capacity);
+                this.segBegins = Arrays.copyOf(this.segBegins, capacity);
+                this.segLengths = Arrays.copyOf(this.segLengths, capacity);
+            }
+            tokenizer.expect('[');
+            int n = 0;
+            while (tokenizer.more(']')) {
+                switch (n) {
+                case 0 :
+                    this.segContigs[this.nSegs] = tokenizer.readScalar();
+                    break;
+                case 1 :
+                    this.segBegins[this.nSegs] = tokenizer.readInt();
+                    break;
+                case 2 :
+                    this.segStrands[this.nSegs] = tokenizer.readScalar();
+                    break;
+                case 3 :
+                    this.segLengths[this.nSegs] = tokenizer.readInt();
+                    break;
+                default :
+                    // Skip anything else in the segment.
+                    tokenizer.skipValue();
+                }
+                n++;
+            }
+            if (n >= 4) {
+                this.nSegs++;
+            } else if (retVal == null) {
+                Object[] values = new Object[] { this.segContigs[this.nSegs], this.segBegins[this.nSegs],
+                        this.segStrands[this.nSegs] };
+                retVal = Arrays.toString(Arrays.copyOf(values, n));
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Build the coding map from the saved coding locations.
+     */
+    private void buildCodingMap() {
+        this.contigMap = new HashMap<String, DiscreteLocationList>(this.contigIds.size() * 4 / 3 + 1);
+        for (String contigId : this.contigIds) {
+            this.contigMap.put(contigId, new DiscreteLocationList(contigId));
+        }
+        for (int i = 0; i < this.nLocs; i++) {
+            int first = this.locStarts[i];
+            DiscreteLocationList contigList = this.contigMap.get(this.segContigs[first]);
+            if (contigList != null) {
+                Location loc = Location.create(this.segContigs[first], this.segStrands[first]);
+                for (int j = first; j < this.locStarts[i + 1]; j++) {
+                    loc.addRegion(this.segBegins[j], this.segLengths[j]);
+                }
+                contigList.addLocation(loc);
+            }
+        }
+        // Release the saved locations.
+        this.segContigs = null;
+        this.segStrands = null;
+        this.segBegins = null;
+        this.segLengths = null;
+        this.locStarts = null;
+    }
+
+    @Override
+    public int size() {
+        return this.contigIds.size();
+    }
+
+    @Override
+    public String getContigId(int i) {
+        return this.contigIds.get(i);
+    }
+
+    @Override
+    public ByteSequence getSequence(int i) {
+        return new ByteSequence(this.sequences.get(i));
+    }
+
+    @Override
+    public ContigFrameTrack getFrameTrack(int i, int regionSize) {
+        DiscreteLocationList contigLocs = this.contigMap.get(this.contigIds.get(i));
+        return new ContigFrameTrack(contigLocs, this.sequences.get(i).length, regionSize);
+    }
+
+    @Override
+    public ContigFrameTrack[] getFrameTracks(int i, int[] regionSizes) {
+        DiscreteLocationList contigLocs = this.contigMap.get(this.contigIds.get(i));
+        return ContigFrameTrack.forSizes(contigLocs, this.sequences.get(i).length, regionSizes);
+    }
+
+    @Override
+    public ContigFrameTrack getRunTrack(int i) {
+        DiscreteLocationList contigLocs = this.contigMap.get(this.contigIds.get(i));
+        return ContigFrameTrack.allSizes(contigLocs, this.sequences.get(i).length);
+    }
+
+    /**
+     * @return the ID of the genome
+     */
+    public String getId() {
+        return this.genomeId;
+    }
+
+    @Override
+    public String toString() {
+        return this.genomeId + " (" + this.name + ")";
+    }
+
+}
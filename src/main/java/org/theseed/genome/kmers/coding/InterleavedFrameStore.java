@@ -0,0 +1,150 @@
+/**
+ *
+ */
+package org.theseed.genome.kmers.coding;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.theseed.locations.Frame;
+
+/**
+ * This is the interleaved frame count store.  Instead of one array per frame, it keeps a single
+ * array with one 64-bit record per slot, and the record holds all seven frame counts for the slot
+ * in 9-bit cells.  Counting a kmer or computing its statistics therefore touches one cache line
+ * instead of seven, and the whole store takes eight bytes per slot.
+ *
+ * A cell holds up to 511, and the excess is kept in an overflow table for its frame.  An increment
+ * is a compare-and-swap on the record.  When many genomes are counted, the common kmers fill their
+ * cells quickly, so a full cell does not send each further increment to the overflow table, whose
+ * segments are locked.  Instead, the increment that finds the cell full moves a block of CARRY
+ * counts from the cell to the table at once, which leaves room in the cell for the next CARRY - 1
+ * increments.  Only one increment in CARRY takes a lock, even for the most common kmers.
+ *
+ * The records are kept in memory, with an occupancy bitmap so that a scan can skip the empty
+ * blocks.  A saved store can also be memory-mapped instead of loaded, in which case it is presented
+ * as a read-only {@link InterleavedFrameView}.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class InterleavedFrameStore extends InterleavedFrameView implements FrameCountStore {
+
+    // FIELDS
+    /** the count records, indexed by slot */
+    private AtomicLongArray records;
+
+    /** size in bytes of the buffer used for bulk transfers */
+    private static final int BUFFER_SIZE = 1 << 22;
+    /** number of counts moved from a full cell to the overflow table at once */
+    private static final int CARRY = 256;
+
+    /**
+     * Create a new, empty interleaved store.
+     *
+     * @param slots		number of slots to hold
+     */
+    public InterleavedFrameStore(int slots) {
+        super(slots, null, new BlockOccupancy(slots));
+        this.records = new AtomicLongArray(slots);
+    }
+
+    /**
+     * @return an interleaved store whose records are read from an input channel
+     *
+     * @param in		input channel, positioned on the first record
+     * @param slots		number of slots in the store
+     *
+     * @throws IOException
+     */
+    public static InterleavedFrameStore load(ReadableByteChannel in, int slots) throws IOException {
+        InterleavedFrameStore retVal = new InterleavedFrameStore(slots);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        LongBuffer longs = buffer.asLongBuffer();
+        int i = 0;
+        while (i < slots) {
+            int n = Math.min(longs.capacity(), slots - i);
+            buffer.clear();
+            buffer.limit(n * 8);
+            ChannelIO.readFully(in, buffer);
+            longs.clear();
+            for (int j = 0; j < n; j++) {
+                long record = longs.get();
+                if (record != 0) {
+                    retVal.records.lazySet(i + j, record);
+                    retVal.occupancy.mark(i + j);
+                }
+            }
+            i += n;
+        }
+        retVal.readOverflow(in);
+        return retVal;
+    }
+
+    @Override
+    protected long record(int slot) {
+        return this.records.get(slot);
+    }
+
+    @Override
+    public void increment(long slot, int ordinal) {
+        int i = (int) slot;
+        int shift = ordinal * CELL_BITS;
+        long old;
+        long updated;
+        boolean carry;
+        do {
+            old = this.records.get(i);
+            carry = (((old >>> shift) & CELL_MASK) == CELL_MASK);
+            if (carry) {
+                // Move CARRY counts (including this one) out of the full cell and flag the record.
+                updated = (old - ((long) (CARRY - 1) << shift)) | OVERFLOW_BIT;
+            } else {
+                updated = old + (1L << shift);
+            }
+        } while (! this.records.compareAndSet(i, old, updated));
+        if (carry) {
+            this.overflow[ordinal].add(slot, CARRY);
+        }
+        this.occupancy.mark(slot);
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < this.slots; i++) {
+            this.records.lazySet(i, 0);
+        }
+        for (int i = 0; i < Frame.nFrames; i++) {
+            this.overflow[i].clear();
+        }
+        this.occupancy.clear();
+    }
+
+    /**
+     * Write the counts to an output channel.  The output is the big-endian count record for each
+     * slot, followed by the overflow table for each frame.
+     */
+    @Override
+    public void writeTo(WritableByteChannel out) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        LongBuffer longs = buffer.asLongBuffer();
+        int i = 0;
+        while (i < this.slots) {
+            longs.clear();
+            int n = Math.min(longs.capacity(), this.slots - i);
+            for (int j = 0; j < n; j++) {
+                longs.put(this.records.get(i + j));
+            }
+            i += n;
+            buffer.clear();
+            buffer.limit(n * 8);
+            ChannelIO.writeFully(out, buffer);
+        }
+        this.writeOverflow(out);
+    }
+
+}
@@ -0,0 +1,189 @@
+/**
+ *
+ */
+package org.theseed.genome.kmers.coding;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import org.theseed.locations.Frame;
+
+/**
+ * This is the read-only form of the interleaved frame count store.  It keeps a single array with
+ * one 64-bit record per slot, and the record holds all seven frame counts for the slot in 9-bit
+ * cells.  An interleaved store memory-mapped from a saved file is presented this way, since its
+ * records cannot be updated.  The in-memory {@link InterleavedFrameStore} extends it with lock-free
+ * increments.
+ *
+ * A cell holds up to 511, and the excess is kept in an overflow table for its frame.  The top bit
+ * of the record, which the cells do not use, is set when any of its cells has carried into the
+ * overflow tables, so the tables only need to be checked for a flagged record or a full cell.
+ * A mapped store has no occupancy bitmap, so all its blocks are considered occupied.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class InterleavedFrameView implements FrameCountView {
+
+    // FIELDS
+    /** mapped chunks of the file, or NULL if the records are kept by a subclass */
+    private MappedByteBuffer[] chunks;
+    /** number of slots in the store */
+    protected int slots;
+    /** overflow counts for the saturated cells, indexed by frame ordinal */
+    protected OverflowTable[] overflow;
+    /** occupancy bitmap, or NULL if the occupancy is unknown */
+    protected BlockOccupancy occupancy;
+
+    /** number of bits in a count cell */
+    protected static final int CELL_BITS = 9;
+    /** mask for a single cell, which is also the saturated cell value */
+    protected static final int CELL_MASK = (1 << CELL_BITS) - 1;
+    /** record bit indicating that the overflow tables hold part of the counts */
+    protected static final long OVERFLOW_BIT = 1L << 63;
+    /** log base 2 of the number of records in a mapped chunk */
+    private static final int CHUNK_BITS = 27;
+    /** mask for computing the position in a chunk */
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+    /**
+     * Create an interleaved view with empty overflow tables.
+     *
+     * @param slots			number of slots in the store
+     * @param chunks		mapped chunks containing the records, or NULL if the records are kept
+     * 						by a subclass
+     * @param occupancy		occupancy bitmap, or NULL if the occupancy is unknown
+     */
+    protected InterleavedFrameView(int slots, MappedByteBuffer[] chunks, BlockOccupancy occupancy) {
+        this.slots = slots;
+        this.chunks = chunks;
+        this.occupancy = occupancy;
+        this.overflow = new OverflowTable[Frame.nFrames];
+        for (int i = 0; i < Frame.nFrames; i++) {
+            this.overflow[i] = new OverflowTable();
+        }
+    }
+
+    /**
+     * @return a read-only interleaved store whose records are memory-mapped from a file
+     *
+     * @param channel	channel for the input file
+     * @param offset	byte offset in the file of the first record
+     * @param slots		number of slots in the store
+     *
+     * @throws IOException
+     */
+    public static InterleavedFrameView map(FileChannel channel, long offset, int slots) throws IOException {
+        int nChunks = (int) (((long) slots + CHUNK_MASK) >> CHUNK_BITS);
+        MappedByteBuffer[] chunks = new MappedByteBuffer[nChunks];
+        for (int i = 0; i < nChunks; i++) {
+            long first = ((long) i) << CHUNK_BITS;
+            long records = Math.min((long) slots - first, 1L << CHUNK_BITS);
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset + first * 8, records * 8);
+        }
+        InterleavedFrameView retVal = new InterleavedFrameView(slots, chunks, null);
+        // The overflow tables are small, so they are read into memory.
+        channel.position(offset + ((long) slots) * 8);
+        retVal.readOverflow(channel);
+        return retVal;
+    }
+
+    /**
+     * Read the overflow tables for all the frames.
+     *
+     * @param in	input channel, positioned on the first overflow table
+     *
+     * @throws IOException
+     */
+    protected void readOverflow(ReadableByteChannel in) throws IOException {
+        for (int i = 0; i < Frame.nFrames; i++) {
+            this.overflow[i].readFrom(in);
+        }
+    }
+
+    /**
+     * @return the count record for a slot
+     *
+     * @param slot	slot of interest
+     */
+    protected long record(int slot) {
+        return this.chunks[slot >> CHUNK_BITS].getLong((slot & CHUNK_MASK) << 3);
+    }
+
+    /**
+     * @return the count for a frame, given the count record for its slot
+     *
+     * @param record	count record for the slot
+     * @param slot		slot of interest
+     * @param ordinal	ordinal of the frame whose count is desired
+     */
+    private int count(long record, int slot, int ordinal) {
+        int retVal = (int) (record >>> (ordinal * CELL_BITS)) & CELL_MASK;
+        if (retVal == CELL_MASK || record < 0) {
+            retVal += this.overflow[ordinal].get(slot);
+        }
+        return retVal;
+    }
+
+    @Override
+    public int getCount(long slot, int ordinal) {
+        return this.count(this.record((int) slot), (int) slot, ordinal);
+    }
+
+    @Override
+    public void getCounts(long slot, int[] counts) {
+        long record = this.record((int) slot);
+        for (int i = 0; i < Frame.nFrames; i++) {
+            counts[i] = this.count(record, (int) slot, i);
+        }
+    }
+
+    /**
+     * An interleaved store must be scanned, so this always returns NULL.
+     */
+    @Override
+    public long[] occupiedSlots() {
+        return null;
+    }
+
+    @Override
+    public boolean isBlockOccupied(long block) {
+        boolean retVal = true;
+        if (this.occupancy != null) {
+            retVal = this.occupancy.isOccupied(block);
+        }
+        return retVal;
+    }
+
+    /**
+     * Write the counts to an output channel.  The output is the big-endian count record for each
+     * slot, followed by the overflow table for each frame.
+     */
+    @Override
+    public void writeTo(WritableByteChannel out) throws IOException {
+        for (MappedByteBuffer chunk : this.chunks) {
+            ByteBuffer data = chunk.duplicate();
+            data.clear();
+            ChannelIO.writeFully(out, data);
+        }
+        this.writeOverflow(out);
+    }
+
+    /**
+     * Write the overflow tables for all the frames.
+     *
+     * @param out	output channel
+     *
+     * @throws IOException
+     */
+    protected void writeOverflow(WritableByteChannel out) throws IOException {
+        for (int i = 0; i < Frame.nFrames; i++) {
+            this.overflow[i].writeTo(out);
+        }
+    }
+
+}
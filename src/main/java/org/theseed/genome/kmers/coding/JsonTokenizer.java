@@ -0,0 +1,364 @@
+/**
+ *
+ */
+package org.theseed.genome.kmers.coding;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * This is a minimal streaming JSON tokenizer.  It reads a JSON document one value at a time, so the
+ * caller can pull out the values it wants and skip the rest without ever building them in memory.
+ * The tokenizer does its own buffering, so the reader need not be buffered.
+ *
+ * The caller drives the parse.  A typical loop over an object looks like
+ *
+ * 	tokenizer.expect('{');
+ * 	while (tokenizer.more('}')) {
+ * 		String key = tokenizer.readString();
+ * 		tokenizer.expect(':');
+ * 		... read or skip the value ...
+ * 	}
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class JsonTokenizer {
+
+    // FIELDS
+    /** input reader */
+    private Reader reader;
+    /** input buffer */
+    private char[] buffer;
+    /** position of the next character in the buffer */
+    private int pos;
+    /** number of characters in the buffer */
+    private int limit;
+    /** work area for building strings */
+    private StringBuilder work;
+    /** TRUE if the next element of the current array or object is the first */
+    private boolean first;
+
+    /** size of the input buffer */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Create a tokenizer for a JSON document.
+     *
+     * @param reader	reader for the document
+     */
+    public JsonTokenizer(Reader reader) {
+        this.reader = reader;
+        this.buffer = new char[BUFFER_SIZE];
+        this.pos = 0;
+        this.limit = 0;
+        this.work = new StringBuilder();
+        this.first = false;
+    }
+
+    /**
+     * @return the next character without consuming it, or -1 at end of input
+     *
+     * @throws IOException
+     */
+    private int peekChar() throws IOException {
+        if (this.pos >= this.limit) {
+            this.limit = this.reader.read(this.buffer, 0, this.buffer.length);
+            this.pos = 0;
+            if (this.limit <= 0) {
+                this.limit = 0;
+                return -1;
+            }
+        }
+        return this.buffer[this.pos];
+    }
+
+    /**
+     * @return the next character, consuming it
+     *
+     * @throws IOException
+     */
+    private char nextChar() throws IOException {
+        int retVal = this.peekChar();
+        if (retVal < 0) {
+            throw new IOException("Unexpected end of JSON input.");
+        }
+        this.pos++;
+        return (char) retVal;
+    }
+
+    /**
+     * @return the next non-whitespace character without consuming it, or -1 at end of input
+     *
+     * @throws IOException
+     */
+    public int peek() throws IOException {
+        int retVal = this.peekChar();
+        while (retVal == ' ' || retVal == '\n' || retVal == '\r' || retVal == '\t') {
+            this.pos++;
+            retVal = this.peekChar();
+        }
+        return retVal;
+    }
+
+    /**
+     * Consume the next non-whitespace character, which must be the one specified.  If it is an
+     * opening bracket or brace, the next call to "more" will not expect a comma.
+     *
+     * @param c		expected character
+     *
+     * @throws IOException
+     */
+    public void expect(char c) throws IOException {
+        int found = this.peek();
+        if (found != c) {
+            throw new IOException("Expected '" + c + "' in JSON input but found "
+                    + (found < 0 ? "end of input" : "'" + (char) found + "'") + ".");
+        }
+        this.pos++;
+        if (c == '[' || c == '{') {
+            this.first = true;
+        }
+    }
+
+    /**
+     * Position on the next element of the current array or object.
+     *
+     * @param close		closing character of the current array or object
+     *
+     * @return TRUE if there is another element, FALSE if the closing character has been consumed
+     *
+     * @throws IOException
+     */
+    public boolean more(char close) throws IOException {
+        boolean retVal = true;
+        if (this.peek() == close) {
+            this.pos++;
+            retVal = false;
+        } else if (! this.first) {
+            this.expect(',');
+        }
+        this.first = false;
+        return retVal;
+    }
+
+    /**
+     * @return the next value, which must be a string
+     *
+     * @throws IOException
+     */
+    public String readString() throws IOException {
+        this.work.setLength(0);
+        this.readString(this.work);
+        return this.work.toString();
+    }
+
+    /**
+     * Append the next value, which must be a string, to a string builder.
+     *
+     * @param out	string builder to receive the characters
+     *
+     * @throws IOException
+     */
+    public void readString(StringBuilder out) throws IOException {
+        this.expect('"');
+        boolean done = false;
+        while (! done) {
+            // Copy the run of plain characters in the buffer all at once.
+            int start = this.pos;
+            while (this.pos < this.limit && this.buffer[this.pos] != '"' && this.buffer[this.pos] != '\\') {
+                this.pos++;
+            }
+            out.append(this.buffer, start, this.pos - start);
+            char c = this.nextChar();
+            if (c == '"') {
+                done = true;
+            } else if (c == '\\') {
+                out.append(this.unescape());
+            } else {
+                // Here we refilled the buffer, so we keep the character we read.
+                out.append(c);
+            }
+        }
+    }
+
+    /**
+     * @return the next value, which must be a string, as an array of bytes, one per character
+     *
+     * This is used for long strings of ASCII data, such as DNA sequences, which take half the space
+     * as bytes.  A character that does not fit in a byte is stored as a question mark.
+     *
+     * @throws IOException
+     */
+    public byte[] readBytes() throws IOException {
+        byte[] retVal = new byte[1024];
+        int len = 0;
+        this.expect('"');
+        boolean done = false;
+        while (! done) {
+            // Find the run of plain characters in the buffer.
+            int start = this.pos;
+            while (this.pos < this.limit && this.buffer[this.pos] != '"' && this.buffer[this.pos] != '\\') {
+                this.pos++;
+            }
+            int needed = len + this.pos - start + 1;
+            if (needed > retVal.length) {
+                retVal = Arrays.copyOf(retVal, Math.max(needed, retVal.length * 2));
+            }
+            for (int i = start; i < this.pos; i++) {
+                retVal[len++] = toByte(this.buffer[i]);
+            }
+            char c = this.nextChar();
+            if (c == '"') {
+                done = true;
+            } else if (c == '\\') {
+                retVal[len++] = toByte(this.unescape());
+            } else {
+                // Here we refilled the buffer, so we keep the character we read.
+                retVal[len++] = toByte(c);
+            }
+        }
+        return Arrays.copyOf(retVal, len);
+    }
+
+    /**
+     * @return a character stored as a byte, or a question mark if it does not fit
+     *
+     * @param c		character to convert
+     */
+    private static byte toByte(char c) {
+        return (c <= 0xFF ? (byte) c : (byte) '?');
+    }
+
+    /**
+     * @return the character represented by an escape sequence, whose backslash has been consumed
+     *
+     * @throws IOException
+     */
+    private char unescape() throws IOException {
+        char retVal;
+        char c = this.nextChar();
+        switch (c) {
+        case 'b' :
+            retVal = '\b';
+            break;
+        case 'f' :
+            retVal = '\f';
+            break;
+        case 'n' :
+            retVal = '\n';
+            break;
+        case 'r' :
+            retVal = '\r';
+            break;
+        case 't' :
+            retVal = '\t';
+            break;
+        case 'u' :
+            int code = 0;
+            for (int i = 0; i < 4; i++) {
+                int digit = Character.digit(this.nextChar(), 16);
+                if (digit < 0) {
+                    throw new IOException("Invalid unicode escape in JSON input.");
+                }
+                code = (code << 4) | digit;
+            }
+            retVal = (char) code;
+            break;
+        default :
+            // This covers quotes, slashes, and backslashes.
+            retVal = c;
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the next value, which must be a string, number, boolean, or null, as a string
+     * 		   (NULL for a JSON null)
+     *
+     * @throws IOException
+     */
+    public String readScalar() throws IOException {
+        String retVal;
+        int c = this.peek();
+        if (c == '"') {
+            retVal = this.readString();
+        } else if (c == '{' || c == '[' || c < 0) {
+            throw new IOException("Expected a scalar value in JSON input.");
+        } else {
+            this.work.setLength(0);
+            c = this.peekChar();
+            while (c >= 0 && c != ',' && c != '}' && c != ']' && c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                this.work.append((char) c);
+                this.pos++;
+                c = this.peekChar();
+            }
+            retVal = this.work.toString();
+            if (retVal.equals("null")) {
+                retVal = null;
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the next value, which must be a number or a string containing a number, as an integer
+     *
+     * @throws IOException
+     */
+    public int readInt() throws IOException {
+        String value = this.readScalar();
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid integer \"" + value + "\" in JSON input.");
+        }
+    }
+
+    /**
+     * Skip over the next value, including any nested arrays and objects.
+     *
+     * @throws IOException
+     */
+    public void skipValue() throws IOException {
+        int c = this.peek();
+        if (c == '{' || c == '[') {
+            // Skip to the matching close, keeping track of the nesting and of the strings, which
+            // may contain brackets.
+            this.pos++;
+            int depth = 1;
+            while (depth > 0) {
+                char next = this.nextChar();
+                if (next == '"') {
+                    this.skipStringBody();
+                } else if (next == '{' || next == '[') {
+                    depth++;
+                } else if (next == '}' || next == ']') {
+                    depth--;
+                }
+            }
+        } else if (c == '"') {
+            this.pos++;
+            this.skipStringBody();
+        } else {
+            this.readScalar();
+        }
+    }
+
+    /**
+     * Skip the rest of a string whose opening quote has been consumed.
+     *
+     * @throws IOException
+     */
+    private void skipStringBody() throws IOException {
+        char c = this.nextChar();
+        while (c != '"') {
+            if (c == '\\') {
+                this.nextChar();
+            }
+            c = this.nextChar();
+        }
+    }
+
+}
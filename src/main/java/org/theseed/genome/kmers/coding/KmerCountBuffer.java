@@ -0,0 +1,164 @@
+/**
+ *
+ */
+package org.theseed.genome.kmers.coding;
+
+import java.util.Arrays;
+
+import org.theseed.locations.Frame;
+
+/**
+ * This class accumulates kmer/frame increments for a single counting thread.  When the buffer
+ * fills, it is flushed into the shared KmerFrameCounter in one operation.  This allows many
+ * threads to count into one counter without each thread keeping a private copy of the giant
+ * count arrays.
+ *
+ * In batched mode, the increments are radix-partitioned by the high-order bits of their store
+ * slots before they are flushed, so the counter is updated in address order.  The updates then
+ * sweep through the giant count arrays instead of jumping around in them at random, which greatly
+ * reduces the cache and TLB misses.  The final counts are the same either way.
+ *
+ * A buffer is not thread-safe.  Each counting thread must have its own.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class KmerCountBuffer {
+
+    // FIELDS
+    /** kmer indexes to increment */
+    private long[] kmers;
+    /** frame ordinals to increment, parallel to the kmer indexes */
+    private byte[] frames;
+    /** number of increments currently in the buffer */
+    private int used;
+    /** target counter for flushing */
+    private KmerFrameCounter target;
+    /** right shift for computing the radix partition of a slot, or -1 if the buffer is not batched */
+    private int radixShift;
+    /** partition number of each increment, parallel to the kmer indexes (batched mode only) */
+    private int[] parts;
+    /** kmer indexes in partition order (batched mode only) */
+    private long[] sortedKmers;
+    /** frame ordinals in partition order (batched mode only) */
+    private byte[] sortedFrames;
+    /** starting position of each partition in the sorted arrays (batched mode only) */
+    private int[] partStarts;
+
+    /** default buffer capacity */
+    public static final int DEFAULT_CAPACITY = 1 << 20;
+    /** number of slot bits used for partitioning in batched mode */
+    private static final int RADIX_BITS = 16;
+
+    /**
+     * Create a new, empty count buffer.
+     *
+     * @param target	the kmer frame counter into which the buffer will be flushed
+     * @param capacity	maximum number of increments to hold before flushing
+     */
+    public KmerCountBuffer(KmerFrameCounter target, int capacity) {
+        this(target, capacity, false);
+    }
+
+    /**
+     * Create a new, empty count buffer, optionally in batched mode.
+     *
+     * @param target	the kmer frame counter into which the buffer will be flushed
+     * @param capacity	maximum number of increments to hold before flushing
+     * @param batched	if TRUE, the increments are sorted into address order before flushing
+     */
+    public KmerCountBuffer(KmerFrameCounter target, int capacity, boolean batched) {
+        this.target = target;
+        this.kmers = new long[capacity];
+        this.frames = new byte[capacity];
+        this.used = 0;
+        // A store without an address order (e.g. a hash table) gets no benefit from batching.
+        this.radixShift = (batched ? target.radixShift(RADIX_BITS) : -1);
+        if (this.radixShift >= 0) {
+            this.parts = new int[capacity];
+            this.sortedKmers = new long[capacity];
+            this.sortedFrames = new byte[capacity];
+            this.partStarts = new int[(1 << RADIX_BITS) + 1];
+        }
+    }
+
+    /**
+     * Create a new, empty count buffer with the default capacity.
+     *
+     * @param target	the kmer frame counter into which the buffer will be flushed
+     */
+    public KmerCountBuffer(KmerFrameCounter target) {
+        this(target, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Record an increment for a kmer in a frame.  If the buffer is full, it will be flushed.
+     *
+     * @param kIdx	index of the kmer to increment
+     * @param frm	frame to increment
+     */
+    public void add(long kIdx, Frame frm) {
+        this.kmers[this.used] = kIdx;
+        this.frames[this.used] = (byte) frm.ordinal();
+        this.used++;
+        if (this.used >= this.kmers.length) {
+            this.flush();
+        }
+    }
+
+    /**
+     * Apply all the buffered increments to the target counter and empty the buffer.
+     */
+    public void flush() {
+        if (this.used > 0) {
+            if (this.radixShift < 0) {
+                this.target.apply(this.kmers, this.frames, this.used);
+            } else {
+                this.partition();
+                this.target.apply(this.sortedKmers, this.sortedFrames, this.used);
+            }
+            this.used = 0;
+        }
+    }
+
+    /**
+     * Sort the buffered increments into the sorted arrays by the high-order bits of their slots.
+     * This is a single counting-sort pass, and it keeps the increments in their original order
+     * within each partition.
+     */
+    private void partition() {
+        int[] starts = this.partStarts;
+        Arrays.fill(starts, 0);
+        // Count the increments in each partition.
+        for (int i = 0; i < this.used; i++) {
+            int part = (int) (this.target.slotOf(this.kmers[i]) >>> this.radixShift);
+            this.parts[i] = part;
+            starts[part + 1]++;
+        }
+        // Convert the counts to starting positions.
+        for (int p = 1; p < starts.length; p++) {
+            starts[p] += starts[p - 1];
+        }
+        // Scatter the increments into their partitions.
+        for (int i = 0; i < this.used; i++) {
+            int pos = starts[this.parts[i]]++;
+            this.sortedKmers[pos] = this.kmers[i];
+            this.sortedFrames[pos] = this.frames[i];
+        }
+    }
+
+    /**
+     * @return TRUE if this buffer sorts its increments into address order before flushing
+     */
+    public boolean isBatched() {
+        return (this.radixShift >= 0);
+    }
+
+    /**
+     * @return the number of increments currently buffered
+     */
+    public int size() {
+        return this.used;
+    }
+
+}
@@ -3,33 +3,61 @@
  */
 package org.theseed.genome.kmers.coding;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
-import java.util.Map;
+import java.util.List;
 import java.util.NoSuchElementException;
 
-import org.theseed.genome.Contig;
 import org.theseed.genome.Genome;
 import org.theseed.genome.kmers.DnaKmer;
+import org.theseed.genome.kmers.KmerSpec;
 import org.theseed.genome.kmers.SequenceDnaKmers;
 import org.theseed.genome.kmers.SequenceDnaNormalKmers;
 import org.theseed.genome.kmers.SequenceDnaSpacedKmers;
 import org.theseed.locations.Frame;
-import org.theseed.locations.DiscreteLocationList;
 
 /**
  *
- * This class manages the frame counts for all the kmers.  It is a set of giant arrays, one per
- * frame, each array indexed by DnaKmer numbers.  To save space, the arrays contain short
- * integers, but these are treated as unsigned via some fancy numeric dancing.  All the
- * counts are returned as full integers.
+ * This class manages the frame counts for all the kmers.  The counts are kept in a frame count
+ * store.  The default dense store is a set of giant arrays, one per frame, each array indexed by
+ * DnaKmer numbers.  To save space, the arrays contain unsigned 16-bit count cells packed two to
+ * a word.  The compact store is the same, but with 8-bit cells packed four to a word.  The sparse
+ * store is a primitive hash table that only holds the kmers actually found, which is much smaller
+ * when only a small fraction of the possible kmers occur.  The interleaved store keeps all seven
+ * counts for a kmer in a single 64-bit record, so counting a kmer or computing its statistics
+ * touches one cache line instead of seven.
+ *
+ * A count too big for its cell is not lost:  the cell saturates, and the excess is kept in a small
+ * overflow table.  All the counts are returned as full integers.
+ *
+ * Kmers longer than 15 base pairs have long integer indexes, and there are far too many of them
+ * for the dense arrays, so a counter for such kmers always uses the sparse store.
+ *
+ * The increments are thread-safe, so many threads can count into a single object at once.
+ *
+ * Each counter has its own kmer size, so counters for several kinds of kmer can be filled from the
+ * same genomes in one pass.  The kmers passed to a statistics handler or returned by the iterator
+ * convert to strings using the global kmer size, so it should match the counter's size when they
+ * are displayed.
+ *
+ * In canonical mode, which is only available for normal kmers, a kmer and its reverse complement
+ * share a single set of counts, stored under the canonical member of the pair with the frames
+ * reversed as needed.  Every occurrence of a kmer is also an occurrence of its reverse complement
+ * in the reverse frame, so this loses no information, but it halves the work of counting.  For
+ * odd kmer sizes, the canonical member is the one whose middle base is 'a' or 'c', so the middle
+ * base only needs one bit and the arrays are half the normal size.  For even kmer sizes, the
+ * canonical member is the one with the lower index, and the arrays keep their normal size.
+ *
+ * A saved dense or interleaved counter can also be memory-mapped instead of loaded.  A mapped
+ * counter is read-only, but it is available almost instantly and its counts are paged in from the
+ * file on demand.
  *
  * @author Bruce Parrello
  */
@@ -40,60 +68,220 @@ public class KmerFrameCounter implements Iterable<DnaKmer> {
             new ArrayList<Class<? extends SequenceDnaKmers>>(
                     Arrays.asList(SequenceDnaNormalKmers.class, SequenceDnaSpacedKmers.class));
 
+    /**
+     * Types of frame count store.
+     */
+    public static enum Backend {
+        /** one giant array per frame, indexed by kmer */
+        DENSE,
+        /** one giant array per frame, with one byte per kmer */
+        COMPACT,
+        /** hash table containing only the kmers found */
+        SPARSE,
+        /** one giant array with a single record holding all the frame counts for each kmer */
+        INTERLEAVED;
+    }
+
     // FIELDS
-    /** the master array, indexed by frame ordinal and then kmer index */
-    private short[][] countArray;
+    /** the frame count store, indexed by slot and then frame ordinal */
+    private FrameCountView store;
+    /** the same store, if it can be updated, or NULL if it is read-only */
+    private FrameCountStore writableStore;
     /** the number of kmer values */
-    private int size;
+    private long size;
+    /** the number of possible count slots */
+    private long slots;
+    /** TRUE if each kmer shares its counts with its reverse complement */
+    private boolean canonical;
     /** the kmer size used to generate this object */
     private int kmerSize;
     /** the kmer type used to generate this object */
     private Class<? extends SequenceDnaKmers> kmerType;
 
+    /** size in bytes of the file header */
+    private static final int HEADER_SIZE = 8;
+    /** file-format flag (stored with the kmer type) indicating canonical storage */
+    private static final int CANONICAL_FLAG = 0x10000;
+    /** file-format flag (stored with the kmer type) indicating a sparse store */
+    private static final int SPARSE_FLAG = 0x20000;
+    /** file-format flag (stored with the kmer type) indicating that overflow tables follow the counts */
+    private static final int OVERFLOW_FLAG = 0x40000;
+    /** file-format flag (stored with the kmer type) indicating a dense store with 8-bit cells */
+    private static final int COMPACT_FLAG = 0x80000;
+    /** file-format flag (stored with the kmer type) indicating an interleaved store */
+    private static final int INTERLEAVED_FLAG = 0x100000;
+    /** mask for the kmer type in the file header */
+    private static final int TYPE_MASK = 0xFFFF;
+    /** for each frame ordinal, the ordinal of the reverse frame */
+    private static final int[] REV_ORDINAL = new int[Frame.nFrames];
+    static {
+        for (Frame frm : Frame.all) {
+            REV_ORDINAL[frm.ordinal()] = frm.rev().ordinal();
+        }
+    }
+
 
     /**
      * Construct an empty kmer frame counter.
      */
     public KmerFrameCounter(Class<? extends SequenceDnaKmers> kmerType) {
-        this.kmerSize = DnaKmer.getSize();
-        this.size = DnaKmer.maxKmers();
-        this.kmerType = kmerType;
-        this.countArray = new short[Frame.nFrames][this.size];
-        this.clear();
+        this(kmerType, false);
+    }
+
+    /**
+     * Construct an empty kmer frame counter, optionally using canonical storage.
+     *
+     * @param kmerType		type of kmer to count
+     * @param canonical		TRUE if each kmer should share its counts with its reverse complement
+     */
+    public KmerFrameCounter(Class<? extends SequenceDnaKmers> kmerType, boolean canonical) {
+        this(kmerType, canonical, Backend.DENSE);
+    }
+
+    /**
+     * Construct an empty kmer frame counter with the specified storage options.
+     *
+     * @param kmerType		type of kmer to count
+     * @param canonical		TRUE if each kmer should share its counts with its reverse complement
+     * @param backend		type of frame count store to use (ignored for kmers too big for the
+     * 						dense store)
+     */
+    public KmerFrameCounter(Class<? extends SequenceDnaKmers> kmerType, boolean canonical, Backend backend) {
+        this(new KmerSpec(kmerType, DnaKmer.getSize()), canonical, backend);
+    }
+
+    /**
+     * Construct an empty kmer frame counter for a specific kind of kmer.  The global kmer size is
+     * not used, so counters for different kmer sizes can be built and filled at the same time.
+     *
+     * @param spec			type and size of kmer to count
+     * @param canonical		TRUE if each kmer should share its counts with its reverse complement
+     * @param backend		type of frame count store to use (ignored for kmers too big for the
+     * 						dense store)
+     */
+    public KmerFrameCounter(KmerSpec spec, boolean canonical, Backend backend) {
+        if (canonical && spec.getKmerType() != SequenceDnaNormalKmers.class) {
+            throw new IllegalArgumentException("Canonical kmer storage is only supported for normal kmers.");
+        }
+        this.kmerSize = spec.getKmerSize();
+        this.size = 1L << (2 * this.kmerSize);
+        this.kmerType = spec.getKmerType();
+        this.setCanonical(canonical);
+        if (backend == Backend.SPARSE || this.kmerSize > DnaKmer.MAX_INT_SIZE) {
+            this.setStore(new SparseFrameStore());
+        } else if (backend == Backend.COMPACT) {
+            this.setStore(new DenseFrameStore((int) this.slots, 8));
+        } else if (backend == Backend.INTERLEAVED) {
+            this.setStore(new InterleavedFrameStore((int) this.slots));
+        } else {
+            this.setStore(new DenseFrameStore((int) this.slots));
+        }
         assert(this.kmerType != null);
     }
 
+    /**
+     * Install the frame count store.  A store that is only a view, such as one memory-mapped from
+     * a file, makes this counter read-only.
+     *
+     * @param newStore	frame count store to use
+     */
+    private void setStore(FrameCountView newStore) {
+        this.store = newStore;
+        if (newStore instanceof FrameCountStore) {
+            this.writableStore = (FrameCountStore) newStore;
+        } else {
+            this.writableStore = null;
+        }
+    }
+
+    /**
+     * Insure this counter can be updated.
+     *
+     * @throws IllegalStateException if the counter is read-only
+     */
+    private void checkWritable() {
+        if (this.writableStore == null) {
+            throw new IllegalStateException("Kmer counter is memory-mapped and read-only.");
+        }
+    }
+
+    /**
+     * @return TRUE if this counter is read-only, because its counts are memory-mapped from a file
+     */
+    public boolean isReadOnly() {
+        return (this.writableStore == null);
+    }
+
+    /**
+     * Specify whether or not this counter uses canonical storage, and compute the array size.
+     *
+     * @param canonical		TRUE for canonical storage, else FALSE
+     */
+    private void setCanonical(boolean canonical) {
+        this.canonical = canonical;
+        this.slots = this.size;
+        if (canonical && (this.kmerSize & 1) != 0) {
+            this.slots = this.size >> 1;
+        }
+    }
+
     /**
      * Load a kmer frame counter from a file.
      */
     public KmerFrameCounter(File inFile) {
-        this.load(inFile);
+        this.load(inFile, false);
+    }
+
+    /**
+     * Load or map a kmer frame counter from a file.
+     *
+     * @param inFile	file from which to load
+     * @param mapped	if TRUE, the file is memory-mapped as a read-only backing store instead of
+     * 					being read into memory
+     */
+    public KmerFrameCounter(File inFile, boolean mapped) {
+        this.load(inFile, mapped);
     }
 
     /**
      * Load this kmer frame counter from the specified file.
      *
      * @param inFile	file from which to load
+     * @param mapped	if TRUE, the file is memory-mapped instead of read
      */
-    private void load(File inFile) {
-        try {
-            FileInputStream inStream = new FileInputStream(inFile);
-            DataInputStream reader = new DataInputStream(inStream);
+    private void load(File inFile, boolean mapped) {
+        try (FileInputStream inStream = new FileInputStream(inFile)) {
+            FileChannel channel = inStream.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0)
+                    throw new IOException("Kmer counter file " + inFile + " is truncated.");
+            }
             // Start with the kmer specs.
-            this.kmerSize = reader.readInt();
+            this.kmerSize = header.getInt(0);
             DnaKmer.setSize(this.kmerSize);
-            this.size = DnaKmer.maxKmers();
-            // Get the kmer type.
-            int typeIdx = reader.readInt();
-            this.kmerType = KmerFrameCounter.types.get(typeIdx);
-            // Now read the big huge array.
-            this.countArray = new short[Frame.nFrames][this.size];
-            for (int i = 0; i < Frame.nFrames; i++) {
-                for (int j = 0; j < this.size; j++) {
-                    this.countArray[i][j] = reader.readShort();
+            this.size = DnaKmer.kmerSpace();
+            // Get the kmer type and the format flags.
+            int typeWord = header.getInt(4);
+            this.kmerType = KmerFrameCounter.types.get(typeWord & TYPE_MASK);
+            this.setCanonical((typeWord & CANONICAL_FLAG) != 0);
+            // Now read the counts.  A sparse store is always read into memory.  Older files have
+            // 16-bit cells and no overflow tables.
+            boolean overflow = ((typeWord & OVERFLOW_FLAG) != 0);
+            int bits = ((typeWord & COMPACT_FLAG) != 0 ? 8 : 16);
+            if ((typeWord & SPARSE_FLAG) != 0) {
+                this.setStore(SparseFrameStore.load(channel, overflow));
+            } else if ((typeWord & INTERLEAVED_FLAG) != 0) {
+                if (mapped) {
+                    this.setStore(InterleavedFrameView.map(channel, HEADER_SIZE, (int) this.slots));
+                } else {
+                    this.setStore(InterleavedFrameStore.load(channel, (int) this.slots));
                 }
+            } else if (mapped) {
+                this.setStore(DenseFrameView.map(channel, HEADER_SIZE, (int) this.slots, bits, overflow));
+            } else {
+                this.setStore(DenseFrameStore.load(channel, (int) this.slots, bits, overflow));
             }
-            reader.close();
         } catch (IOException e) {
             throw new RuntimeException("Error loading kmer counter from " + inFile + ".", e);
         }
@@ -104,7 +292,7 @@ public class KmerFrameCounter implements Iterable<DnaKmer> {
      */
     public KmerFrameCounter(String string) {
         File inFile = new File(string);
-        this.load(inFile);
+        this.load(inFile, false);
     }
 
     /**
@@ -134,21 +322,139 @@ public class KmerFrameCounter implements Iterable<DnaKmer> {
     private int iCount(DnaKmer kmer, int ordinal) {
         int retVal = 0;
         if (ordinal < Frame.nFrames) {
-            retVal = (this.countArray[ordinal][kmer.idx()]) & 0xFFFF;
+            long idx = kmer.longIdx();
+            if (this.canonical) {
+                long rIdx = DnaKmer.reverseIdx(idx, this.kmerSize);
+                if (this.isFlipped(idx, rIdx)) {
+                    idx = rIdx;
+                    ordinal = REV_ORDINAL[ordinal];
+                }
+                idx = this.compact(idx);
+            }
+            retVal = this.store.getCount(idx, ordinal);
         }
         return retVal;
     }
 
     /**
-     * Increment the kmer count for a specified frame.
+     * Increment the kmer count for a specified frame.  This method is thread-safe.  In canonical
+     * mode, this also counts the reverse complement of the kmer in the reverse frame.
      *
      * @param kmer	the relevant kmer
      * @param frm	the frame whose count is to be increments
+     *
+     * @throws IllegalStateException if the counter is read-only
      */
     public void increment(DnaKmer kmer, Frame frm) {
+        this.checkWritable();
         if (frm != Frame.XX) {
-            this.countArray[frm.ordinal()][kmer.idx()]++;
+            this.increment(kmer.longIdx(), frm.ordinal());
+        }
+    }
+
+    /**
+     * Increment the count for a kmer index in the frame with a specified ordinal.
+     *
+     * @param idx		index of the kmer to count
+     * @param ordinal	ordinal of the frame to count
+     */
+    private void increment(long idx, int ordinal) {
+        if (! this.canonical) {
+            this.writableStore.increment(idx, ordinal);
+        } else {
+            long rIdx = DnaKmer.reverseIdx(idx, this.kmerSize);
+            if (rIdx == idx) {
+                // A palindrome is its own reverse complement, so it is counted in both frames.
+                long slot = this.compact(idx);
+                this.writableStore.increment(slot, ordinal);
+                this.writableStore.increment(slot, REV_ORDINAL[ordinal]);
+            } else {
+                if (this.isFlipped(idx, rIdx)) {
+                    idx = rIdx;
+                    ordinal = REV_ORDINAL[ordinal];
+                }
+                this.writableStore.increment(this.compact(idx), ordinal);
+            }
+        }
+    }
+
+    /**
+     * @return TRUE if the specified kmer is not canonical, so its counts are stored under its
+     * 		   reverse complement
+     *
+     * @param idx	index of the kmer
+     * @param rIdx	index of its reverse complement
+     */
+    private boolean isFlipped(long idx, long rIdx) {
+        boolean retVal;
+        if ((this.kmerSize & 1) != 0) {
+            // For odd sizes, the canonical kmer has 'a' or 'c' in the middle.
+            retVal = ((idx >>> this.kmerSize) & 1) != 0;
+        } else {
+            retVal = (rIdx < idx);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the array slot for a canonical kmer
+     *
+     * @param idx	index of a canonical kmer
+     */
+    private long compact(long idx) {
+        long retVal = idx;
+        if ((this.kmerSize & 1) != 0) {
+            // Remove the high bit of the middle base, which is always 0.
+            int midBit = this.kmerSize;
+            retVal = ((idx >>> (midBit + 1)) << midBit) | (idx & ((1L << midBit) - 1));
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the canonical kmer index for an array slot
+     *
+     * @param slot	array slot of interest
+     */
+    private long expand(long slot) {
+        long retVal = slot;
+        if (this.canonical && (this.kmerSize & 1) != 0) {
+            // Put back the high bit of the middle base, which is always 0.
+            int midBit = this.kmerSize;
+            retVal = ((slot >>> midBit) << (midBit + 1)) | (slot & ((1L << midBit) - 1));
         }
+        return retVal;
+    }
+
+    /**
+     * @return a sorted array of the kmers that may have nonzero counts, or NULL if the store does
+     * 		   not know which slots are occupied
+     */
+    private long[] candidateKmers() {
+        long[] retVal = this.store.occupiedSlots();
+        if (retVal != null && this.canonical) {
+            // Each occupied slot represents a kmer and its reverse complement.
+            long[] kmers = new long[retVal.length * 2];
+            int n = 0;
+            for (long slot : retVal) {
+                long kIdx = this.expand(slot);
+                kmers[n++] = kIdx;
+                long rIdx = DnaKmer.reverseIdx(kIdx, this.kmerSize);
+                if (rIdx != kIdx) {
+                    kmers[n++] = rIdx;
+                }
+            }
+            Arrays.sort(kmers, 0, n);
+            retVal = Arrays.copyOf(kmers, n);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return TRUE if this counter uses canonical storage
+     */
+    public boolean isCanonical() {
+        return this.canonical;
     }
 
     /**
@@ -188,6 +494,192 @@ public class KmerFrameCounter implements Iterable<DnaKmer> {
         return retVal;
     }
 
+    /**
+     * Scan all the kmers with nonzero counts in kmer order, passing the frame statistics for each
+     * one to a handler.  Each kmer's counts are read only once, and in the dense store the empty
+     * blocks of kmers are skipped.  This is much faster than iterating through the kmers and asking
+     * for the best frame, the fraction, and the count separately.
+     *
+     * @param handler	handler to receive the statistics for each kmer
+     */
+    public void scan(KmerStatsHandler handler) {
+        this.scan(this.candidateKmers(), 0, this.size, handler);
+    }
+
+    /**
+     * Divide the kmers into ranges that can be scanned independently, for example by different
+     * threads.  The ranges are in kmer order, so scanning them one after the other is the same as
+     * scanning all the kmers at once.  The division depends only on the contents of this counter,
+     * never on the number of threads.  The counts should not change while the ranges are in use.
+     *
+     * @param n		desired number of ranges
+     *
+     * @return a list of the kmer ranges, in kmer order
+     */
+    public List<ScanRange> scanRanges(int n) {
+        List<ScanRange> retVal = new ArrayList<ScanRange>(n);
+        long[] candidates = this.candidateKmers();
+        if (candidates != null) {
+            // Divide the candidate kmers evenly, so each range has about the same amount of work.
+            int start = 0;
+            for (int i = 1; i <= n; i++) {
+                int end = (int) ((long) candidates.length * i / n);
+                if (end > start) {
+                    long endIdx = (end < candidates.length ? candidates[end] : this.size);
+                    retVal.add(new ScanRange(candidates, candidates[start], endIdx));
+                    start = end;
+                }
+            }
+        } else {
+            // Divide the kmer space evenly, keeping the range boundaries on whole blocks.
+            long blockSize = 1L << FrameCountStore.BLOCK_BITS;
+            long rangeSize = Math.max(blockSize, (this.size / n + blockSize - 1) & -blockSize);
+            for (long start = 0; start < this.size; start += rangeSize) {
+                retVal.add(new ScanRange(null, start, Math.min(start + rangeSize, this.size)));
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * This class represents a range of kmers to scan.  The ranges share the candidate kmer list,
+     * so it is only computed once.
+     */
+    public class ScanRange {
+
+        /** sorted array of the kmers that might be nonzero, or NULL to check all of them */
+        private long[] candidates;
+        /** index of the first kmer in the range */
+        private long start;
+        /** index past the last kmer in the range */
+        private long end;
+
+        /**
+         * Create a new scan range.
+         *
+         * @param candidates	sorted array of candidate kmers, or NULL to check all of them
+         * @param start			index of the first kmer in the range
+         * @param end			index past the last kmer in the range
+         */
+        private ScanRange(long[] candidates, long start, long end) {
+            this.candidates = candidates;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Scan the kmers with nonzero counts in this range, in kmer order, passing the frame
+         * statistics for each one to a handler.  Different ranges may be scanned at the same time.
+         *
+         * @param handler	handler to receive the statistics for each kmer
+         */
+        public void scan(KmerStatsHandler handler) {
+            KmerFrameCounter.this.scan(this.candidates, this.start, this.end, handler);
+        }
+
+        /**
+         * @return the index of the first kmer in the range
+         */
+        public long getStart() {
+            return this.start;
+        }
+
+        /**
+         * @return the index past the last kmer in the range
+         */
+        public long getEnd() {
+            return this.end;
+        }
+
+    }
+
+    /**
+     * Scan the kmers with nonzero counts in a range of kmer indexes, in kmer order, passing the
+     * frame statistics for each one to a handler.
+     *
+     * @param candidates	sorted array of the kmers that might be nonzero, or NULL to check all of them
+     * @param start			index of the first kmer to scan
+     * @param end			index past the last kmer to scan
+     * @param handler		handler to receive the statistics for each kmer
+     */
+    private void scan(long[] candidates, long start, long end, KmerStatsHandler handler) {
+        int[] raw = new int[Frame.nFrames];
+        int[] counts = new int[Frame.nFrames];
+        DnaKmer kmer = new DnaKmer();
+        if (candidates != null) {
+            // Here the store has told us which kmers to check.
+            int i = Arrays.binarySearch(candidates, start);
+            if (i < 0) i = -i - 1;
+            while (i < candidates.length && candidates[i] < end) {
+                this.scanKmer(candidates[i], kmer, raw, counts, handler);
+                i++;
+            }
+        } else {
+            // Here we must check every kmer.  Without canonical storage, a kmer's index is its
+            // slot, so we can skip the blocks the store knows are empty.
+            long blockSize = 1L << FrameCountStore.BLOCK_BITS;
+            long idx = start;
+            while (idx < end) {
+                long blockEnd = Math.min(((idx >>> FrameCountStore.BLOCK_BITS) + 1) * blockSize, end);
+                if (this.canonical || this.store.isBlockOccupied(idx >>> FrameCountStore.BLOCK_BITS)) {
+                    for (; idx < blockEnd; idx++) {
+                        this.scanKmer(idx, kmer, raw, counts, handler);
+                    }
+                }
+                idx = blockEnd;
+            }
+        }
+    }
+
+    /**
+     * Compute the frame statistics for a single kmer and pass them to a handler if the kmer
+     * has nonzero counts.
+     *
+     * @param idx		index of the kmer
+     * @param kmer		kmer object to use for passing the kmer to the handler
+     * @param raw		work array for reading the counts
+     * @param counts	work array to receive the counts, indexed by frame ordinal
+     * @param handler	handler to receive the statistics
+     */
+    private void scanKmer(long idx, DnaKmer kmer, int[] raw, int[] counts, KmerStatsHandler handler) {
+        this.readCounts(idx, raw, counts);
+        int best = 0;
+        int total = 0;
+        for (int i = 0; i < Frame.nFrames; i++) {
+            total += counts[i];
+            if (counts[i] > counts[best]) {
+                best = i;
+            }
+        }
+        if (total > 0) {
+            kmer.setIdx(idx);
+            handler.handle(kmer, Frame.idxFrame(best), counts[best], total,
+                    ((double) counts[best]) / ((double) total));
+        }
+    }
+
+    /**
+     * Read all the frame counts for a kmer.
+     *
+     * @param idx		index of the kmer
+     * @param raw		work array for reading the counts
+     * @param counts	array to receive the counts, indexed by frame ordinal
+     */
+    private void readCounts(long idx, int[] raw, int[] counts) {
+        if (! this.canonical) {
+            this.store.getCounts(idx, counts);
+        } else {
+            long rIdx = DnaKmer.reverseIdx(idx, this.kmerSize);
+            if (this.isFlipped(idx, rIdx)) {
+                this.store.getCounts(this.compact(rIdx), raw);
+                for (int i = 0; i < Frame.nFrames; i++) {
+                    counts[i] = raw[REV_ORDINAL[i]];
+                }
+            } else {
+                this.store.getCounts(this.compact(idx), counts);
+            }
+        }
+    }
 
     /**
      * Iterator class for finding kmers with nonzero counts.
@@ -199,9 +691,15 @@ public class KmerFrameCounter implements Iterable<DnaKmer> {
         DnaKmer nextKmer;
         /** To avoid storage madness, this is the kmer we return to the user. */
         DnaKmer thisKmer;
+        /** sorted array of the kmers that might be nonzero, or NULL to check all of them */
+        long[] candidates;
+        /** position in the candidate array of the next kmer to check */
+        int candidatePos;
 
         public KmerCountIterator() {
             this.thisKmer = new DnaKmer();
+            this.candidates = candidateKmers();
+            this.candidatePos = 0;
             // Find the first kmer (if any).
             this.findAfter(-1);
         }
@@ -211,25 +709,39 @@ public class KmerFrameCounter implements Iterable<DnaKmer> {
          *
          * @param i	index of the kmer after which to start searching
          */
-        private void findAfter(int i) {
-            this.nextKmer = new DnaKmer(i + 1);
-            while (this.nextKmer.idx() < size && getBest(this.nextKmer) == Frame.XX)
-                nextKmer.increment();
+        private void findAfter(long i) {
+            if (this.candidates == null) {
+                this.nextKmer = new DnaKmer(i + 1);
+                while (this.nextKmer.longIdx() < size && getBest(this.nextKmer) == Frame.XX)
+                    nextKmer.increment();
+            } else {
+                // Here the store has told us which kmers to check.
+                this.nextKmer = new DnaKmer(size);
+                boolean found = false;
+                while (! found && this.candidatePos < this.candidates.length) {
+                    this.nextKmer.setIdx(this.candidates[this.candidatePos]);
+                    this.candidatePos++;
+                    found = (this.nextKmer.longIdx() > i && getBest(this.nextKmer) != Frame.XX);
+                }
+                if (! found) {
+                    this.nextKmer.setIdx(size);
+                }
+            }
         }
 
         @Override
         public boolean hasNext() {
-            return this.nextKmer.idx() < size;
+            return this.nextKmer.longIdx() < size;
         }
 
         @Override
         public DnaKmer next() {
-            if (this.nextKmer.idx() >= size)
+            if (this.nextKmer.longIdx() >= size)
                 throw new NoSuchElementException("Attempt to search past end of Kmer Frame Counter array.");
             // Save the next kmer.
-            thisKmer.setIdx(nextKmer.idx());
+            thisKmer.setIdx(nextKmer.longIdx());
             // Position after it.
-            this.findAfter(this.nextKmer.idx());
+            this.findAfter(this.nextKmer.longIdx());
             return thisKmer;
         }
 
@@ -242,52 +754,186 @@ public class KmerFrameCounter implements Iterable<DnaKmer> {
      * @param genome		the genome whose kmers are to be counted
      */
     public void processGenome(Genome genome) {
-        // Get the map of location lists.
-        Map<String, DiscreteLocationList> contigMap = DiscreteLocationList.createGenomeCodingMap(genome);
+        this.processGenome(genome, null);
+    }
+
+    /**
+     * Count all of the kmers in a specified genome, recording the increments in a count buffer.
+     * This method can be called from multiple threads at once, so long as each thread has its
+     * own buffer.  The buffer is flushed when the genome is finished.
+     *
+     * @param genome		the genome whose kmers are to be counted
+     * @param buffer		the buffer for the increments, or NULL to update the counts directly
+     */
+    public void processGenome(Genome genome, KmerCountBuffer buffer) {
+        this.processContigs(new GenomeContigs(genome), buffer);
+    }
+
+    /**
+     * Count all of the kmers in the contigs of a genome, recording the increments in a count
+     * buffer.  The contigs can come from a loaded genome or a contig cache.  This method can be
+     * called from multiple threads at once, so long as each thread has its own buffer.  The buffer
+     * is flushed when the genome is finished.
+     *
+     * @param contigs		the contigs whose kmers are to be counted
+     * @param buffer		the buffer for the increments, or NULL to update the counts directly
+     *
+     * @throws IllegalStateException if the counter is read-only
+     */
+    public void processContigs(CodingContigs contigs, KmerCountBuffer buffer) {
+        this.checkWritable();
         // Loop through the contigs from the genome.
-        for (Contig contig : genome.getContigs()) {
-            // Get the location list for this contig.
-            DiscreteLocationList contigLocs = contigMap.get(contig.getId());
+        int n = contigs.size();
+        for (int i = 0; i < n; i++) {
             // Count kmers on this sequence.
-            SequenceDnaKmers kmerProcessor = SequenceDnaKmers.build(this.kmerType, contig.getSequence());
-            countSequence(contigLocs, kmerProcessor);
+            CharSequence sequence = contigs.getSequence(i);
+            SequenceDnaKmers kmerProcessor = SequenceDnaKmers.build(this.kmerType, sequence, this.kmerSize);
+            ContigFrameTrack frames = contigs.getFrameTrack(i, kmerProcessor.regionSize());
+            countSequence(frames, kmerProcessor, buffer);
         }
+        if (buffer != null) {
+            buffer.flush();
+        }
+    }
 
+    /**
+     * Count the kmers in the contigs of a genome for several counters at once.  Each contig
+     * sequence is fetched once, and its frame tracks for all the counters' region sizes are
+     * computed together, so the counters share the cost of reading the genome and finding its
+     * frames.  This method can be called from multiple threads at once, so long as each thread
+     * has its own buffers.  The buffers are flushed when the genome is finished.
+     *
+     * @param contigs		the contigs whose kmers are to be counted
+     * @param counters		the counters to receive the counts
+     * @param buffers		the buffers for the increments, parallel to the counters, or NULL to
+     * 						update the counts directly
+     *
+     * @throws IllegalStateException if any of the counters is read-only
+     */
+    public static void processContigs(CodingContigs contigs, KmerFrameCounter[] counters,
+            KmerCountBuffer[] buffers) {
+        int[] regionSizes = new int[counters.length];
+        for (int k = 0; k < counters.length; k++) {
+            counters[k].checkWritable();
+            regionSizes[k] = counters[k].getKmerSpec().regionSize();
+        }
+        int n = contigs.size();
+        for (int i = 0; i < n; i++) {
+            CharSequence sequence = contigs.getSequence(i);
+            ContigFrameTrack[] tracks = contigs.getFrameTracks(i, regionSizes);
+            for (int k = 0; k < counters.length; k++) {
+                KmerFrameCounter counter = counters[k];
+                SequenceDnaKmers kmerProcessor = SequenceDnaKmers.build(counter.kmerType, sequence,
+                        counter.kmerSize);
+                counter.countSequence(tracks[k], kmerProcessor, (buffers == null ? null : buffers[k]));
+            }
+        }
+        if (buffers != null) {
+            for (KmerCountBuffer buffer : buffers) {
+                if (buffer != null) {
+                    buffer.flush();
+                }
+            }
+        }
     }
 
     /**
      * Count all of the kmers in a specified sequence.
      *
-     * @param contigLocs	location list used to compute the frame information
+     * @param frames		frame track for the sequence, computed for the kmer region size
      * @param kmerProcessor	SequenceDnaKmers object for getting kmers out of the sequence
+     * @param buffer		buffer for the increments, or NULL to update the counts directly
      */
-    private void countSequence(DiscreteLocationList contigLocs, SequenceDnaKmers kmerProcessor) {
+    private void countSequence(ContigFrameTrack frames, SequenceDnaKmers kmerProcessor,
+            KmerCountBuffer buffer) {
         // Loop through the sequence.
         while (kmerProcessor.nextKmer()) {
-            int pos = kmerProcessor.getPos();
-            Frame kmerFrame = contigLocs.computeRegionFrame(pos, pos + kmerProcessor.regionSize() - 1);
+            Frame kmerFrame = frames.frameAt(kmerProcessor.getPos());
             if (kmerFrame != Frame.XX) {
-                this.increment(kmerProcessor, kmerFrame);
+                this.record(kmerProcessor, kmerFrame, buffer);
                 // Compute the reverse complement kmer for the current position.  This is not necessarily
                 // the reverse complement of the kmer, since the kmer may not cover all of the base pairs
                 // in the region.  For this reason, the reverse may contain invalid characters and have to
-                // be rejected.
-                kmerProcessor.reverse();
-                if (kmerProcessor.idx() != DnaKmer.NULL) {
-                    this.increment(kmerProcessor, kmerFrame.rev());
+                // be rejected.  In canonical mode, the reverse is counted along with the forward kmer.
+                if (! this.canonical) {
+                    kmerProcessor.reverse();
+                    if (kmerProcessor.longIdx() != DnaKmer.NULL) {
+                        this.record(kmerProcessor, kmerFrame.rev(), buffer);
+                    }
                 }
             }
 
         }
     }
 
+    /**
+     * Record a single kmer occurrence, either directly or in a count buffer.
+     *
+     * @param kmer		the relevant kmer
+     * @param frm		the frame in which it occurred
+     * @param buffer	buffer for the increment, or NULL to update the counts directly
+     */
+    private void record(DnaKmer kmer, Frame frm, KmerCountBuffer buffer) {
+        if (buffer == null) {
+            this.increment(kmer, frm);
+        } else {
+            buffer.add(kmer.longIdx(), frm);
+        }
+    }
+
+    /**
+     * Apply a batch of increments to the counts.  Because the increments are lock-free, buffers
+     * from multiple counting threads can be flushed at the same time.
+     *
+     * @param kmers		array of kmer indexes to increment
+     * @param frames	array of frame ordinals to increment, parallel to the kmer indexes
+     * @param n			number of increments in the arrays
+     */
+    void apply(long[] kmers, byte[] frames, int n) {
+        this.checkWritable();
+        for (int i = 0; i < n; i++) {
+            this.increment(kmers[i], frames[i]);
+        }
+    }
+
+    /**
+     * @return the store slot that holds the counts for a kmer index
+     *
+     * @param idx	index of the kmer
+     */
+    long slotOf(long idx) {
+        long retVal = idx;
+        if (this.canonical) {
+            long rIdx = DnaKmer.reverseIdx(idx, this.kmerSize);
+            retVal = this.compact(this.isFlipped(idx, rIdx) ? rIdx : idx);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the right shift that reduces a store slot to the specified number of high-order bits,
+     * 		   or -1 if the store slots are not laid out in address order (so that sorting the
+     * 		   increments by slot would not help)
+     *
+     * @param radixBits		number of high-order bits desired
+     */
+    int radixShift(int radixBits) {
+        int retVal = -1;
+        if (! (this.store instanceof SparseFrameStore)) {
+            int slotBits = 64 - Long.numberOfLeadingZeros(this.slots - 1);
+            retVal = Math.max(0, slotBits - radixBits);
+        }
+        return retVal;
+    }
+
     /**
      * Erase all the counts so we can start over.
+     *
+     * @throws IllegalStateException if the counter is read-only
      */
     public void clear() {
-        for (int i = 0; i < Frame.nFrames; i++) {
-            Arrays.fill(this.countArray[i], (short) 0);
-        }
+        this.checkWritable();
+        this.writableStore.clear();
     }
 
     /**
@@ -297,21 +943,31 @@ public class KmerFrameCounter implements Iterable<DnaKmer> {
      * @throws IOException
      */
     public void save(String fileName) {
-        try {
-            FileOutputStream outFile = new FileOutputStream(fileName);
-            DataOutputStream writer = new DataOutputStream(outFile);
+        try (FileOutputStream outFile = new FileOutputStream(fileName)) {
+            FileChannel channel = outFile.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
             // Start with the kmer specs.
-            writer.writeInt(this.kmerSize);
-            // Save the kmer type.
+            header.putInt(this.kmerSize);
+            // Save the kmer type and the format flags.
             int typeIdx = KmerFrameCounter.types.indexOf(this.kmerType);
-            writer.writeInt(typeIdx);
-            // Now write the big huge array.
-            for (int i = 0; i < Frame.nFrames; i++) {
-                for (int j = 0; j < this.size; j++) {
-                    writer.writeShort(this.countArray[i][j]);
-                }
+            if (this.canonical) {
+                typeIdx |= CANONICAL_FLAG;
             }
-            writer.close();
+            if (this.store instanceof SparseFrameStore) {
+                typeIdx |= SPARSE_FLAG;
+            } else if (this.store instanceof InterleavedFrameView) {
+                typeIdx |= INTERLEAVED_FLAG;
+            } else if (((DenseFrameView) this.store).getCellBits() == 8) {
+                typeIdx |= COMPACT_FLAG;
+            }
+            typeIdx |= OVERFLOW_FLAG;
+            header.putInt(typeIdx);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            // Now write the counts.
+            this.store.writeTo(channel);
         } catch (IOException e) {
             throw new RuntimeException("Error writing kmer data to " + fileName + ".", e);
         }
@@ -335,4 +991,43 @@ public class KmerFrameCounter implements Iterable<DnaKmer> {
         return this.kmerType;
     }
 
+    /**
+     * @return the kmer size used by this counter
+     */
+    public int getKmerSize() {
+        return this.kmerSize;
+    }
+
+    /**
+     * @return the type and size of kmer used by this counter
+     */
+    public KmerSpec getKmerSpec() {
+        return new KmerSpec(this.kmerType, this.kmerSize);
+    }
+
+    /**
+     * @return the numeric code for a kmer type, as stored in saved files
+     *
+     * @param kmerType	kmer type of interest
+     */
+    public static int typeCode(Class<? extends SequenceDnaKmers> kmerType) {
+        int retVal = KmerFrameCounter.types.indexOf(kmerType);
+        if (retVal < 0) {
+            throw new IllegalArgumentException("Unsupported kmer type " + kmerType + ".");
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the kmer type for a numeric code stored in a saved file
+     *
+     * @param code	numeric code of interest
+     */
+    public static Class<? extends SequenceDnaKmers> typeOf(int code) {
+        if (code < 0 || code >= KmerFrameCounter.types.size()) {
+            throw new IllegalArgumentException("Invalid kmer type code " + code + ".");
+        }
+        return KmerFrameCounter.types.get(code);
+    }
+
 }
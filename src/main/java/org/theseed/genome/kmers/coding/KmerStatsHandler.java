@@ -0,0 +1,31 @@
+/**
+ *
+ */
+package org.theseed.genome.kmers.coding;
+
+import org.theseed.genome.kmers.DnaKmer;
+import org.theseed.locations.Frame;
+
+/**
+ * This interface describes an object that receives the frame statistics for each kmer found by a
+ * kmer frame counter scan.  The statistics for a kmer are computed from a single read of its
+ * counts.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public interface KmerStatsHandler {
+
+    /**
+     * Process the statistics for a kmer with nonzero counts.  The kmer object is reused by the
+     * scan, so it must be copied if it is to be kept.
+     *
+     * @param kmer			the kmer found
+     * @param bestFrame		the frame with the highest count (the first one in case of a tie)
+     * @param bestCount		the count for the best frame
+     * @param total			the total count over all the frames
+     * @param frac			the fraction of the total count that is in the best frame
+     */
+    public void handle(DnaKmer kmer, Frame bestFrame, int bestCount, int total, double frac);
+
+}
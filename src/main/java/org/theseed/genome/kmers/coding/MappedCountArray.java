@@ -0,0 +1,123 @@
+/**
+ *
+ */
+package org.theseed.genome.kmers.coding;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * This class presents a read-only array of counts stored in a memory-mapped file.  The cells
+ * are big-endian unsigned 8-bit or 16-bit integers, exactly as written by the kmer frame counter.
+ * The overflow table for the saturated cells is small, so it is kept in memory.  Nothing
+ * is read when the array is created:  the operating system pages the data in on demand, and
+ * several processes mapping the same file share a single copy in the page cache.
+ *
+ * A single mapping cannot exceed 2 gigabytes, so the array is mapped in chunks.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class MappedCountArray implements CountArray {
+
+    // FIELDS
+    /** mapped chunks of the file */
+    private MappedByteBuffer[] chunks;
+    /** number of counts in the array */
+    private int size;
+    /** number of bits in a cell */
+    private int bits;
+    /** mask for a single cell, which is also the saturated cell value */
+    private int cellMask;
+    /** overflow counts for the saturated cells */
+    private OverflowTable overflow;
+
+    /** log base 2 of the number of counts in a chunk */
+    private static final int CHUNK_BITS = 29;
+    /** mask for computing the position in a chunk */
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+    /**
+     * Map a count array with 16-bit cells from a file.
+     *
+     * @param channel	channel for the file containing the counts
+     * @param offset	byte offset in the file of the first count
+     * @param size		number of counts in the array
+     *
+     * @throws IOException
+     */
+    public MappedCountArray(FileChannel channel, long offset, int size) throws IOException {
+        this(channel, offset, size, AtomicCountArray.DEFAULT_BITS);
+    }
+
+    /**
+     * Map a count array from a file.  The overflow table starts out empty.
+     *
+     * @param channel	channel for the file containing the counts
+     * @param offset	byte offset in the file of the first count
+     * @param size		number of counts in the array
+     * @param bits		number of bits in a cell (8 or 16)
+     *
+     * @throws IOException
+     */
+    public MappedCountArray(FileChannel channel, long offset, int size, int bits) throws IOException {
+        this.size = size;
+        this.bits = bits;
+        this.cellMask = (1 << bits) - 1;
+        this.overflow = new OverflowTable();
+        int cellBytes = bits >> 3;
+        int nChunks = (int) (((long) size + CHUNK_MASK) >> CHUNK_BITS);
+        this.chunks = new MappedByteBuffer[nChunks];
+        for (int i = 0; i < nChunks; i++) {
+            long first = ((long) i) << CHUNK_BITS;
+            long counts = Math.min((long) size - first, 1L << CHUNK_BITS);
+            this.chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset + first * cellBytes,
+                    counts * cellBytes);
+        }
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public int getCellBits() {
+        return this.bits;
+    }
+
+    @Override
+    public int get(int i) {
+        MappedByteBuffer chunk = this.chunks[i >> CHUNK_BITS];
+        int retVal;
+        if (this.bits == 8) {
+            retVal = chunk.get(i & CHUNK_MASK) & 0xFF;
+        } else {
+            retVal = chunk.getShort((i & CHUNK_MASK) << 1) & 0xFFFF;
+        }
+        if (retVal == this.cellMask) {
+            retVal += this.overflow.get(i);
+        }
+        return retVal;
+    }
+
+    @Override
+    public OverflowTable getOverflow() {
+        return this.overflow;
+    }
+
+    @Override
+    public void writeTo(WritableByteChannel out) throws IOException {
+        for (MappedByteBuffer chunk : this.chunks) {
+            ByteBuffer data = chunk.duplicate();
+            data.clear();
+            while (data.hasRemaining()) {
+                out.write(data);
+            }
+        }
+    }
+
+}
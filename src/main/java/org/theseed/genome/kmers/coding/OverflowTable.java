@@ -0,0 +1,330 @@
+/**
+ *
+ */
+package org.theseed.genome.kmers.coding;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * This class holds the wide part of tiered counts.  The count arrays keep each count in a narrow
+ * cell; when a cell reaches its maximum value it is saturated, and every further increment goes
+ * to this table instead.  The true count is then the saturated cell value plus the value in this
+ * table.  Only the handful of very common kmers ever saturate, so the table is small, and the
+ * narrow cells keep the memory close to the minimum.
+ *
+ * The table is an open-addressing hash table of primitive arrays.  Like the sparse frame store,
+ * it is divided into segments by hash value, each with its own lock.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class OverflowTable {
+
+    // FIELDS
+    /** the hash table segments */
+    private Segment[] segments;
+
+    /** log base 2 of the number of segments */
+    private static final int SEGMENT_BITS = 4;
+    /** initial capacity of a segment */
+    private static final int INITIAL_CAPACITY = 16;
+    /** marker for an empty hash table position */
+    private static final long EMPTY = -1;
+    /** number of bytes in a saved entry */
+    private static final int ENTRY_BYTES = 8 + 4;
+    /** size in bytes of the buffer used for loading and saving */
+    private static final int BUFFER_SIZE = ENTRY_BYTES << 12;
+
+    /**
+     * This class is a single segment of the hash table.
+     */
+    private static class Segment {
+
+        /** key in each hash table position, or EMPTY */
+        private long[] keys;
+        /** overflow count in each hash table position */
+        private int[] values;
+        /** number of occupied positions */
+        private int used;
+        /** mask for converting a hash value to a position */
+        private int mask;
+
+        /**
+         * Create an empty segment.
+         */
+        protected Segment() {
+            this.allocate(INITIAL_CAPACITY);
+        }
+
+        /**
+         * Allocate empty hash table arrays.
+         *
+         * @param capacity	new capacity (must be a power of 2)
+         */
+        private void allocate(int capacity) {
+            this.keys = new long[capacity];
+            Arrays.fill(this.keys, EMPTY);
+            this.values = new int[capacity];
+            this.mask = capacity - 1;
+            this.used = 0;
+        }
+
+        /**
+         * @return the position of a key in the hash table, or the empty position where it belongs
+         *
+         * @param key	key to find
+         * @param hash	hash value of the key
+         */
+        private int find(long key, int hash) {
+            int pos = hash & this.mask;
+            while (this.keys[pos] != EMPTY && this.keys[pos] != key) {
+                pos = (pos + 1) & this.mask;
+            }
+            return pos;
+        }
+
+        /**
+         * @return the position of a key in the hash table, adding it if necessary
+         *
+         * @param key	key to find
+         * @param hash	hash value of the key
+         */
+        private int findOrAdd(long key, int hash) {
+            int pos = this.find(key, hash);
+            if (this.keys[pos] == EMPTY) {
+                // Keep the load factor at or below 1/2.
+                if ((this.used + 1) * 2 > this.keys.length) {
+                    this.grow();
+                    pos = this.find(key, hash);
+                }
+                this.keys[pos] = key;
+                this.used++;
+            }
+            return pos;
+        }
+
+        /**
+         * Double the size of the hash table.
+         */
+        private void grow() {
+            long[] oldKeys = this.keys;
+            int[] oldValues = this.values;
+            this.allocate(oldKeys.length * 2);
+            for (int i = 0; i < oldKeys.length; i++) {
+                long key = oldKeys[i];
+                if (key != EMPTY) {
+                    int pos = this.find(key, SparseFrameStore.hash(key));
+                    this.keys[pos] = key;
+                    this.values[pos] = oldValues[i];
+                    this.used++;
+                }
+            }
+        }
+
+        /**
+         * @return the overflow count for a key
+         *
+         * @param key	key of interest
+         * @param hash	hash value of the key
+         */
+        protected synchronized int get(long key, int hash) {
+            int pos = this.find(key, hash);
+            return (this.keys[pos] == key ? this.values[pos] : 0);
+        }
+
+        /**
+         * Add to the overflow count for a key.
+         *
+         * @param key	key to update
+         * @param hash	hash value of the key
+         * @param delta	amount to add
+         */
+        protected synchronized void add(long key, int hash, int delta) {
+            int pos = this.findOrAdd(key, hash);
+            this.values[pos] += delta;
+        }
+
+        /**
+         * Store the overflow count for a key.
+         *
+         * @param key	key to update
+         * @param hash	hash value of the key
+         * @param value	new overflow count
+         */
+        protected synchronized void set(long key, int hash, int value) {
+            int pos = this.find(key, hash);
+            if (this.keys[pos] == key) {
+                this.values[pos] = value;
+            } else if (value != 0) {
+                pos = this.findOrAdd(key, hash);
+                this.values[pos] = value;
+            }
+        }
+
+        /**
+         * Erase this segment.
+         */
+        protected synchronized void clear() {
+            this.allocate(INITIAL_CAPACITY);
+        }
+
+        /**
+         * Store the occupied keys in an array.
+         *
+         * @param keys		output array
+         * @param start		position in the output array for the first key
+         *
+         * @return the position in the output array after the last key
+         */
+        protected synchronized int copyKeys(long[] keys, int start) {
+            int retVal = start;
+            for (long key : this.keys) {
+                if (key != EMPTY) {
+                    keys[retVal] = key;
+                    retVal++;
+                }
+            }
+            return retVal;
+        }
+
+        /**
+         * @return the number of occupied keys
+         */
+        protected synchronized int size() {
+            return this.used;
+        }
+
+    }
+
+    /**
+     * Create a new, empty overflow table.
+     */
+    public OverflowTable() {
+        this.segments = new Segment[1 << SEGMENT_BITS];
+        for (int i = 0; i < this.segments.length; i++) {
+            this.segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * @return the segment for a hash value
+     *
+     * @param hash	hash value of interest
+     */
+    private Segment segment(int hash) {
+        return this.segments[hash >>> (32 - SEGMENT_BITS)];
+    }
+
+    /**
+     * @return the overflow count for a key (usually an array index or a kmer slot)
+     *
+     * @param key	key of interest
+     */
+    public int get(long key) {
+        int hash = SparseFrameStore.hash(key);
+        return this.segment(hash).get(key, hash);
+    }
+
+    /**
+     * Add to the overflow count for a key.  This method is thread-safe.
+     *
+     * @param key	key to update
+     * @param delta	amount to add
+     */
+    public void add(long key, int delta) {
+        int hash = SparseFrameStore.hash(key);
+        this.segment(hash).add(key, hash, delta);
+    }
+
+    /**
+     * Store the overflow count for a key.
+     *
+     * @param key	key to update
+     * @param value	new overflow count
+     */
+    public void set(long key, int value) {
+        int hash = SparseFrameStore.hash(key);
+        this.segment(hash).set(key, hash, value);
+    }
+
+    /**
+     * Erase all the overflow counts.
+     */
+    public void clear() {
+        for (Segment segment : this.segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * @return the number of keys in the table
+     */
+    public int size() {
+        int retVal = 0;
+        for (Segment segment : this.segments) {
+            retVal += segment.size();
+        }
+        return retVal;
+    }
+
+    /**
+     * Write the table to an output channel.  The output is the number of keys, followed by each
+     * key and its overflow count, in key order.
+     *
+     * @param out	output channel
+     *
+     * @throws IOException
+     */
+    public void writeTo(WritableByteChannel out) throws IOException {
+        long[] keys = new long[this.size()];
+        int n = 0;
+        for (Segment segment : this.segments) {
+            n = segment.copyKeys(keys, n);
+        }
+        Arrays.sort(keys, 0, n);
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        buffer.putInt(n);
+        for (int i = 0; i < n; i++) {
+            if (buffer.remaining() < ENTRY_BYTES) {
+                buffer.flip();
+                ChannelIO.writeFully(out, buffer);
+                buffer.clear();
+            }
+            buffer.putLong(keys[i]);
+            buffer.putInt(this.get(keys[i]));
+        }
+        buffer.flip();
+        ChannelIO.writeFully(out, buffer);
+    }
+
+    /**
+     * Read overflow counts from an input channel into this table.  This is the reverse of writeTo.
+     *
+     * @param in	input channel
+     *
+     * @throws IOException
+     */
+    public void readFrom(ReadableByteChannel in) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        buffer.limit(4);
+        ChannelIO.readFully(in, buffer);
+        int remaining = buffer.getInt(0);
+        while (remaining > 0) {
+            int n = Math.min(remaining, BUFFER_SIZE / ENTRY_BYTES);
+            buffer.clear();
+            buffer.limit(n * ENTRY_BYTES);
+            ChannelIO.readFully(in, buffer);
+            buffer.flip();
+            for (int i = 0; i < n; i++) {
+                long key = buffer.getLong();
+                this.set(key, buffer.getInt());
+            }
+            remaining -= n;
+        }
+    }
+
+}
@@ -0,0 +1,109 @@
+/**
+ *
+ */
+package org.theseed.genome.kmers.coding;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class presents a contig sequence stored in a contig cache as a character sequence.  The
+ * bases are packed two bits per base, with a separate bit mask marking the ambiguous positions, and
+ * each character is decoded from the buffer only when it is asked for, so a contig is never copied
+ * into the heap.  The bases are read with absolute gets, so the position and limit of the buffer are
+ * not used or changed.
+ *
+ * @author Bruce Parrello
+ *
+ */
+class PackedSequence implements CharSequence {
+
+    // FIELDS
+    /** buffer containing the packed contig */
+    private ByteBuffer buffer;
+    /** index in the buffer of the packed bases of the contig */
+    private int packedStart;
+    /** index in the buffer of the ambiguity mask of the contig */
+    private int maskStart;
+    /** position in the contig of the first base of this sequence (0-based) */
+    private int start;
+    /** number of bases in the sequence */
+    private int length;
+
+    /** characters for the two-bit base codes */
+    private static final byte[] BASES = new byte[] { 'a', 'c', 'g', 't' };
+    /** character used for an ambiguous base */
+    private static final byte AMBIGUOUS = 'n';
+
+    /**
+     * Create a sequence for a region of a packed contig.
+     *
+     * @param buffer		buffer containing the packed contig
+     * @param packedStart	index in the buffer of the packed bases of the contig
+     * @param maskStart		index in the buffer of the ambiguity mask of the contig
+     * @param start			position in the contig of the first base of the region (0-based)
+     * @param length		number of bases in the region
+     */
+    protected PackedSequence(ByteBuffer buffer, int packedStart, int maskStart, int start, int length) {
+        this.buffer = buffer;
+        this.packedStart = packedStart;
+        this.maskStart = maskStart;
+        this.start = start;
+        this.length = length;
+    }
+
+    @Override
+    public int length() {
+        return this.length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= this.length) {
+            throw new IndexOutOfBoundsException("Index " + index + " is outside a sequence of length "
+                    + this.length + ".");
+        }
+        int pos = this.start + index;
+        char retVal;
+        if ((this.buffer.get(this.maskStart + (pos >> 3)) & (1 << (pos & 7))) != 0) {
+            retVal = (char) AMBIGUOUS;
+        } else {
+            retVal = (char) BASES[(this.buffer.get(this.packedStart + (pos >> 2)) >> ((pos & 3) << 1)) & 3];
+        }
+        return retVal;
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > this.length || start > end) {
+            throw new IndexOutOfBoundsException("Invalid subsequence from " + start + " to " + end + ".");
+        }
+        return new PackedSequence(this.buffer, this.packedStart, this.maskStart, this.start + start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        // Read the packed bases and the mask covering the region in bulk, then decode them.
+        int end = this.start + this.length;
+        int packedFirst = this.start >> 2;
+        int maskFirst = this.start >> 3;
+        byte[] packed = new byte[((end + 3) >> 2) - packedFirst];
+        byte[] mask = new byte[((end + 7) >> 3) - maskFirst];
+        ByteBuffer source = this.buffer.duplicate();
+        source.position(this.packedStart + packedFirst);
+        source.get(packed);
+        source.position(this.maskStart + maskFirst);
+        source.get(mask);
+        byte[] retVal = new byte[this.length];
+        for (int i = 0; i < this.length; i++) {
+            int pos = this.start + i;
+            if ((mask[(pos >> 3) - maskFirst] & (1 << (pos & 7))) != 0) {
+                retVal[i] = AMBIGUOUS;
+            } else {
+                retVal[i] = BASES[(packed[(pos >> 2) - packedFirst] >> ((pos & 3) << 1)) & 3];
+            }
+        }
+        return new String(retVal, StandardCharsets.ISO_8859_1);
+    }
+
+}
@@ -0,0 +1,420 @@
+/**
+ *
+ */
+package org.theseed.genome.kmers.coding;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+import org.theseed.locations.Frame;
+
+/**
+ * This is the sparse frame count store.  It is an open-addressing hash table that maps each
+ * occupied slot to its seven frame counts, using only primitive arrays.  Memory is proportional
+ * to the number of distinct kmers actually found rather than to the number of possible kmers,
+ * so it is the right choice when only a small fraction of the kmers will ever occur.
+ *
+ * As in the dense store, the counts are kept in unsigned 16-bit cells, and the counts too big for a
+ * cell are kept in overflow tables.  The slots are long integers, so this store can hold kmers of
+ * any supported size.
+ *
+ * The table is divided into segments by hash value, and each segment has its own lock.  This
+ * keeps counting threads from tripping over each other while still allowing the segments to
+ * grow as needed.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class SparseFrameStore implements FrameCountStore {
+
+    // FIELDS
+    /** the hash table segments */
+    private Segment[] segments;
+    /** overflow counts for the saturated cells, indexed by frame ordinal */
+    private OverflowTable[] overflow;
+
+    /** log base 2 of the number of segments */
+    private static final int SEGMENT_BITS = 6;
+    /** initial capacity of a segment */
+    private static final int INITIAL_CAPACITY = 1024;
+    /** marker for an empty hash table position */
+    private static final long EMPTY = -1;
+    /** value of a saturated count cell */
+    private static final int SATURATED = 0xFFFF;
+    /** number of bytes in a saved entry */
+    private static final int ENTRY_BYTES = 8 + 2 * Frame.nFrames;
+    /** size in bytes of the buffer used for loading and saving */
+    private static final int BUFFER_SIZE = ENTRY_BYTES << 16;
+
+    /**
+     * This class is a single segment of the hash table.
+     */
+    private static class Segment {
+
+        /** slot in each hash table position, or EMPTY */
+        private long[] keys;
+        /** counts for each hash table position, indexed by position * nFrames + frame ordinal */
+        private char[] counts;
+        /** number of occupied positions */
+        private int used;
+        /** mask for converting a hash value to a position */
+        private int mask;
+
+        /**
+         * Create an empty segment.
+         *
+         * @param capacity	initial capacity (must be a power of 2)
+         */
+        protected Segment(int capacity) {
+            this.allocate(capacity);
+        }
+
+        /**
+         * Allocate empty hash table arrays.
+         *
+         * @param capacity	new capacity (must be a power of 2)
+         */
+        private void allocate(int capacity) {
+            this.keys = new long[capacity];
+            Arrays.fill(this.keys, EMPTY);
+            this.counts = new char[capacity * Frame.nFrames];
+            this.mask = capacity - 1;
+            this.used = 0;
+        }
+
+        /**
+         * @return the position of a slot in the hash table, or the empty position where it belongs
+         *
+         * @param slot	slot to find
+         * @param hash	hash value of the slot
+         */
+        private int find(long slot, int hash) {
+            int pos = hash & this.mask;
+            while (this.keys[pos] != EMPTY && this.keys[pos] != slot) {
+                pos = (pos + 1) & this.mask;
+            }
+            return pos;
+        }
+
+        /**
+         * @return the count for a slot in a frame
+         *
+         * @param slot		slot of interest
+         * @param ordinal	frame ordinal of interest
+         * @param hash		hash value of the slot
+         */
+        protected synchronized int get(long slot, int ordinal, int hash) {
+            int retVal = 0;
+            int pos = this.find(slot, hash);
+            if (this.keys[pos] == slot) {
+                retVal = this.counts[pos * Frame.nFrames + ordinal];
+            }
+            return retVal;
+        }
+
+        /**
+         * Get the count cells for a slot in all the frames.
+         *
+         * @param slot		slot of interest
+         * @param hash		hash value of the slot
+         * @param counts	array to receive the cells, indexed by frame ordinal
+         */
+        protected synchronized void getAll(long slot, int hash, int[] counts) {
+            int pos = this.find(slot, hash);
+            if (this.keys[pos] == slot) {
+                int base = pos * Frame.nFrames;
+                for (int i = 0; i < Frame.nFrames; i++) {
+                    counts[i] = this.counts[base + i];
+                }
+            } else {
+                Arrays.fill(counts, 0, Frame.nFrames, 0);
+            }
+        }
+
+        /**
+         * Add to the count for a slot in a frame, creating the slot if necessary.  If the count
+         * cell saturates, the part of the delta that does not fit is returned.
+         *
+         * @param slot		slot to update
+         * @param ordinal	frame ordinal to update
+         * @param hash		hash value of the slot
+         * @param delta		amount to add
+         *
+         * @return the amount that must be added to the overflow table
+         */
+        protected synchronized int add(long slot, int ordinal, int hash, int delta) {
+            int pos = this.find(slot, hash);
+            if (this.keys[pos] == EMPTY) {
+                // Keep the load factor at or below 1/2.
+                if ((this.used + 1) * 2 > this.keys.length) {
+                    this.grow();
+                    pos = this.find(slot, hash);
+                }
+                this.keys[pos] = slot;
+                this.used++;
+            }
+            int i = pos * Frame.nFrames + ordinal;
+            int count = this.counts[i] + delta;
+            int retVal = 0;
+            if (count > SATURATED) {
+                retVal = count - SATURATED;
+                count = SATURATED;
+            }
+            this.counts[i] = (char) count;
+            return retVal;
+        }
+
+        /**
+         * Double the size of the hash table.
+         */
+        private void grow() {
+            long[] oldKeys = this.keys;
+            char[] oldCounts = this.counts;
+            this.allocate(oldKeys.length * 2);
+            for (int i = 0; i < oldKeys.length; i++) {
+                long slot = oldKeys[i];
+                if (slot != EMPTY) {
+                    int pos = this.find(slot, hash(slot));
+                    this.keys[pos] = slot;
+                    System.arraycopy(oldCounts, i * Frame.nFrames, this.counts, pos * Frame.nFrames, Frame.nFrames);
+                    this.used++;
+                }
+            }
+        }
+
+        /**
+         * Erase this segment.
+         */
+        protected synchronized void clear() {
+            this.allocate(INITIAL_CAPACITY);
+        }
+
+        /**
+         * Store the occupied slots in an array.
+         *
+         * @param slots		output array
+         * @param start		position in the output array for the first slot
+         *
+         * @return the position in the output array after the last slot
+         */
+        protected synchronized int copySlots(long[] slots, int start) {
+            int retVal = start;
+            for (long slot : this.keys) {
+                if (slot != EMPTY) {
+                    slots[retVal] = slot;
+                    retVal++;
+                }
+            }
+            return retVal;
+        }
+
+        /**
+         * @return the number of occupied slots
+         */
+        protected synchronized int size() {
+            return this.used;
+        }
+
+    }
+
+    /**
+     * Create a new, empty sparse store.
+     */
+    public SparseFrameStore() {
+        this.segments = new Segment[1 << SEGMENT_BITS];
+        for (int i = 0; i < this.segments.length; i++) {
+            this.segments[i] = new Segment(INITIAL_CAPACITY);
+        }
+        this.overflow = new OverflowTable[Frame.nFrames];
+        for (int i = 0; i < Frame.nFrames; i++) {
+            this.overflow[i] = new OverflowTable();
+        }
+    }
+
+    /**
+     * @return a sparse store whose counts are read from an input channel
+     *
+     * @param in			input channel, positioned after the file header
+     * @param overflow		TRUE if the entries are followed by overflow tables
+     *
+     * @throws IOException
+     */
+    public static SparseFrameStore load(ReadableByteChannel in, boolean overflow) throws IOException {
+        SparseFrameStore retVal = new SparseFrameStore();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        buffer.limit(4);
+        ChannelIO.readFully(in, buffer);
+        int remaining = buffer.getInt(0);
+        while (remaining > 0) {
+            int n = Math.min(remaining, BUFFER_SIZE / ENTRY_BYTES);
+            buffer.clear();
+            buffer.limit(n * ENTRY_BYTES);
+            ChannelIO.readFully(in, buffer);
+            buffer.flip();
+            for (int i = 0; i < n; i++) {
+                long slot = buffer.getLong();
+                for (int j = 0; j < Frame.nFrames; j++) {
+                    int count = buffer.getChar();
+                    if (count > 0) {
+                        retVal.add(slot, j, count);
+                    }
+                }
+            }
+            remaining -= n;
+        }
+        if (overflow) {
+            for (int i = 0; i < Frame.nFrames; i++) {
+                retVal.overflow[i].readFrom(in);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the hash value for a slot
+     *
+     * @param slot	slot to hash
+     */
+    static int hash(long slot) {
+        // This is the 64-bit MurmurHash3 finalizer, folded down to an integer.
+        long h = slot;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) (h >>> 32) ^ (int) h;
+    }
+
+    /**
+     * @return the segment for a hash value
+     *
+     * @param hash	hash value of interest
+     */
+    private Segment segment(int hash) {
+        return this.segments[hash >>> (32 - SEGMENT_BITS)];
+    }
+
+    /**
+     * Add to the count for a slot in a frame.
+     *
+     * @param slot		slot to update
+     * @param ordinal	frame ordinal to update
+     * @param delta		amount to add
+     */
+    private void add(long slot, int ordinal, int delta) {
+        int hash = hash(slot);
+        int excess = this.segment(hash).add(slot, ordinal, hash, delta);
+        if (excess > 0) {
+            this.overflow[ordinal].add(slot, excess);
+        }
+    }
+
+    @Override
+    public int getCount(long slot, int ordinal) {
+        int retVal = this.getCell(slot, ordinal);
+        if (retVal == SATURATED) {
+            retVal += this.overflow[ordinal].get(slot);
+        }
+        return retVal;
+    }
+
+    @Override
+    public void getCounts(long slot, int[] counts) {
+        int hash = hash(slot);
+        this.segment(hash).getAll(slot, hash, counts);
+        for (int i = 0; i < Frame.nFrames; i++) {
+            if (counts[i] == SATURATED) {
+                counts[i] += this.overflow[i].get(slot);
+            }
+        }
+    }
+
+    /**
+     * @return the count cell for a slot in a frame, without the overflow
+     *
+     * @param slot		slot of interest
+     * @param ordinal	frame ordinal of interest
+     */
+    private int getCell(long slot, int ordinal) {
+        int hash = hash(slot);
+        return this.segment(hash).get(slot, ordinal, hash);
+    }
+
+    @Override
+    public void increment(long slot, int ordinal) {
+        this.add(slot, ordinal, 1);
+    }
+
+    @Override
+    public void clear() {
+        for (Segment segment : this.segments) {
+            segment.clear();
+        }
+        for (OverflowTable table : this.overflow) {
+            table.clear();
+        }
+    }
+
+    /**
+     * @return the number of occupied slots
+     */
+    public int size() {
+        int retVal = 0;
+        for (Segment segment : this.segments) {
+            retVal += segment.size();
+        }
+        return retVal;
+    }
+
+    @Override
+    public long[] occupiedSlots() {
+        long[] retVal = new long[this.size()];
+        int n = 0;
+        for (Segment segment : this.segments) {
+            n = segment.copySlots(retVal, n);
+        }
+        Arrays.sort(retVal, 0, n);
+        return (n == retVal.length ? retVal : Arrays.copyOf(retVal, n));
+    }
+
+    /**
+     * The occupied slots of a sparse store are listed directly, so every block is reported as
+     * occupied.
+     */
+    @Override
+    public boolean isBlockOccupied(long block) {
+        return true;
+    }
+
+    /**
+     * Write the counts to an output channel.  The output is the number of slots, followed by each
+     * slot number and its count cells, in slot order, and then the overflow table for each frame.
+     */
+    @Override
+    public void writeTo(WritableByteChannel out) throws IOException {
+        long[] slots = this.occupiedSlots();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        buffer.putInt(slots.length);
+        for (long slot : slots) {
+            if (buffer.remaining() < ENTRY_BYTES) {
+                buffer.flip();
+                ChannelIO.writeFully(out, buffer);
+                buffer.clear();
+            }
+            buffer.putLong(slot);
+            for (int j = 0; j < Frame.nFrames; j++) {
+                buffer.putChar((char) this.getCell(slot, j));
+            }
+        }
+        buffer.flip();
+        ChannelIO.writeFully(out, buffer);
+        for (OverflowTable table : this.overflow) {
+            table.writeTo(out);
+        }
+    }
+
+}
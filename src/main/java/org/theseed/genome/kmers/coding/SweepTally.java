@@ -0,0 +1,193 @@
+/**
+ *
+ */
+package org.theseed.genome.kmers.coding;
+
+import org.theseed.genome.kmers.predictor.FramePredictor;
+import org.theseed.locations.Frame;
+
+/**
+ * This class accumulates the results of testing several frame predictors at once.  The predictors
+ * are the kmer sets selected at the points of a parameter grid, and they are tested together
+ * through a single predictor containing all their kmers.  Each slot of the combined predictor has
+ * a bit mask telling which grid points selected its kmer.  A kmer found in the combined predictor
+ * counts as a prediction for the points that selected it and as a miss for the others, so each
+ * point gets exactly the results it would get if its own predictor were tested alone.
+ *
+ * A kmer makes the same predictions at every point that selected it, so the per-kmer results are
+ * kept in a single flag array for all the points, and only the hit and miss totals are kept for
+ * each point.  When the kmers are counted for a point, the slots outside its mask are skipped.
+ *
+ * A tally is not thread-safe.  Each testing thread keeps its own, and the tallies are merged at
+ * the end.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class SweepTally {
+
+    // FIELDS
+    /** bit mask of the grid points for each predictor slot, or NULL if every point has every slot */
+    private long[] masks;
+    /** result flags for each predictor slot */
+    private byte[] flags;
+    /** number of good predictions at each grid point */
+    private long[] goodHits;
+    /** number of bad predictions at each grid point */
+    private long[] badHits;
+    /** number of kmers found in the combined predictor but not selected at each grid point */
+    private long[] pointMisses;
+    /** number of kmers not found in the combined predictor, which are misses at every point */
+    private long misses;
+    /** number of genomes tested */
+    private int genomes;
+
+    /** maximum number of grid points */
+    public static final int MAX_POINTS = 64;
+    /** flag for a slot whose kmer made a good prediction */
+    private static final byte GOOD = 1;
+    /** flag for a slot whose kmer made a bad prediction */
+    private static final byte BAD = 2;
+
+    /**
+     * Create a new, empty tally.
+     *
+     * @param masks		bit mask of the grid points for each predictor slot, or NULL if all the
+     * 					points share every slot
+     * @param points	number of grid points
+     * @param slots		number of slots in the combined predictor
+     */
+    public SweepTally(long[] masks, int points, int slots) {
+        if (points < 1 || points > MAX_POINTS) {
+            throw new IllegalArgumentException("Number of grid points must be from 1 to " + MAX_POINTS + ".");
+        }
+        this.masks = masks;
+        this.flags = new byte[slots];
+        this.goodHits = new long[points];
+        this.badHits = new long[points];
+        this.pointMisses = new long[points];
+        this.misses = 0;
+        this.genomes = 0;
+    }
+
+    /**
+     * Record a kmer found in the combined predictor.
+     *
+     * @param slot			predictor slot of the kmer
+     * @param actual		actual frame of the kmer, or Frame.XX if it is not known
+     * @param predicted		frame predicted for the kmer
+     */
+    public void found(int slot, Frame actual, Frame predicted) {
+        long mask = (this.masks == null ? -1L : this.masks[slot]);
+        boolean good = (actual == predicted);
+        if (actual != Frame.XX) {
+            this.flags[slot] |= (good ? GOOD : BAD);
+        }
+        for (int p = 0; p < this.goodHits.length; p++) {
+            if ((mask & (1L << p)) == 0) {
+                this.pointMisses[p]++;
+            } else if (actual != Frame.XX) {
+                if (good) {
+                    this.goodHits[p]++;
+                } else {
+                    this.badHits[p]++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Record a kmer not found in the combined predictor.
+     */
+    public void miss() {
+        this.misses++;
+    }
+
+    /**
+     * Record a tested genome.
+     */
+    public void addGenome() {
+        this.genomes++;
+    }
+
+    /**
+     * Add the results from another tally to this one.
+     *
+     * @param other		tally for the same grid and predictor to merge in
+     */
+    public void merge(SweepTally other) {
+        for (int i = 0; i < this.flags.length; i++) {
+            this.flags[i] |= other.flags[i];
+        }
+        for (int p = 0; p < this.goodHits.length; p++) {
+            this.goodHits[p] += other.goodHits[p];
+            this.badHits[p] += other.badHits[p];
+            this.pointMisses[p] += other.pointMisses[p];
+        }
+        this.misses += other.misses;
+        this.genomes += other.genomes;
+    }
+
+    /**
+     * Count the kmers that made predictions at a grid point, by predicted frame.  A kmer is bad if
+     * it made at least one bad prediction, and good if all its predictions were correct.
+     *
+     * @param p				index of the grid point
+     * @param predictor		the combined predictor that was tested
+     * @param good			array to receive the number of good kmers for each frame ordinal
+     * @param bad			array to receive the number of bad kmers for each frame ordinal
+     */
+    public void countKmers(int p, FramePredictor predictor, int[] good, int[] bad) {
+        for (int i = 0; i < Frame.nFrames; i++) {
+            good[i] = 0;
+            bad[i] = 0;
+        }
+        long bit = 1L << p;
+        for (int slot = 0; slot < this.flags.length; slot++) {
+            byte flag = this.flags[slot];
+            if (flag != 0 && (this.masks == null || (this.masks[slot] & bit) != 0)) {
+                int ordinal = predictor.slotFrame(slot).ordinal();
+                if ((flag & BAD) != 0) {
+                    bad[ordinal]++;
+                } else {
+                    good[ordinal]++;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of good predictions at a grid point
+     *
+     * @param p		index of the grid point
+     */
+    public long getGoodHits(int p) {
+        return this.goodHits[p];
+    }
+
+    /**
+     * @return the number of bad predictions at a grid point
+     *
+     * @param p		index of the grid point
+     */
+    public long getBadHits(int p) {
+        return this.badHits[p];
+    }
+
+    /**
+     * @return the number of kmers with no prediction at a grid point
+     *
+     * @param p		index of the grid point
+     */
+    public long getMisses(int p) {
+        return this.pointMisses[p] + this.misses;
+    }
+
+    /**
+     * @return the number of genomes tested
+     */
+    public int getGenomes() {
+        return this.genomes;
+    }
+
+}
@@ -3,51 +3,394 @@
  */
 package org.theseed.genome.kmers.predictor;
 
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.util.HashMap;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 import java.util.Scanner;
 
 import org.theseed.genome.kmers.DnaKmer;
+import org.theseed.genome.kmers.SequenceDnaKmers;
 import org.theseed.locations.Frame;
 
 /**
  * This class manages a data structure that maps DnaKmer objects to coding frames.
  *
+ * The map is kept in primitive arrays, so it uses very little memory and the lookups never
+ * allocate objects.  Normally, it is a sorted array of kmer indexes with a parallel array of frame
+ * ordinals, searched with a binary search.  When the kmers are small enough that a direct table
+ * of every possible kmer would take less memory, the map is instead a table with a 4-bit frame
+ * code for each kmer, so each lookup is a single array access.
+ *
+ * A predictor can also be saved in a binary file, which loads without any parsing.  The file has
+ * a header containing the kmer size, the kmer type code (as used by the kmer frame counter), and the
+ * number of kmers, followed by the sorted kmer indexes and then the frame ordinals.  The predictor
+ * keeps its own kmer size, so loading one never changes the global DnaKmer size.  Because the
+ * kmers are sorted, the binary file can be memory-mapped and searched in place.  A mapped predictor
+ * is available almost immediately, and the processes on a host that map the same file share a
+ * single copy of it in the page cache.
+ *
+ * Most kmers in a genome are not useful, so most lookups are misses.  When the kmers are in sorted
+ * arrays (mapped or not), a blocked Bloom filter can be built in front of the search, so that nearly
+ * all the misses are answered from a single cache line.
+ *
+ * The predictor is read-only once it is built (and its filter, if any, is enabled), so a single
+ * predictor can be shared by many threads.
+ *
  * @author Bruce Parrello
  *
  */
 public class FramePredictor {
 
     // FIELDS
+    /** sorted indexes of the kmers with predictions, or NULL if the direct table is used */
+    private long[] kmers;
+    /** frame ordinal for each kmer, parallel to the sorted kmer indexes */
+    private byte[] frames;
+    /** direct table with a 4-bit frame code for each possible kmer, or NULL if it is not used */
+    private byte[] table;
+    /** number of kmers with predictions */
+    private int size;
+    /** mapped chunks of kmer indexes, or NULL if the predictor is in memory */
+    private MappedByteBuffer[] kmerChunks;
+    /** mapped chunks of frame ordinals, parallel to the kmer chunks */
+    private MappedByteBuffer[] frameChunks;
+    /** number of base pairs in each kmer */
+    private int kmerSize;
+    /** kmer type code from the binary file, or -1 if it is unknown */
+    private int kmerType;
+    /** Bloom filter for rejecting missing kmers, or NULL if there is none */
+    private KmerBloomFilter filter;
 
-    private HashMap<DnaKmer, Frame> kmerMap;
+    /** initial capacity of the arrays while loading */
+    private static final int INITIAL_CAPACITY = 1024;
+    /** number of bytes per kmer in the sorted arrays */
+    private static final int ENTRY_BYTES = 8 + 1;
+    /** size in bytes of the binary file header */
+    private static final int HEADER_SIZE = 16;
+    /** mask for the kmer type in the binary file header */
+    private static final int TYPE_MASK = 0xFFFF;
+    /** log base 2 of the number of kmers in a mapped chunk */
+    private static final int CHUNK_BITS = 27;
+    /** mask for computing the position in a chunk */
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+    /** size in bytes of the buffer used for loading and saving */
+    private static final int BUFFER_SIZE = 1 << 22;
+    /** frame ordinal used for a position with no call */
+    public static final byte NO_FRAME = (byte) Frame.XX.ordinal();
+    /** plus-strand frames, in the order they occur at successive positions */
+    private static final Frame[] PLUS_CYCLE = new Frame[] { Frame.P0, Frame.P1, Frame.P2 };
+    /** minus-strand frames, in the order they occur at successive positions */
+    private static final Frame[] MINUS_CYCLE = new Frame[] { Frame.M2, Frame.M1, Frame.M0 };
+    /** voting class for non-coding calls */
+    private static final int NONCODING_CLASS = 6;
+    /** voting class for positions with no call */
+    private static final int NO_CLASS = 7;
+    /** for each frame ordinal, the voting class at position 0 */
+    private static final int[] CLASS_BASE = new int[Frame.nFrames + 1];
+    /** for each frame ordinal, 1 if the class advances with the position, 0 if it does not */
+    private static final int[] CLASS_STEP = new int[Frame.nFrames + 1];
+    static {
+        Arrays.fill(CLASS_BASE, NO_CLASS);
+        CLASS_BASE[Frame.F0.ordinal()] = NONCODING_CLASS;
+        for (int phase = 0; phase < 3; phase++) {
+            CLASS_BASE[PLUS_CYCLE[phase].ordinal()] = phase;
+            CLASS_STEP[PLUS_CYCLE[phase].ordinal()] = 1;
+            CLASS_BASE[MINUS_CYCLE[phase].ordinal()] = 3 + phase;
+            CLASS_STEP[MINUS_CYCLE[phase].ordinal()] = 1;
+        }
+    }
 
     /**
      * Load a frame predictor from a file.  This file is "kmers.tbl" output by GenomeDirFrameCounter.
+     * The kmers are assumed to be of the current global kmer size.
      *
      * @param fileName	name of the file containing the input table
      * @throws FileNotFoundException
      */
     public FramePredictor(String fileName) throws FileNotFoundException {
-        // Create the kmer map.
-        this.kmerMap = new HashMap<DnaKmer, Frame>();
+        // Create the kmer arrays.
+        this.kmers = new long[INITIAL_CAPACITY];
+        this.frames = new byte[INITIAL_CAPACITY];
+        this.size = 0;
+        this.kmerSize = DnaKmer.getSize();
+        this.kmerType = -1;
         // Open the input file as a scanner.
         File inFile = new File(fileName);
         Scanner fileReader = new Scanner(inFile);
         // Throw away the header line.
         fileReader.nextLine();
         // Loop through the data lines.
+        boolean sorted = true;
         while (fileReader.hasNext()) {
             // Read the kmer and the target frame.
-            DnaKmer kmer = new DnaKmer(fileReader.next());
+            long kIdx = DnaKmer.fromString(fileReader.next(), 1, this.kmerSize);
             Frame bestFrame = Frame.frameOf(fileReader.next());
-            this.kmerMap.put(kmer, bestFrame);
+            if (kIdx >= 0) {
+                if (this.size >= this.kmers.length) {
+                    this.kmers = Arrays.copyOf(this.kmers, this.size * 2);
+                    this.frames = Arrays.copyOf(this.frames, this.size * 2);
+                }
+                if (this.size > 0 && this.kmers[this.size - 1] >= kIdx) {
+                    sorted = false;
+                }
+                this.kmers[this.size] = kIdx;
+                this.frames[this.size] = (byte) bestFrame.ordinal();
+                this.size++;
+            }
             // Skip the statistical data for now.  When we are more sophisticated, we will
             // use them to compute weights.
             fileReader.nextLine();
         }
         fileReader.close();
+        // The table is normally in kmer order already, but we can't be sure.
+        if (! sorted) {
+            this.sortKmers();
+        }
+        this.kmers = Arrays.copyOf(this.kmers, this.size);
+        this.frames = Arrays.copyOf(this.frames, this.size);
+        this.chooseTable();
+    }
+
+    /**
+     * Load a frame predictor from a binary file.  The kmer size is taken from the file header.
+     *
+     * @param binFile	binary predictor file, as written by the save method
+     * @param mapped	if TRUE, the file is memory-mapped instead of being read into memory
+     *
+     * @throws IOException
+     */
+    public FramePredictor(File binFile, boolean mapped) throws IOException {
+        try (FileInputStream inStream = new FileInputStream(binFile)) {
+            FileChannel channel = inStream.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header);
+            this.kmerSize = header.getInt(0);
+            if (this.kmerSize <= 0 || this.kmerSize > DnaKmer.MAX_SIZE) {
+                throw new IOException("Invalid kmer size " + this.kmerSize + " in predictor file " + binFile + ".");
+            }
+            this.kmerType = header.getInt(4) & TYPE_MASK;
+            long count = header.getLong(8);
+            if (count > Integer.MAX_VALUE - 8) {
+                throw new IOException("Too many kmers in predictor file " + binFile + ".");
+            }
+            this.size = (int) count;
+            if (mapped) {
+                int nChunks = (this.size + CHUNK_MASK) >> CHUNK_BITS;
+                this.kmerChunks = new MappedByteBuffer[nChunks];
+                this.frameChunks = new MappedByteBuffer[nChunks];
+                long frameStart = HEADER_SIZE + count * 8;
+                for (int i = 0; i < nChunks; i++) {
+                    long first = ((long) i) << CHUNK_BITS;
+                    long n = Math.min(count - first, 1L << CHUNK_BITS);
+                    this.kmerChunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + first * 8, n * 8);
+                    this.frameChunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, frameStart + first, n);
+                }
+            } else {
+                this.kmers = new long[this.size];
+                this.frames = new byte[this.size];
+                ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+                for (int i = 0; i < this.size; ) {
+                    int n = Math.min(this.size - i, BUFFER_SIZE / 8);
+                    buffer.clear();
+                    buffer.limit(n * 8);
+                    readFully(channel, buffer);
+                    buffer.flip();
+                    buffer.asLongBuffer().get(this.kmers, i, n);
+                    i += n;
+                }
+                for (int i = 0; i < this.size; ) {
+                    int n = Math.min(this.size - i, BUFFER_SIZE);
+                    buffer.clear();
+                    buffer.limit(n);
+                    readFully(channel, buffer);
+                    buffer.flip();
+                    buffer.get(this.frames, i, n);
+                    i += n;
+                }
+                this.chooseTable();
+            }
+        }
+    }
+
+    /**
+     * Fill a buffer from a channel.
+     *
+     * @param in		input channel
+     * @param buffer	buffer to fill
+     *
+     * @throws IOException
+     */
+    private static void readFully(FileChannel in, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer) < 0) {
+                throw new EOFException("Premature end of file reading kmer predictor.");
+            }
+        }
+    }
+
+    /**
+     * Write a binary predictor file.
+     *
+     * @param outFile	output file
+     * @param kmerType	kmer type code (as used by the kmer frame counter)
+     * @param kmerSize	number of base pairs in each kmer
+     * @param kmers		array of kmer indexes, in sorted order
+     * @param frames	array of frame ordinals, parallel to the kmer indexes
+     * @param n			number of kmers in the arrays
+     *
+     * @throws IOException
+     */
+    public static void save(File outFile, int kmerType, int kmerSize, long[] kmers, byte[] frames, int n)
+            throws IOException {
+        try (FileOutputStream outStream = new FileOutputStream(outFile)) {
+            FileChannel channel = outStream.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            buffer.putInt(kmerSize);
+            buffer.putInt(kmerType);
+            buffer.putLong(n);
+            for (int i = 0; i < n; i++) {
+                if (buffer.remaining() < 8) {
+                    writeFully(channel, buffer);
+                }
+                buffer.putLong(kmers[i]);
+            }
+            for (int i = 0; i < n; i++) {
+                if (! buffer.hasRemaining()) {
+                    writeFully(channel, buffer);
+                }
+                buffer.put(frames[i]);
+            }
+            writeFully(channel, buffer);
+        }
+    }
+
+    /**
+     * Write the contents of a buffer to a channel and clear the buffer.
+     *
+     * @param out		output channel
+     * @param buffer	buffer to write
+     *
+     * @throws IOException
+     */
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Convert the sorted arrays to a direct table if the table would be smaller.
+     */
+    private void chooseTable() {
+        long space = 1L << (2 * this.kmerSize);
+        if (this.kmerSize <= DnaKmer.MAX_INT_SIZE && space / 2 <= (long) this.size * ENTRY_BYTES) {
+            this.buildTable((int) space);
+        }
+    }
+
+    /**
+     * Sort the kmer arrays by kmer index.  If a kmer occurs more than once, the last occurrence
+     * is kept.
+     */
+    private void sortKmers() {
+        // A merge sort is stable, so the duplicates stay in file order.
+        long[] kTemp = new long[this.size];
+        byte[] fTemp = new byte[this.size];
+        for (int width = 1; width < this.size; width *= 2) {
+            for (int lo = 0; lo < this.size; lo += 2 * width) {
+                int mid = Math.min(lo + width, this.size);
+                int hi = Math.min(lo + 2 * width, this.size);
+                int i = lo;
+                int j = mid;
+                for (int k = lo; k < hi; k++) {
+                    if (j >= hi || (i < mid && this.kmers[i] <= this.kmers[j])) {
+                        kTemp[k] = this.kmers[i];
+                        fTemp[k] = this.frames[i];
+                        i++;
+                    } else {
+                        kTemp[k] = this.kmers[j];
+                        fTemp[k] = this.frames[j];
+                        j++;
+                    }
+                }
+            }
+            System.arraycopy(kTemp, 0, this.kmers, 0, this.size);
+            System.arraycopy(fTemp, 0, this.frames, 0, this.size);
+        }
+        // Remove the duplicates.
+        int n = 0;
+        for (int i = 0; i < this.size; i++) {
+            if (n > 0 && this.kmers[n - 1] == this.kmers[i]) {
+                n--;
+            }
+            this.kmers[n] = this.kmers[i];
+            this.frames[n] = this.frames[i];
+            n++;
+        }
+        this.size = n;
+    }
+
+    /**
+     * Convert the sorted arrays to a direct table.  Each byte of the table holds the codes for two
+     * kmers, the even one in the low half.  A code of 0 means no prediction; otherwise, the code is
+     * the frame ordinal plus one.
+     *
+     * @param space		number of possible kmers
+     */
+    private void buildTable(int space) {
+        this.table = new byte[(space + 1) / 2];
+        for (int i = 0; i < this.size; i++) {
+            int kIdx = (int) this.kmers[i];
+            this.table[kIdx >> 1] |= (this.frames[i] + 1) << ((kIdx & 1) << 2);
+        }
+        this.kmers = null;
+        this.frames = null;
+    }
+
+    /**
+     * Build a Bloom filter in front of the sorted kmer search, so that missing kmers are rejected
+     * quickly.  A predictor using a direct table is already as fast as the filter, so it is left
+     * alone.  This must be called before the predictor is shared between threads.
+     */
+    public void enableFilter() {
+        if (this.table == null && this.filter == null) {
+            KmerBloomFilter newFilter = new KmerBloomFilter(this.size);
+            for (int i = 0; i < this.size; i++) {
+                newFilter.add(this.kmerAt(i));
+            }
+            this.filter = newFilter;
+        }
+    }
+
+    /**
+     * @return TRUE if this predictor has a Bloom filter
+     */
+    public boolean hasFilter() {
+        return (this.filter != null);
+    }
+
+    /**
+     * @return the kmer index at the specified position in the sorted kmers
+     *
+     * @param i		position of the desired kmer
+     */
+    private long kmerAt(int i) {
+        long retVal;
+        if (this.kmerChunks != null) {
+            retVal = this.kmerChunks[i >> CHUNK_BITS].getLong((i & CHUNK_MASK) << 3);
+        } else {
+            retVal = this.kmers[i];
+        }
+        return retVal;
     }
 
     /**
@@ -56,7 +399,7 @@ public class FramePredictor {
      * @param kmer kmer whose prediction is desired
      */
     public Frame frameOf(DnaKmer kmer) {
-        return this.kmerMap.getOrDefault(kmer, Frame.XX);
+        return this.frameOf(kmer.longIdx());
     }
 
     /**
@@ -65,9 +408,280 @@ public class FramePredictor {
      * @param kmer string form of kmer whose prediction is desired
      */
     public Frame frameOf(String kmerString) {
-        DnaKmer kmer = new DnaKmer(kmerString);
-        return this.frameOf(kmer);
+        return this.frameOf(DnaKmer.fromString(kmerString, 1, this.kmerSize));
+    }
+
+    /**
+     * @return the frame predicted by the kmer with the specified index, or Frame.XX if there is
+     * 		   no prediction; this method never allocates memory
+     *
+     * @param kIdx	index of the kmer whose prediction is desired (negative indexes are invalid kmers)
+     */
+    public Frame frameOf(int kIdx) {
+        return this.frameOf((long) kIdx);
+    }
+
+    /**
+     * @return the frame predicted by the kmer with the specified index, or Frame.XX if there is
+     * 		   no prediction; this method never allocates memory
+     *
+     * @param kIdx	index of the kmer whose prediction is desired (negative indexes are invalid kmers)
+     */
+    public Frame frameOf(long kIdx) {
+        Frame retVal = Frame.XX;
+        int slot = this.slotOf(kIdx);
+        if (slot >= 0) {
+            retVal = this.slotFrame(slot);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the slot number of the kmer with the specified index, or -1 if the kmer has no
+     * 		   prediction; slot numbers are dense in [0, slotCount()), so they can be used to index
+     * 		   primitive arrays of per-kmer data
+     *
+     * @param kIdx	index of the kmer of interest (negative indexes are invalid kmers)
+     */
+    public int slotOf(long kIdx) {
+        int retVal = -1;
+        if (kIdx >= 0) {
+            if (this.table != null) {
+                if (kIdx < ((long) this.table.length << 1)
+                        && ((this.table[(int) (kIdx >> 1)] >> ((kIdx & 1) << 2)) & 0xF) != 0) {
+                    retVal = (int) kIdx;
+                }
+            } else if (this.filter != null && ! this.filter.mightContain(kIdx)) {
+                // The filter says the kmer is definitely missing.
+                retVal = -1;
+            } else if (this.kmerChunks != null) {
+                retVal = this.mappedSearch(kIdx);
+            } else {
+                retVal = Arrays.binarySearch(this.kmers, kIdx);
+            }
+            if (retVal < 0) {
+                retVal = -1;
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the frame predicted by the kmer in the specified slot
+     *
+     * @param slot	slot number returned by slotOf
+     */
+    public Frame slotFrame(int slot) {
+        int ordinal;
+        if (this.table != null) {
+            ordinal = ((this.table[slot >> 1] >> ((slot & 1) << 2)) & 0xF) - 1;
+        } else if (this.frameChunks != null) {
+            ordinal = this.frameChunks[slot >> CHUNK_BITS].get(slot & CHUNK_MASK);
+        } else {
+            ordinal = this.frames[slot];
+        }
+        return Frame.idxFrame(ordinal);
+    }
+
+    /**
+     * @return the number of slots; this is the number of kmers with predictions, except when the
+     * 		   direct table is used, in which case every possible kmer has a slot
+     */
+    public int slotCount() {
+        int retVal = this.size;
+        if (this.table != null) {
+            retVal = this.table.length << 1;
+        }
+        return retVal;
+    }
+
+    /**
+     * Compute the frame calls for every position of a contig sequence.  Each position gets the
+     * ordinal of the frame predicted by the kmer starting there, or NO_FRAME if there is no
+     * prediction.  A single kmer traversal object is used for the whole sequence, and nothing is
+     * allocated per position.  The kmers are of the predictor's own size, not the global kmer size,
+     * so this method is thread-safe.
+     *
+     * @param kmerType	type of kmer used by this predictor
+     * @param sequence	contig sequence to process
+     * @param calls		array to receive the frame ordinal for each position (0-based); it must be at
+     * 					least as long as the sequence
+     *
+     * @return the number of positions with a frame call
+     */
+    public int callFrames(Class<? extends SequenceDnaKmers> kmerType, CharSequence sequence, byte[] calls) {
+        return this.callFrames(kmerType, sequence, calls, 1);
+    }
+
+    /**
+     * Compute the frame calls for every position of a contig sequence, optionally smoothed by a
+     * sliding-window majority vote.  This method is thread-safe.
+     *
+     * In the vote, each call in the window is shifted to the frame it implies for the position at
+     * the center of the window (coding frames advance by one phase per position).  The center gets
+     * the frame with a strict majority of the calls in the window, or NO_FRAME if no frame has a
+     * majority.  A window size of 1 means no voting.
+     *
+     * @param kmerType	type of kmer used by this predictor
+     * @param sequence	contig sequence to process
+     * @param calls		array to receive the frame ordinal for each position (0-based); it must be at
+     * 					least as long as the sequence
+     * @param window	size of the voting window (odd sizes are centered; an even size is extended by one)
+     *
+     * @return the number of positions with a frame call
+     */
+    public int callFrames(Class<? extends SequenceDnaKmers> kmerType, CharSequence sequence, byte[] calls, int window) {
+        int n = sequence.length();
+        if (calls.length < n) {
+            throw new IllegalArgumentException("Frame call array too small for a sequence of length " + n + ".");
+        }
+        Arrays.fill(calls, 0, n, NO_FRAME);
+        int retVal = 0;
+        SequenceDnaKmers kmers = SequenceDnaKmers.build(kmerType, sequence, this.kmerSize);
+        while (kmers.nextKmer()) {
+            Frame frm = this.frameOf(kmers.longIdx());
+            if (frm != Frame.XX) {
+                calls[kmers.getPos() - 1] = (byte) frm.ordinal();
+                retVal++;
+            }
+        }
+        if (window > 1) {
+            retVal = vote(calls, n, window / 2);
+        }
+        return retVal;
     }
 
+    /**
+     * Smooth the frame calls with a sliding-window majority vote.  The calls are converted to
+     * voting classes that do not depend on the position, so that consistent calls from one coding
+     * region all land in the same class.
+     *
+     * @param calls		array of frame ordinals for each position, updated in place
+     * @param n			number of positions
+     * @param half		number of positions on each side of the window center
+     *
+     * @return the number of positions with a frame call after voting
+     */
+    private static int vote(byte[] calls, int n, int half) {
+        int[] votes = new int[NO_CLASS + 1];
+        // The ring holds the original classes of the positions in the window, since the calls
+        // array is overwritten as we go.
+        int ringSize = 2 * half + 1;
+        byte[] ring = new byte[ringSize];
+        int retVal = 0;
+        for (int q = 0; q < half && q < n; q++) {
+            int cls = voteClass(calls[q], q);
+            ring[q % ringSize] = (byte) cls;
+            votes[cls]++;
+        }
+        for (int p = 0; p < n; p++) {
+            // Remove the position leaving the window and add the one entering it.
+            int qOut = p - half - 1;
+            if (qOut >= 0) {
+                votes[ring[qOut % ringSize]]--;
+            }
+            int qIn = p + half;
+            if (qIn < n) {
+                int cls = voteClass(calls[qIn], qIn);
+                ring[qIn % ringSize] = (byte) cls;
+                votes[cls]++;
+            }
+            // Find the majority class, if any.
+            int total = 0;
+            int best = NO_CLASS;
+            for (int cls = 0; cls < NO_CLASS; cls++) {
+                total += votes[cls];
+                if (best == NO_CLASS || votes[cls] > votes[best]) {
+                    best = cls;
+                }
+            }
+            byte call = NO_FRAME;
+            if (votes[best] * 2 > total) {
+                call = classFrame(best, p);
+                retVal++;
+            }
+            calls[p] = call;
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the voting class for a frame call at a position
+     *
+     * @param ordinal	frame ordinal of the call
+     * @param pos		position of the call
+     */
+    private static int voteClass(byte ordinal, int pos) {
+        int retVal = CLASS_BASE[ordinal];
+        if (CLASS_STEP[ordinal] != 0) {
+            // Shift the phase back to where it would be at position 0.
+            int strandBase = retVal - retVal % 3;
+            retVal = strandBase + (retVal - strandBase + 3 - pos % 3) % 3;
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the frame ordinal for a voting class at a position
+     *
+     * @param cls	voting class
+     * @param pos	position of interest
+     */
+    private static byte classFrame(int cls, int pos) {
+        Frame retVal;
+        if (cls == NONCODING_CLASS) {
+            retVal = Frame.F0;
+        } else if (cls < 3) {
+            retVal = PLUS_CYCLE[(cls + pos) % 3];
+        } else {
+            retVal = MINUS_CYCLE[(cls - 3 + pos) % 3];
+        }
+        return (byte) retVal.ordinal();
+    }
+
+    /**
+     * @return the position of a kmer in the mapped kmer chunks, or -1 if it is not found
+     *
+     * @param kIdx	index of the kmer to find
+     */
+    private int mappedSearch(long kIdx) {
+        int lo = 0;
+        int hi = this.size - 1;
+        int retVal = -1;
+        while (retVal < 0 && lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long midKmer = this.kmerAt(mid);
+            if (midKmer < kIdx) {
+                lo = mid + 1;
+            } else if (midKmer > kIdx) {
+                hi = mid - 1;
+            } else {
+                retVal = mid;
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the number of kmers with predictions
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return the number of base pairs in each kmer
+     */
+    public int getKmerSize() {
+        return this.kmerSize;
+    }
+
+    /**
+     * @return the kmer type code from the binary predictor file, or -1 if the predictor was loaded
+     * 		   from a text file
+     */
+    public int getKmerType() {
+        return this.kmerType;
+    }
 
 }
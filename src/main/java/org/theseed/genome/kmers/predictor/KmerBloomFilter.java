@@ -0,0 +1,105 @@
+/**
+ *
+ */
+package org.theseed.genome.kmers.predictor;
+
+/**
+ * This class is a blocked Bloom filter for kmer indexes.  It answers the question "might this
+ * kmer be in the set?" with no false negatives and a small rate of false positives.  The filter is
+ * divided into 64-byte blocks, one cache line each, and all the bits for a kmer are in a single
+ * block, so a lookup costs at most one cache miss.  This makes it a cheap way to reject the kmers
+ * that are not in a much larger structure.
+ *
+ * The filter is not thread-safe while it is being built, but once built it can be queried from any
+ * number of threads.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class KmerBloomFilter {
+
+    // FIELDS
+    /** filter bits, in blocks of BLOCK_WORDS words */
+    private long[] bits;
+    /** mask for converting a hash value to a block number */
+    private int blockMask;
+
+    /** number of 64-bit words in a block */
+    private static final int BLOCK_WORDS = 8;
+    /** number of filter bits to allocate per kmer */
+    private static final int BITS_PER_KMER = 10;
+    /** number of bits set in the block for each kmer */
+    private static final int BITS_SET = 6;
+    /** multiplier for the second hash value, whose high-order bits select the bits in a block */
+    private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+    /**
+     * Create an empty filter sized for the specified number of kmers.
+     *
+     * @param capacity	expected number of kmers in the filter
+     */
+    public KmerBloomFilter(int capacity) {
+        long wanted = ((long) capacity * BITS_PER_KMER + 511) / 512;
+        int blocks = 1;
+        while (blocks < wanted && blocks < (1 << 26)) {
+            blocks <<= 1;
+        }
+        this.bits = new long[blocks * BLOCK_WORDS];
+        this.blockMask = blocks - 1;
+    }
+
+    /**
+     * @return a mixed hash value for a kmer index
+     *
+     * @param kIdx	kmer index to hash
+     */
+    private static long hash(long kIdx) {
+        long h = kIdx;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Add a kmer to the filter.
+     *
+     * @param kIdx	index of the kmer to add
+     */
+    public void add(long kIdx) {
+        long h = hash(kIdx);
+        int base = ((int) h & this.blockMask) * BLOCK_WORDS;
+        long h2 = h * GOLDEN;
+        for (int i = 0; i < BITS_SET; i++) {
+            int pos = (int) (h2 >>> (55 - i * 9)) & 511;
+            this.bits[base + (pos >>> 6)] |= 1L << pos;
+        }
+    }
+
+    /**
+     * @return FALSE if the kmer is definitely not in the filter, TRUE if it might be
+     *
+     * @param kIdx	index of the kmer to check
+     */
+    public boolean mightContain(long kIdx) {
+        long h = hash(kIdx);
+        int base = ((int) h & this.blockMask) * BLOCK_WORDS;
+        long h2 = h * GOLDEN;
+        boolean retVal = true;
+        for (int i = 0; retVal && i < BITS_SET; i++) {
+            int pos = (int) (h2 >>> (55 - i * 9)) & 511;
+            retVal = (this.bits[base + (pos >>> 6)] & (1L << pos)) != 0;
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the size of the filter in bytes
+     */
+    public long byteSize() {
+        return (long) this.bits.length * 8;
+    }
+
+}
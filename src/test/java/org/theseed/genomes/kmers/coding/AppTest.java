@@ -5,19 +5,44 @@ import junit.framework.TestCase;
 import junit.framework.TestSuite;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
 import org.theseed.genome.Contig;
 import org.theseed.genome.Genome;
+import org.theseed.genome.kmers.BufferSequence;
+import org.theseed.genome.kmers.ByteSequence;
 import org.theseed.genome.kmers.DnaKmer;
+import org.theseed.genome.kmers.KmerSpec;
 import org.theseed.genome.kmers.SequenceDnaKmers;
 import org.theseed.genome.kmers.SequenceDnaNormalKmers;
 import org.theseed.genome.kmers.SequenceDnaSpacedKmers;
+import org.theseed.genome.kmers.coding.AtomicCountArray;
+import org.theseed.genome.kmers.coding.CodingContigs;
+import org.theseed.genome.kmers.coding.ContigCache;
+import org.theseed.genome.kmers.coding.ContigFrameTrack;
+import org.theseed.genome.kmers.coding.GenomeContigs;
 import org.theseed.genome.kmers.coding.GenomeDirFrameCounter;
+import org.theseed.genome.kmers.coding.GenomePrefetcher;
+import org.theseed.genome.kmers.coding.GtoContigs;
+import org.theseed.genome.kmers.coding.KmerCountBuffer;
 import org.theseed.genome.kmers.coding.KmerFrameCounter;
+import org.theseed.genome.kmers.coding.KmerStatsHandler;
+import org.theseed.genome.kmers.coding.MappedCountArray;
+import org.theseed.genome.kmers.coding.SweepTally;
 import org.theseed.genome.kmers.predictor.FramePredictor;
+import org.theseed.locations.DiscreteLocationList;
 import org.theseed.locations.Frame;
 import org.theseed.locations.Location;
 import org.theseed.locations.Region;
@@ -80,6 +105,11 @@ public class AppTest
             String kmer = iterator.toString();
             assertEquals("Iterated kmer did not recurse at position " + pos + ".",
                     mySequence.substring(pos-1, pos+9), kmer);
+            String rKmer = iterator.toRString();
+            iterator.reverse();
+            assertEquals("Rolling reverse complement wrong at position " + pos + ".", rKmer, iterator.toString());
+            iterator.reverse();
+            assertEquals("Second reverse did not restore kmer at position " + pos + ".", kmer, iterator.toString());
         }
         assertEquals("Iterator ended too soon.", 52, iterator.getPos());
         iterator = new SequenceDnaSpacedKmers(mySequence);
@@ -167,6 +197,185 @@ public class AppTest
 
     }
 
+    /**
+     * Test the precomputed frame track against the location list.
+     */
+    public void testFrameTrack() {
+        Map<String, DiscreteLocationList> gtoMap = DiscreteLocationList.createGenomeCodingMap(this.myGto);
+        for (Contig contig : this.myGto.getContigs()) {
+            DiscreteLocationList contigLocs = gtoMap.get(contig.getId());
+            int len = contig.getSequence().length();
+            ContigFrameTrack frames = new ContigFrameTrack(contigLocs, len, 15);
+            for (int pos = 1; pos + 14 <= len; pos++) {
+                assertEquals("Frame track error at " + contig.getId() + ":" + pos + ".",
+                        contigLocs.computeRegionFrame(pos, pos + 14), frames.frameAt(pos));
+            }
+            // The tracks for several sizes at once must match the tracks for one size at a time.
+            int[] sizes = new int[] { 9, 15, 16, 18, 31 };
+            ContigFrameTrack[] tracks = ContigFrameTrack.forSizes(contigLocs, len, sizes);
+            for (int i = 0; i < sizes.length; i++) {
+                ContigFrameTrack single = new ContigFrameTrack(contigLocs, len, sizes[i]);
+                assertEquals("Wrong multi-size region size.", sizes[i], tracks[i].getRegionSize());
+                assertEquals("Wrong multi-size run count for " + sizes[i] + ".", single.size(), tracks[i].size());
+                for (int pos = 1; pos <= len; pos++) {
+                    assertEquals("Multi-size track error for " + sizes[i] + " at " + contig.getId() + ":" + pos + ".",
+                            single.frameAt(pos), tracks[i].frameAt(pos));
+                }
+            }
+        }
+    }
+
+    /**
+     * Test kmer traversal over byte-array and byte-buffer sequences.
+     */
+    public void testSequenceSources() {
+        byte[] bases = ("xx" + mySequence + "yy").getBytes(StandardCharsets.US_ASCII);
+        ByteSequence byteSeq = new ByteSequence(bases, 2, mySequence.length());
+        assertEquals("Wrong byte sequence length.", mySequence.length(), byteSeq.length());
+        assertEquals("Wrong byte sequence string.", mySequence, byteSeq.toString());
+        assertEquals("Wrong byte subsequence.", mySequence.substring(5, 20), byteSeq.subSequence(5, 20).toString());
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bases.length);
+        buffer.put(bases);
+        buffer.position(2);
+        buffer.limit(2 + mySequence.length());
+        BufferSequence bufferSeq = new BufferSequence(buffer);
+        assertEquals("Wrong buffer sequence length.", mySequence.length(), bufferSeq.length());
+        assertEquals("Wrong buffer sequence string.", mySequence, bufferSeq.toString());
+        assertEquals("Wrong buffer subsequence.", mySequence.substring(5, 20), bufferSeq.subSequence(5, 20).toString());
+        assertEquals("Buffer position changed.", 2, buffer.position());
+        for (int k : new int[] { 9, 15 }) {
+            DnaKmer.setSize(k);
+            for (Class<? extends SequenceDnaKmers> kmerType
+                    : Arrays.asList(SequenceDnaNormalKmers.class, SequenceDnaSpacedKmers.class)) {
+                SequenceDnaKmers expected = SequenceDnaKmers.build(kmerType, mySequence);
+                SequenceDnaKmers fromBytes = SequenceDnaKmers.build(kmerType, byteSeq);
+                SequenceDnaKmers fromBuffer = SequenceDnaKmers.build(kmerType, bufferSeq);
+                while (expected.nextKmer()) {
+                    int pos = expected.getPos();
+                    assertTrue("Byte traversal ended early.", fromBytes.nextKmer());
+                    assertTrue("Buffer traversal ended early.", fromBuffer.nextKmer());
+                    assertEquals("Wrong byte position.", pos, fromBytes.getPos());
+                    assertEquals("Wrong buffer position.", pos, fromBuffer.getPos());
+                    assertEquals("Wrong byte kmer at " + pos + ".", expected.longIdx(), fromBytes.longIdx());
+                    assertEquals("Wrong buffer kmer at " + pos + ".", expected.longIdx(), fromBuffer.longIdx());
+                    assertEquals("Wrong string at " + pos + ".", expected.stringAtPos(k), fromBytes.stringAtPos(k));
+                    expected.reverse();
+                    fromBytes.reverse();
+                    fromBuffer.reverse();
+                    assertEquals("Wrong byte reverse at " + pos + ".", expected.longIdx(), fromBytes.longIdx());
+                    assertEquals("Wrong buffer reverse at " + pos + ".", expected.longIdx(), fromBuffer.longIdx());
+                }
+                assertFalse("Byte traversal ended late.", fromBytes.nextKmer());
+                assertFalse("Buffer traversal ended late.", fromBuffer.nextKmer());
+            }
+        }
+        DnaKmer.setSize(15);
+    }
+
+    /**
+     * Test kmer specifications and traversal with an explicit kmer size.
+     */
+    public void testKmerSpec() {
+        KmerSpec spec = KmerSpec.parse("12p");
+        assertEquals("Wrong spaced type.", SequenceDnaSpacedKmers.class, spec.getKmerType());
+        assertEquals("Wrong spaced size.", 12, spec.getKmerSize());
+        assertEquals("Wrong spaced region size.", 18, spec.regionSize());
+        assertEquals("Wrong spaced string.", "12p", spec.toString());
+        spec = KmerSpec.parse("9");
+        assertEquals("Wrong normal type.", SequenceDnaNormalKmers.class, spec.getKmerType());
+        assertEquals("Wrong normal region size.", 9, spec.regionSize());
+        assertEquals("Specs not equal.", new KmerSpec(SequenceDnaNormalKmers.class, 9), spec);
+        assertFalse("Different specs equal.", spec.equals(KmerSpec.parse("12")));
+        for (String bad : new String[] { "10", "9p", "x", "33" }) {
+            try {
+                KmerSpec.parse(bad);
+                fail("Invalid spec " + bad + " accepted.");
+            } catch (IllegalArgumentException e) {
+                // Here the spec was rejected.
+            }
+        }
+        // Traversal with an explicit size must not depend on the global size.
+        for (String specString : new String[] { "9", "12", "10p" }) {
+            spec = KmerSpec.parse(specString);
+            DnaKmer.setSize(spec.getKmerSize());
+            SequenceDnaKmers expected = SequenceDnaKmers.build(spec.getKmerType(), mySequence);
+            DnaKmer.setSize(15);
+            SequenceDnaKmers found = spec.traverse(mySequence);
+            assertEquals("Wrong traversal size.", spec.getKmerSize(), found.getKmerSize());
+            assertEquals("Wrong traversal region size.", spec.regionSize(), found.regionSize());
+            while (expected.nextKmer()) {
+                assertTrue("Traversal ended early for " + spec + ".", found.nextKmer());
+                assertEquals("Wrong position for " + spec + ".", expected.getPos(), found.getPos());
+                assertEquals("Wrong kmer for " + spec + ".", expected.longIdx(), found.longIdx());
+            }
+            assertFalse("Traversal ended late for " + spec + ".", found.nextKmer());
+        }
+        DnaKmer.setSize(9);
+        long fwd = DnaKmer.fromString("aaccggtta", 1);
+        long rev = DnaKmer.fromString("taaccggtt", 1);
+        DnaKmer.setSize(15);
+        assertEquals("Wrong sized reverse.", rev, DnaKmer.reverseIdx(fwd, 9));
+        // An integer index is refused for kmers too long to fit in one.
+        DnaKmer.setSize(18);
+        DnaKmer longKmer = new DnaKmer("ttttttttttttttttta");
+        assertTrue("Long kmer index does not need a long.", longKmer.longIdx() > Integer.MAX_VALUE);
+        try {
+            longKmer.idx();
+            fail("Integer index returned for a long kmer.");
+        } catch (IllegalStateException e) {
+            // This is expected.
+        }
+        DnaKmer.setSize(15);
+        SequenceDnaKmers longKmers = KmerSpec.parse("18").traverse(mySequence);
+        assertTrue("No long kmers found.", longKmers.nextKmer());
+        try {
+            longKmers.idx();
+            fail("Integer index returned for a long traversal kmer.");
+        } catch (IllegalStateException e) {
+            // This is expected.
+        }
+        SequenceDnaKmers shortKmers = KmerSpec.parse("9").traverse(mySequence);
+        DnaKmer.setSize(18);
+        assertTrue("No short kmers found.", shortKmers.nextKmer());
+        assertEquals("Wrong short traversal index.", shortKmers.longIdx(), shortKmers.idx());
+        DnaKmer.setSize(15);
+    }
+
+    /**
+     * Test the contig cache against the genome it came from.
+     *
+     * @throws IOException
+     */
+    public void testContigCache() throws IOException {
+        GenomeContigs contigs = new GenomeContigs(this.myGto);
+        File cacheFile = new File("src/test", "cacheTest.ctg");
+        ContigCache.save(cacheFile, contigs);
+        ContigCache cache = new ContigCache(cacheFile);
+        assertEquals("Wrong genome name.", this.myGto.toString(), cache.toString());
+        assertEquals("Wrong number of contigs.", contigs.size(), cache.size());
+        for (int i = 0; i < contigs.size(); i++) {
+            String contigId = contigs.getContigId(i);
+            assertEquals("Wrong contig ID.", contigId, cache.getContigId(i));
+            CharSequence sequence = contigs.getSequence(i);
+            CharSequence cached = cache.getSequence(i);
+            assertEquals("Wrong length for " + contigId + ".", sequence.length(), cached.length());
+            for (int pos = 0; pos < sequence.length(); pos++) {
+                assertEquals("Wrong base at " + contigId + ":" + (pos + 1) + ".",
+                        DnaKmer.baseCode(sequence.charAt(pos)), DnaKmer.baseCode(cached.charAt(pos)));
+            }
+            // The cached frame tracks must work for every region size.
+            for (int regionSize : new int[] { 9, 12, 15, 16, 20 }) {
+                ContigFrameTrack frames = contigs.getFrameTrack(i, regionSize);
+                ContigFrameTrack cachedFrames = cache.getFrameTrack(i, regionSize);
+                assertEquals("Wrong number of runs.", frames.size(), cachedFrames.size());
+                for (int pos = 1; pos <= sequence.length(); pos++) {
+                    assertEquals("Wrong cached frame at " + contigId + ":" + pos + " for size " + regionSize + ".",
+                            frames.frameAt(pos), cachedFrames.frameAt(pos));
+                }
+            }
+        }
+    }
+
     /**
      * The test for the insanely big kmer counter.
      *
@@ -270,6 +479,454 @@ public class AppTest
         assertEquals("Error in saveMyM1.", saveMyM1, bigCounter.getCount(myKmer, Frame.M1));
         assertEquals("Error in saveTargetP2.", saveTargetP2, bigCounter.getCount(targetKmer, Frame.P2));
         assertEquals("Error in saveTargetF0.", saveTargetF0, bigCounter.getCount(targetKmer, Frame.F0));
+        // Map the saved one.
+        bigCounter = new KmerFrameCounter(new File("src/test/kmerTest.ser"), true);
+        assertEquals("Error in mapped saveMyP3.", saveMyP3, bigCounter.getCount(myKmer, Frame.P0));
+        assertEquals("Error in mapped saveMyM1.", saveMyM1, bigCounter.getCount(myKmer, Frame.M1));
+        assertEquals("Error in mapped saveTargetP2.", saveTargetP2, bigCounter.getCount(targetKmer, Frame.P2));
+        assertEquals("Error in mapped saveTargetF0.", saveTargetF0, bigCounter.getCount(targetKmer, Frame.F0));
+    }
+
+    /**
+     * Test bulk and mapped transfer of count arrays, including an odd-sized array.
+     *
+     * @throws IOException
+     */
+    public void testCountArrayIO() throws IOException {
+        AtomicCountArray counts = new AtomicCountArray(1001);
+        for (int i = 0; i < 1001; i++) {
+            counts.set(i, i * 61);
+        }
+        File testFile = new File("src/test", "countTest.ser");
+        try (FileOutputStream outStream = new FileOutputStream(testFile)) {
+            // Put a few bytes in front to test the offset.
+            outStream.write(new byte[] { 1, 2, 3 });
+            counts.writeTo(outStream.getChannel());
+        }
+        assertEquals("Wrong file length.", 2005, testFile.length());
+        AtomicCountArray loaded = new AtomicCountArray(1001);
+        try (FileInputStream inStream = new FileInputStream(testFile)) {
+            inStream.getChannel().position(3);
+            loaded.readFrom(inStream.getChannel());
+            MappedCountArray mapped = new MappedCountArray(inStream.getChannel(), 3, 1001);
+            for (int i = 0; i < 1001; i++) {
+                assertEquals("Loaded count error at " + i + ".", (i * 61) & 0xFFFF, loaded.get(i));
+                assertEquals("Mapped count error at " + i + ".", (i * 61) & 0xFFFF, mapped.get(i));
+            }
+        }
+    }
+
+    /**
+     * Test counting from multiple threads into one counter.
+     *
+     * @throws InterruptedException
+     */
+    public void testThreadedCounting() throws InterruptedException {
+        DnaKmer.setSize(9);
+        final KmerFrameCounter serialCounter = new KmerFrameCounter(SequenceDnaNormalKmers.class);
+        serialCounter.processGenome(this.myGto);
+        // Count the genome once in each of several threads.
+        final KmerFrameCounter threadCounter = new KmerFrameCounter(SequenceDnaNormalKmers.class);
+        Thread[] workers = new Thread[4];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread() {
+                @Override
+                public void run() {
+                    threadCounter.processGenome(myGto, new KmerCountBuffer(threadCounter, 1000));
+                }
+            };
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        // Every count should be multiplied by the number of threads.
+        for (DnaKmer kmer : serialCounter) {
+            for (Frame frm : Frame.all) {
+                assertEquals("Threaded count error for " + kmer + " in " + frm + ".",
+                        serialCounter.getCount(kmer, frm) * workers.length, threadCounter.getCount(kmer, frm));
+            }
+        }
+    }
+
+    /**
+     * Test that batched counting gives the same answers as direct counting.
+     */
+    public void testBatchedCounting() {
+        DnaKmer.setSize(9);
+        for (boolean canonical : new boolean[] { false, true }) {
+            for (KmerFrameCounter.Backend backend : KmerFrameCounter.Backend.values()) {
+                KmerFrameCounter directCounter = new KmerFrameCounter(SequenceDnaNormalKmers.class, canonical, backend);
+                directCounter.processGenome(this.myGto);
+                KmerFrameCounter batchCounter = new KmerFrameCounter(SequenceDnaNormalKmers.class, canonical, backend);
+                KmerCountBuffer buffer = new KmerCountBuffer(batchCounter, 5000, true);
+                assertEquals("Wrong batching for " + backend + ".", backend != KmerFrameCounter.Backend.SPARSE,
+                        buffer.isBatched());
+                batchCounter.processGenome(this.myGto, buffer);
+                assertEquals("Buffer not flushed.", 0, buffer.size());
+                DnaKmer kmer = new DnaKmer(0);
+                for (int i = 0; i < DnaKmer.maxKmers(); i++) {
+                    kmer.setIdx(i);
+                    for (Frame frm : Frame.all) {
+                        assertEquals("Batched count error for " + kmer + " in " + frm + " using " + backend + ".",
+                                directCounter.getCount(kmer, frm), batchCounter.getCount(kmer, frm));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Test that counting several kmer specifications in one pass gives the same answers as counting
+     * each one separately.
+     */
+    public void testMultiCounting() {
+        String[] specs = new String[] { "9", "12", "10p" };
+        KmerFrameCounter.Backend[] backends = new KmerFrameCounter.Backend[] { KmerFrameCounter.Backend.DENSE,
+                KmerFrameCounter.Backend.SPARSE, KmerFrameCounter.Backend.INTERLEAVED };
+        GenomeContigs contigs = new GenomeContigs(this.myGto);
+        int n = specs.length;
+        KmerFrameCounter[] singleCounters = new KmerFrameCounter[n];
+        KmerFrameCounter[] directCounters = new KmerFrameCounter[n];
+        KmerFrameCounter[] batchCounters = new KmerFrameCounter[n];
+        KmerCountBuffer[] buffers = new KmerCountBuffer[n];
+        for (int k = 0; k < n; k++) {
+            KmerSpec spec = KmerSpec.parse(specs[k]);
+            singleCounters[k] = new KmerFrameCounter(spec, false, backends[k]);
+            singleCounters[k].processContigs(contigs, null);
+            directCounters[k] = new KmerFrameCounter(spec, false, backends[k]);
+            batchCounters[k] = new KmerFrameCounter(spec, false, backends[k]);
+            buffers[k] = new KmerCountBuffer(batchCounters[k], 5000);
+        }
+        KmerFrameCounter.processContigs(contigs, directCounters, null);
+        KmerFrameCounter.processContigs(contigs, batchCounters, buffers);
+        for (int k = 0; k < n; k++) {
+            assertEquals("Buffer not flushed for " + specs[k] + ".", 0, buffers[k].size());
+            Iterator<DnaKmer> directIter = directCounters[k].iterator();
+            Iterator<DnaKmer> batchIter = batchCounters[k].iterator();
+            for (DnaKmer kmer : singleCounters[k]) {
+                assertTrue("Multi-counter iterator ended early for " + specs[k] + ".", directIter.hasNext());
+                assertEquals("Multi-counter iterator out of sync for " + specs[k] + ".", kmer, directIter.next());
+                assertTrue("Batched iterator ended early for " + specs[k] + ".", batchIter.hasNext());
+                assertEquals("Batched iterator out of sync for " + specs[k] + ".", kmer, batchIter.next());
+                for (Frame frm : Frame.all) {
+                    String label = specs[k] + " kmer " + kmer.longIdx() + " in " + frm;
+                    int expected = singleCounters[k].getCount(kmer, frm);
+                    assertEquals("Multi-counter count error for " + label + ".", expected,
+                            directCounters[k].getCount(kmer, frm));
+                    assertEquals("Batched multi-counter count error for " + label + ".", expected,
+                            batchCounters[k].getCount(kmer, frm));
+                }
+            }
+            assertFalse("Multi-counter iterator ran long for " + specs[k] + ".", directIter.hasNext());
+            assertFalse("Batched iterator ran long for " + specs[k] + ".", batchIter.hasNext());
+        }
+    }
+
+    /**
+     * Test lock-free counting.
+     *
+     * @throws InterruptedException
+     */
+    public void testAtomicCounts() throws InterruptedException {
+        final AtomicCountArray counts = new AtomicCountArray(1001);
+        Thread[] workers = new Thread[4];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int n = 0; n < 1000; n++) {
+                        for (int j = 0; j < 1001; j++) {
+                            counts.increment(j);
+                        }
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        for (int j = 0; j < 1001; j++) {
+            assertEquals("Lost increment at " + j + ".", 4000, counts.get(j));
+        }
+        // Verify that a saturated count keeps counting without disturbing its neighbors.
+        counts.set(5, 65535);
+        counts.increment(5);
+        assertEquals("Count did not overflow.", 65536, counts.get(5));
+        assertEquals("Overflow disturbed lower neighbor.", 4000, counts.get(4));
+        assertEquals("Overflow disturbed upper neighbor.", 4000, counts.get(6));
+        counts.clear();
+        assertEquals("Clear failed.", 0, counts.get(1000));
+        assertEquals("Clear failed for overflow.", 0, counts.get(5));
+    }
+
+    /**
+     * Test saturation and overflow of narrow count cells.
+     *
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    public void testOverflowCounts() throws InterruptedException, IOException {
+        final AtomicCountArray counts = new AtomicCountArray(1001, 8);
+        Thread[] workers = new Thread[4];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int n = 0; n < 1000; n++) {
+                        for (int j = 0; j < 1001; j += 7) {
+                            counts.increment(j);
+                        }
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        for (int j = 0; j < 1001; j++) {
+            int expected = (j % 7 == 0 ? 4000 : 0);
+            assertEquals("Lost narrow increment at " + j + ".", expected, counts.get(j));
+        }
+        counts.set(1, 254);
+        counts.increment(1);
+        assertEquals("Saturation point miscounted.", 255, counts.get(1));
+        counts.increment(1);
+        assertEquals("First overflow miscounted.", 256, counts.get(1));
+        assertEquals("Overflow disturbed neighbor.", 4000, counts.get(0));
+        counts.set(1, 17);
+        assertEquals("Set did not remove overflow.", 17, counts.get(1));
+        // Save and reload the cells and the overflow.
+        File testFile = new File("src/test", "countTest.ser");
+        try (FileOutputStream outStream = new FileOutputStream(testFile)) {
+            counts.writeTo(outStream.getChannel());
+            counts.getOverflow().writeTo(outStream.getChannel());
+        }
+        AtomicCountArray loaded = new AtomicCountArray(1001, 8);
+        try (FileInputStream inStream = new FileInputStream(testFile)) {
+            loaded.readFrom(inStream.getChannel());
+            loaded.getOverflow().readFrom(inStream.getChannel());
+            MappedCountArray mapped = new MappedCountArray(inStream.getChannel(), 0, 1001, 8);
+            inStream.getChannel().position(1001);
+            mapped.getOverflow().readFrom(inStream.getChannel());
+            for (int j = 0; j < 1001; j++) {
+                assertEquals("Loaded narrow count error at " + j + ".", counts.get(j), loaded.get(j));
+                assertEquals("Mapped narrow count error at " + j + ".", counts.get(j), mapped.get(j));
+            }
+        }
+        // Push a kmer past the 16-bit limit in each type of store.
+        DnaKmer.setSize(9);
+        DnaKmer myKmer = new DnaKmer("actgtccat");
+        for (KmerFrameCounter.Backend backend : KmerFrameCounter.Backend.values()) {
+            KmerFrameCounter bigCounter = new KmerFrameCounter(SequenceDnaNormalKmers.class, false, backend);
+            for (int i = 0; i < 70000; i++) {
+                bigCounter.increment(myKmer, Frame.P1);
+            }
+            for (int i = 0; i < 300; i++) {
+                bigCounter.increment(myKmer, Frame.M2);
+            }
+            assertEquals("Overflow count error in " + backend + ".", 70000, bigCounter.getCount(myKmer, Frame.P1));
+            assertEquals("Best frame error in " + backend + ".", Frame.P1, bigCounter.getBest(myKmer));
+            assertEquals("Fraction error in " + backend + ".", 70000.0 / 70300.0,
+                    bigCounter.getFrac(myKmer, Frame.P1), 0.0001);
+            bigCounter.save("src/test/kmerTest.ser");
+            KmerFrameCounter loadedCounter = new KmerFrameCounter("src/test/kmerTest.ser");
+            assertEquals("Loaded overflow error in " + backend + ".", 70000, loadedCounter.getCount(myKmer, Frame.P1));
+            assertEquals("Loaded saturated error in " + backend + ".", 300, loadedCounter.getCount(myKmer, Frame.M2));
+            assertFalse("Loaded counter read-only in " + backend + ".", loadedCounter.isReadOnly());
+            if (backend != KmerFrameCounter.Backend.SPARSE) {
+                loadedCounter = new KmerFrameCounter(new File("src/test/kmerTest.ser"), true);
+                assertEquals("Mapped overflow error in " + backend + ".", 70000,
+                        loadedCounter.getCount(myKmer, Frame.P1));
+                assertEquals("Mapped saturated error in " + backend + ".", 300,
+                        loadedCounter.getCount(myKmer, Frame.M2));
+                assertTrue("Mapped counter not read-only in " + backend + ".", loadedCounter.isReadOnly());
+                try {
+                    loadedCounter.increment(myKmer, Frame.P1);
+                    fail("Mapped counter accepted an increment in " + backend + ".");
+                } catch (IllegalStateException e) {
+                    // This is expected.
+                }
+            }
+        }
+    }
+
+    /**
+     * Test that canonical storage gives the same answers as normal storage.
+     */
+    public void testCanonicalCounting() {
+        for (int kSize = 8; kSize <= 9; kSize++) {
+            DnaKmer.setSize(kSize);
+            KmerFrameCounter normalCounter = new KmerFrameCounter(SequenceDnaNormalKmers.class);
+            normalCounter.processGenome(this.myGto);
+            KmerFrameCounter canonCounter = new KmerFrameCounter(SequenceDnaNormalKmers.class, true);
+            canonCounter.processGenome(this.myGto);
+            DnaKmer kmer = new DnaKmer(0);
+            for (int i = 0; i < DnaKmer.maxKmers(); i++) {
+                kmer.setIdx(i);
+                for (Frame frm : Frame.all) {
+                    assertEquals("Canonical count error for " + kmer + " in " + frm + ".",
+                            normalCounter.getCount(kmer, frm), canonCounter.getCount(kmer, frm));
+                }
+                assertEquals("Canonical best-frame error for " + kmer + ".", normalCounter.getBest(kmer),
+                        canonCounter.getBest(kmer));
+            }
+        }
+    }
+
+    /**
+     * Test that the sparse store gives the same answers as the dense store.
+     */
+    public void testSparseCounting() {
+        DnaKmer.setSize(9);
+        KmerFrameCounter denseCounter = new KmerFrameCounter(SequenceDnaNormalKmers.class);
+        denseCounter.processGenome(this.myGto);
+        KmerFrameCounter sparseCounter = new KmerFrameCounter(SequenceDnaNormalKmers.class, false,
+                KmerFrameCounter.Backend.SPARSE);
+        sparseCounter.processGenome(this.myGto);
+        sparseCounter.save("src/test/kmerTest.ser");
+        KmerFrameCounter loadedCounter = new KmerFrameCounter("src/test/kmerTest.ser");
+        Iterator<DnaKmer> sparseIter = sparseCounter.iterator();
+        for (DnaKmer kmer : denseCounter) {
+            assertTrue("Sparse iterator ended early.", sparseIter.hasNext());
+            assertEquals("Sparse iterator out of sync.", kmer, sparseIter.next());
+            for (Frame frm : Frame.all) {
+                assertEquals("Sparse count error for " + kmer + " in " + frm + ".",
+                        denseCounter.getCount(kmer, frm), sparseCounter.getCount(kmer, frm));
+                assertEquals("Loaded sparse count error for " + kmer + " in " + frm + ".",
+                        denseCounter.getCount(kmer, frm), loadedCounter.getCount(kmer, frm));
+            }
+        }
+        assertFalse("Sparse iterator ran long.", sparseIter.hasNext());
+    }
+
+    /**
+     * Test that the interleaved store gives the same answers as the dense store.
+     */
+    public void testInterleavedCounting() {
+        DnaKmer.setSize(9);
+        KmerFrameCounter denseCounter = new KmerFrameCounter(SequenceDnaNormalKmers.class);
+        denseCounter.processGenome(this.myGto);
+        KmerFrameCounter mixedCounter = new KmerFrameCounter(SequenceDnaNormalKmers.class, false,
+                KmerFrameCounter.Backend.INTERLEAVED);
+        mixedCounter.processGenome(this.myGto);
+        mixedCounter.save("src/test/kmerTest.ser");
+        KmerFrameCounter loadedCounter = new KmerFrameCounter("src/test/kmerTest.ser");
+        KmerFrameCounter mappedCounter = new KmerFrameCounter(new File("src/test/kmerTest.ser"), true);
+        Iterator<DnaKmer> mixedIter = mixedCounter.iterator();
+        for (DnaKmer kmer : denseCounter) {
+            assertTrue("Interleaved iterator ended early.", mixedIter.hasNext());
+            assertEquals("Interleaved iterator out of sync.", kmer, mixedIter.next());
+            for (Frame frm : Frame.all) {
+                int expected = denseCounter.getCount(kmer, frm);
+                assertEquals("Interleaved count error for " + kmer + " in " + frm + ".",
+                        expected, mixedCounter.getCount(kmer, frm));
+                assertEquals("Loaded interleaved count error for " + kmer + " in " + frm + ".",
+                        expected, loadedCounter.getCount(kmer, frm));
+                assertEquals("Mapped interleaved count error for " + kmer + " in " + frm + ".",
+                        expected, mappedCounter.getCount(kmer, frm));
+            }
+        }
+        assertFalse("Interleaved iterator ran long.", mixedIter.hasNext());
+    }
+
+    /**
+     * Test the one-pass kmer statistics scan.
+     */
+    public void testKmerScan() {
+        DnaKmer.setSize(9);
+        KmerFrameCounter bigCounter = new KmerFrameCounter(SequenceDnaNormalKmers.class);
+        DnaKmer kmer1 = new DnaKmer("aaaaaaaac");
+        DnaKmer kmer2 = new DnaKmer("tttttttgt");
+        for (int i = 0; i < 30; i++) {
+            bigCounter.increment(kmer1, Frame.P2);
+        }
+        for (int i = 0; i < 10; i++) {
+            bigCounter.increment(kmer1, Frame.M0);
+            bigCounter.increment(kmer2, Frame.F0);
+            bigCounter.increment(kmer2, Frame.P1);
+        }
+        final List<String> results = new ArrayList<String>();
+        KmerStatsHandler handler = new KmerStatsHandler() {
+            @Override
+            public void handle(DnaKmer kmer, Frame bestFrame, int bestCount, int total, double frac) {
+                results.add(String.format("%s\t%s\t%d\t%d\t%4.2f", kmer, bestFrame, bestCount, total, frac));
+            }
+        };
+        bigCounter.scan(handler);
+        assertEquals("Wrong number of kmers scanned.", 2, results.size());
+        assertEquals("Wrong stats for first kmer.", "aaaaaaaac\t+3\t30\t40\t0.75", results.get(0));
+        // The second kmer is a tie, which goes to the first frame in ordinal order.
+        assertEquals("Wrong stats for second kmer.", "tttttttgt\t0\t10\t20\t0.50", results.get(1));
+        // Verify the scan against the old method on a real genome.
+        bigCounter.clear();
+        results.clear();
+        bigCounter.processGenome(this.myGto);
+        bigCounter.scan(handler);
+        Iterator<String> scanIter = results.iterator();
+        for (DnaKmer kmer : bigCounter) {
+            Frame bestFrame = bigCounter.getBest(kmer);
+            int total = 0;
+            for (Frame frm : Frame.all) {
+                total += bigCounter.getCount(kmer, frm);
+            }
+            String expected = String.format("%s\t%s\t%d\t%d\t%4.2f", kmer, bestFrame,
+                    bigCounter.getCount(kmer, bestFrame), total, bigCounter.getFrac(kmer, bestFrame));
+            assertTrue("Scan ended early.", scanIter.hasNext());
+            assertEquals("Scan mismatch.", expected, scanIter.next());
+        }
+        assertFalse("Scan ran long.", scanIter.hasNext());
+        // Verify that scanning the ranges in order is the same as scanning everything.
+        List<String> fullScan = new ArrayList<String>(results);
+        results.clear();
+        long prevEnd = 0;
+        for (KmerFrameCounter.ScanRange range : bigCounter.scanRanges(10)) {
+            assertTrue("Scan range out of order.", range.getStart() >= prevEnd);
+            prevEnd = range.getEnd();
+            range.scan(handler);
+        }
+        assertEquals("Range scan mismatch.", fullScan, results);
+    }
+
+    /**
+     * Test kmers too long for an integer index.
+     */
+    public void testLongKmers() {
+        DnaKmer.setSize(21);
+        DnaKmer kmer1 = new DnaKmer(mySequence, 5);
+        assertTrue("Long kmer index should be positive.", kmer1.longIdx() >= 0);
+        assertEquals("Long kmer index did not recurse.", mySequence.substring(4, 25), kmer1.toString());
+        assertEquals("Long kmer revcmp is incorrect.", kmer1.toRString(), new DnaKmer(kmer1.rIdx()).toString());
+        assertEquals("Long RString did not produce proper kmer.", kmer1.rIdx(), DnaKmer.fromRString(kmer1.toString()));
+        SequenceDnaKmers iterator = new SequenceDnaNormalKmers(mySequence);
+        while (iterator.nextKmer()) {
+            int pos = iterator.getPos();
+            assertEquals("Long iterated kmer did not recurse at position " + pos + ".",
+                    mySequence.substring(pos-1, pos+20), iterator.toString());
+            String rKmer = iterator.toRString();
+            iterator.reverse();
+            assertEquals("Long rolling reverse complement wrong at position " + pos + ".", rKmer, iterator.toString());
+        }
+        // Count a genome both ways and make sure the counts survive a save.
+        KmerFrameCounter normalCounter = new KmerFrameCounter(SequenceDnaNormalKmers.class);
+        normalCounter.processGenome(this.myGto);
+        KmerFrameCounter canonCounter = new KmerFrameCounter(SequenceDnaNormalKmers.class, true);
+        canonCounter.processGenome(this.myGto);
+        normalCounter.save("src/test/kmerTest.ser");
+        KmerFrameCounter loadedCounter = new KmerFrameCounter("src/test/kmerTest.ser");
+        int found = 0;
+        for (DnaKmer kmer : normalCounter) {
+            found++;
+            for (Frame frm : Frame.all) {
+                assertEquals("Long canonical count error for " + kmer + " in " + frm + ".",
+                        normalCounter.getCount(kmer, frm), canonCounter.getCount(kmer, frm));
+                assertEquals("Long loaded count error for " + kmer + " in " + frm + ".",
+                        normalCounter.getCount(kmer, frm), loadedCounter.getCount(kmer, frm));
+            }
+        }
+        assertTrue("No long kmers found.", found > 0);
     }
 
     /**
@@ -306,6 +963,66 @@ public class AppTest
         assertTrue("gatgacttcc not found in P2.", bigCounter.getCount(kmer, Frame.P2) > 0);
     }
 
+    /**
+     * Compare the rolling spaced-kmer encoder with the original letter-extraction method on random
+     * sequences containing ambiguity characters.
+     */
+    public void testSpacedEncoder() {
+        Random rand = new Random(1042);
+        for (int size = 2; size <= DnaKmer.MAX_SIZE; size += 2) {
+            DnaKmer.setSize(size);
+            for (int trial = 0; trial < 20; trial++) {
+                // Build a sequence with an occasional ambiguity character.
+                StringBuilder buffer = new StringBuilder();
+                int len = rand.nextInt(200);
+                for (int i = 0; i < len; i++) {
+                    buffer.append(rand.nextInt(40) == 0 ? 'n' : "acgt".charAt(rand.nextInt(4)));
+                }
+                String sequence = buffer.toString();
+                SequenceDnaSpacedKmers iterator = new SequenceDnaSpacedKmers(sequence);
+                // Scan the sequence the original way, one position at a time.
+                int pos = 1;
+                long expected = DnaKmer.fromString(spacedRegion(sequence, pos, size, 0), 1);
+                while (expected != DnaKmer.EOF) {
+                    if (expected != DnaKmer.NULL) {
+                        assertTrue("Encoder ended early at " + pos + " for size " + size + ".", iterator.nextKmer());
+                        assertEquals("Wrong position for size " + size + ".", pos, iterator.getPos());
+                        assertEquals("Wrong kmer at " + pos + " for size " + size + ".", expected, iterator.longIdx());
+                        iterator.reverse();
+                        assertEquals("Wrong reverse at " + pos + " for size " + size + ".",
+                                DnaKmer.fromRString(spacedRegion(sequence, pos, size, 1)), iterator.longIdx());
+                    }
+                    pos++;
+                    expected = DnaKmer.fromString(spacedRegion(sequence, pos, size, 0), 1);
+                }
+                assertFalse("Encoder ran too long for size " + size + ".", iterator.nextKmer());
+                assertEquals("Wrong end position for size " + size + ".", pos, iterator.getPos());
+            }
+        }
+        DnaKmer.setSize(15);
+    }
+
+    /**
+     * @return the letters in the region spanned by a spaced kmer, extracted the original way
+     *
+     * @param sequence	sequence containing the kmer
+     * @param pos		position (1-based) of the kmer
+     * @param size		kmer size
+     * @param offset	if 0, then the first two of each triple are returned; if 1, then the last two
+     * 					of each triple are returned
+     */
+    private static String spacedRegion(String sequence, int pos, int size, int offset) {
+        StringBuilder retVal = new StringBuilder(size);
+        int n = pos + size / 2 * 3 - 1;
+        int limit = sequence.length() - 3;
+        if (n > limit) n = limit;
+        for (int i = pos - 1; i < n; i += 3) {
+            retVal.append(sequence.charAt(i + offset));
+            retVal.append(sequence.charAt(i + offset + 1));
+        }
+        return retVal.toString();
+    }
+
     /**
      * Test command line
      */
@@ -318,12 +1035,121 @@ public class AppTest
         assertEquals("Incorrect kmer size (8p).", 8, runObject.getKmerSize());
         assertEquals("Incorrect input directory.", 4, runObject.getInputGenomesCount());
         assertEquals("Incorrect test directory.", "Bins_HMP", runObject.getTestDir());
+        assertEquals("Incorrect default thread count.", 1, runObject.getThreads());
         String args2[] = { "-K", "12", "TestKmers2" };
         runObject.parseCommand(args2);
         assertEquals("Incorrect kmer type (12).", SequenceDnaNormalKmers.class, runObject.getKmerType());
         assertEquals("Incorrect kmer size (12).", 12, runObject.getKmerSize());
         assertEquals("Incorrect use of input directory.", 0, runObject.getInputGenomesCount());
         assertEquals("Incorrect use of test directory.", "", runObject.getTestDir());
+        assertFalse("Canonical storage on by default.", runObject.isCanonical());
+        String args3[] = { "--threads", "4", "-K", "15", "--canonical", "TestKmers2" };
+        runObject.parseCommand(args3);
+        assertEquals("Incorrect thread count.", 4, runObject.getThreads());
+        assertTrue("Canonical storage not set.", runObject.isCanonical());
+        assertEquals("Incorrect default backend.", KmerFrameCounter.Backend.DENSE, runObject.getBackend());
+        assertFalse("Batched counting on by default.", runObject.isBatch());
+        String args4[] = { "--backend", "SPARSE", "--batch", "TestKmers2" };
+        runObject.parseCommand(args4);
+        assertEquals("Incorrect backend.", KmerFrameCounter.Backend.SPARSE, runObject.getBackend());
+        assertTrue("Batched counting not set.", runObject.isBatch());
+        assertEquals("Incorrect default kmer size.", 15, runObject.getKmerSize());
+        assertEquals("Incorrect default kmer type.", SequenceDnaNormalKmers.class, runObject.getKmerType());
+        assertEquals("Incorrect default loader count.", 0, runObject.getLoaders());
+        String args5[] = { "--loaders", "3", "TestKmers2" };
+        runObject.parseCommand(args5);
+        assertEquals("Incorrect loader count.", 3, runObject.getLoaders());
+        assertNull("Cache directory set by default.", runObject.getCacheDir());
+        assertFalse("Streaming on by default.", runObject.isStream());
+        String args6[] = { "--stream", "--cache", "src/test", "TestKmers2" };
+        runObject.parseCommand(args6);
+        assertTrue("Streaming not set.", runObject.isStream());
+        assertEquals("Incorrect cache directory.", new File("src/test"), runObject.getCacheDir());
+        String args6a[] = { "--loaders", "2", "--cache", "src/test", "TestKmers2" };
+        assertFalse("Loaders accepted with a cache.", runObject.parseCommand(args6a));
+        String args7[] = { "-K", "9", "-K", "12p", "-K", "9", "TestKmers2" };
+        runObject.parseCommand(args7);
+        List<KmerSpec> specs = runObject.getKmerSpecs();
+        assertEquals("Incorrect number of kmer specs.", 2, specs.size());
+        assertEquals("Incorrect first kmer spec.", KmerSpec.parse("9"), specs.get(0));
+        assertEquals("Incorrect second kmer spec.", KmerSpec.parse("12p"), specs.get(1));
+        assertEquals("Global kmer size not set.", 9, DnaKmer.getSize());
+        assertFalse("Sweep on by default.", runObject.isSweep());
+        assertEquals("Incorrect default grid size.", 1, runObject.getGridSize());
+        assertEquals("Incorrect default grid threshold.", 0.80, runObject.getGridThreshold(0), 0.0001);
+        String args8[] = { "--sweep", "0.8/0.9:10/30,0.95:50,0.8:10", "TestKmers2" };
+        runObject.parseCommand(args8);
+        assertTrue("Sweep not set.", runObject.isSweep());
+        assertEquals("Incorrect grid size.", 5, runObject.getGridSize());
+        assertEquals("Incorrect grid threshold.", 0.8, runObject.getGridThreshold(1), 0.0001);
+        assertEquals("Incorrect grid min hits.", 30, runObject.getGridMinHits(1));
+        assertEquals("Incorrect grid threshold.", 0.9, runObject.getGridThreshold(2), 0.0001);
+        assertEquals("Incorrect grid min hits.", 10, runObject.getGridMinHits(2));
+        assertEquals("Incorrect grid threshold.", 0.95, runObject.getGridThreshold(4), 0.0001);
+        assertEquals("Incorrect grid min hits.", 50, runObject.getGridMinHits(4));
+        DnaKmer.setSize(15);
+    }
+
+    /**
+     * Test the background genome loader.
+     *
+     * @throws IOException
+     */
+    public void testPrefetcher() throws IOException {
+        for (boolean streaming : new boolean[] { false, true }) {
+            try (GenomePrefetcher prefetcher = new GenomePrefetcher(new File("src/test"), 2, 1, streaming)) {
+                assertEquals("Wrong number of genomes found.", 1, prefetcher.size());
+                Iterator<CodingContigs> iter = prefetcher.iterator();
+                assertTrue("No genome loaded.", iter.hasNext());
+                CodingContigs genome = iter.next();
+                assertTrue("Wrong genome loaded.", genome.toString().startsWith("572478.14"));
+                assertEquals("Wrong number of contigs.", 149, genome.size());
+                assertFalse("Too many genomes loaded.", iter.hasNext());
+                assertEquals("Queue not empty.", 0, prefetcher.getQueueDepth());
+                assertTrue("Invalid wait time.", prefetcher.getConsumerWaitSeconds() >= 0.0);
+            }
+        }
+    }
+
+    /**
+     * Test the streaming GTO reader against a fully-loaded genome.
+     *
+     * @throws IOException
+     */
+    public void testGtoContigs() throws IOException {
+        GenomeContigs contigs = new GenomeContigs(this.myGto);
+        GtoContigs streamed = new GtoContigs(new File("src/test/gto_test", "1313.7001.gto"));
+        assertEquals("Wrong genome ID.", this.myGto.getId(), streamed.getId());
+        assertEquals("Wrong genome name.", this.myGto.toString(), streamed.toString());
+        assertEquals("Wrong number of contigs.", contigs.size(), streamed.size());
+        for (int i = 0; i < contigs.size(); i++) {
+            String contigId = contigs.getContigId(i);
+            assertEquals("Wrong contig ID.", contigId, streamed.getContigId(i));
+            CharSequence sequence = contigs.getSequence(i);
+            assertEquals("Wrong sequence for " + contigId + ".", sequence.toString(), streamed.getSequence(i).toString());
+            ContigFrameTrack frames = contigs.getFrameTrack(i, 15);
+            ContigFrameTrack streamedFrames = streamed.getFrameTrack(i, 15);
+            for (int pos = 1; pos <= sequence.length(); pos++) {
+                assertEquals("Wrong streamed frame at " + contigId + ":" + pos + ".",
+                        frames.frameAt(pos), streamedFrames.frameAt(pos));
+            }
+        }
+        // A truncated location segment must be reported with its feature.
+        File badFile = File.createTempFile("bad", ".gto");
+        try {
+            try (PrintWriter badWriter = new PrintWriter(badFile)) {
+                badWriter.println("{ \"id\": \"1.1\", \"contigs\": [ { \"id\": \"c1\", \"dna\": \"acgtacgt\" } ], "
+                        + "\"features\": [ { \"id\": \"fig|1.1.peg.1\", \"type\": \"CDS\", "
+                        + "\"location\": [ [ \"c1\", 1, \"+\" ] ] } ] }");
+            }
+            new GtoContigs(badFile);
+            fail("Malformed location accepted.");
+        } catch (IOException e) {
+            assertTrue("Feature ID not in error message.", e.getMessage().contains("fig|1.1.peg.1"));
+            assertTrue("Segment not in error message.", e.getMessage().contains("[c1, 1, +]"));
+        } finally {
+            badFile.delete();
+        }
     }
 
     /**
@@ -331,13 +1157,171 @@ public class AppTest
      * @throws IOException
      */
     public void testFramePredictor() throws IOException {
+        DnaKmer.setSize(15);
         FramePredictor testPred = new FramePredictor("src/test/kmers.tbl");
         DnaKmer testKmer = new DnaKmer("gacgggcgtgtagac");
         assertEquals("Test kmer in wrong frame.", Frame.M0, testPred.frameOf(testKmer));
         assertEquals("Non-coding kmer in wrong frame.", Frame.F0, testPred.frameOf("gacgggcggtgtgtg"));
         assertEquals("Plus-one kmer in wrong frame.", Frame.P1, testPred.frameOf("gacgggctacacatt"));
+        assertEquals("Index lookup failed.", Frame.M0, testPred.frameOf(testKmer.idx()));
+        assertEquals("Missing kmer found.", Frame.XX, testPred.frameOf("aaaaaaaaaaaaaaa"));
+        assertEquals("Invalid kmer found.", Frame.XX, testPred.frameOf(DnaKmer.NULL));
+        assertEquals("Wrong predictor size.", 9, testPred.size());
+        // Test an unsorted table small enough for the direct lookup, with a duplicate kmer.
+        DnaKmer.setSize(3);
+        File tblFile = new File("src/test", "kmers3.tbl");
+        try (PrintWriter tblWriter = new PrintWriter(tblFile)) {
+            tblWriter.println("kmer\tframe\tfraction\thits");
+            tblWriter.println("ttt\t-1\t0.90\t40");
+            tblWriter.println("aca\t+2\t0.90\t40");
+            tblWriter.println("aaa\t0\t0.90\t40");
+            tblWriter.println("gct\t+3\t0.90\t40");
+            tblWriter.println("aca\t-3\t0.90\t40");
+        }
+        testPred = new FramePredictor(tblFile.getPath());
+        assertEquals("Wrong small predictor size.", 4, testPred.size());
+        assertEquals("Wrong frame for ttt.", Frame.M0, testPred.frameOf("ttt"));
+        assertEquals("Wrong frame for aaa.", Frame.F0, testPred.frameOf("aaa"));
+        assertEquals("Wrong frame for gct.", Frame.P2, testPred.frameOf("gct"));
+        assertEquals("Duplicate kmer not replaced.", Frame.M2, testPred.frameOf("aca"));
+        assertEquals("Missing small kmer found.", Frame.XX, testPred.frameOf("ccc"));
+        // Test the binary predictor file, both loaded and mapped.
+        DnaKmer.setSize(15);
+        String[] binKmers = new String[] { "aacgggcgtgtagac", "gacgggcgtgtagac", "gacgggctacacatt", "tttttttttttttta" };
+        Frame[] binFrames = new Frame[] { Frame.P2, Frame.M0, Frame.P1, Frame.F0 };
+        long[] kIdxs = new long[binKmers.length];
+        byte[] ordinals = new byte[binKmers.length];
+        for (int i = 0; i < binKmers.length; i++) {
+            kIdxs[i] = DnaKmer.fromString(binKmers[i], 1);
+            ordinals[i] = (byte) binFrames[i].ordinal();
+        }
+        File binFile = new File("src/test", "kmers.pred");
+        FramePredictor.save(binFile, 0, 15, kIdxs, ordinals, kIdxs.length);
+        DnaKmer.setSize(9);
+        for (boolean mapped : new boolean[] { false, true }) {
+            testPred = new FramePredictor(binFile, mapped);
+            assertEquals("Wrong binary predictor kmer size.", 15, testPred.getKmerSize());
+            assertEquals("Binary predictor changed global kmer size.", 9, DnaKmer.getSize());
+            assertEquals("Wrong binary predictor size.", 4, testPred.size());
+            assertEquals("Wrong binary kmer type.", 0, testPred.getKmerType());
+            for (int i = 0; i < binKmers.length; i++) {
+                assertEquals("Wrong binary frame for " + binKmers[i] + " (mapped = " + mapped + ").",
+                        binFrames[i], testPred.frameOf(binKmers[i]));
+            }
+            assertEquals("Missing binary kmer found.", Frame.XX, testPred.frameOf("aaaaaaaaaaaaaaa"));
+            assertEquals("High binary kmer found.", Frame.XX, testPred.frameOf("ttttttttttttttt"));
+            // The Bloom filter must not change any answers.
+            testPred.enableFilter();
+            assertTrue("Filter not built.", testPred.hasFilter());
+            for (int i = 0; i < binKmers.length; i++) {
+                assertEquals("Wrong filtered frame for " + binKmers[i] + " (mapped = " + mapped + ").",
+                        binFrames[i], testPred.frameOf(binKmers[i]));
+            }
+            assertEquals("Missing filtered kmer found.", Frame.XX, testPred.frameOf("aaaaaaaaaaaaaaa"));
+        }
     }
 
-}
+    /**
+     * Test whole-contig frame calling.
+     *
+     * @throws IOException
+     */
+    public void testFrameCalling() throws IOException {
+        DnaKmer.setSize(9);
+        // Predict frames for the kmers at positions 1 through 5.  Position 4 is inconsistent with
+        // its neighbors.
+        Frame[] frames = new Frame[] { Frame.P0, Frame.P1, Frame.P2, Frame.M0, Frame.P1 };
+        File tblFile = new File("src/test", "kmers9.tbl");
+        try (PrintWriter tblWriter = new PrintWriter(tblFile)) {
+            tblWriter.println("kmer\tframe\tfraction\thits");
+            for (int i = 0; i < frames.length; i++) {
+                tblWriter.format("%s\t%s%n", mySequence.substring(i, i + 9), frames[i]);
+            }
+        }
+        FramePredictor testPred = new FramePredictor(tblFile.getPath());
+        byte[] calls = new byte[mySequence.length() + 10];
+        Arrays.fill(calls, (byte) 0);
+        int found = testPred.callFrames(SequenceDnaNormalKmers.class, mySequence, calls);
+        assertEquals("Wrong number of raw calls.", 5, found);
+        for (int i = 0; i < mySequence.length(); i++) {
+            Frame expected = (i < frames.length ? frames[i] : Frame.XX);
+            assertEquals("Wrong raw call at " + (i + 1) + ".", expected, Frame.idxFrame(calls[i]));
+        }
+        assertEquals("Array past sequence modified.", 0, calls[mySequence.length()]);
+        // The predictor uses its own kmer size, so a change to the global size does not matter.
+        DnaKmer.setSize(12);
+        found = testPred.callFrames(SequenceDnaNormalKmers.class, mySequence, calls);
+        assertEquals("Global kmer size changed the calls.", 5, found);
+        assertEquals("Global kmer size changed call at 4.", Frame.M0, Frame.idxFrame(calls[3]));
+        DnaKmer.setSize(9);
+        // Now vote in a window of 3.  Position 4 is outvoted, and position 5 is a tie.
+        found = testPred.callFrames(SequenceDnaNormalKmers.class, mySequence, calls, 3);
+        assertEquals("Wrong number of voted calls.", 5, found);
+        Frame[] voted = new Frame[] { Frame.P0, Frame.P1, Frame.P2, Frame.P0, Frame.XX, Frame.P2 };
+        for (int i = 0; i < mySequence.length(); i++) {
+            Frame expected = (i < voted.length ? voted[i] : Frame.XX);
+            assertEquals("Wrong voted call at " + (i + 1) + ".", expected, Frame.idxFrame(calls[i]));
+        }
+        // With only the inconsistent pair, the first two positions are ties, and the third position
+        // sees only the minus-strand call, shifted one position.
+        found = testPred.callFrames(SequenceDnaNormalKmers.class, mySequence.substring(2, 12), calls, 3);
+        assertEquals("Wrong number of tied calls.", 1, found);
+        assertEquals("Tie produced a call at 1.", Frame.XX, Frame.idxFrame(calls[0]));
+        assertEquals("Tie produced a call at 2.", Frame.XX, Frame.idxFrame(calls[1]));
+        assertEquals("Minus call not shifted.", Frame.M2, Frame.idxFrame(calls[2]));
+    }
 
+    /**
+     * Test the predictor slots and the tally for testing a grid of predictors at once.
+     *
+     * @throws IOException
+     */
+    public void testSweepTally() throws IOException {
+        DnaKmer.setSize(15);
+        FramePredictor testPred = new FramePredictor("src/test/kmers.tbl");
+        assertEquals("Wrong slot count.", 9, testPred.slotCount());
+        int slot1 = testPred.slotOf(DnaKmer.fromString("gacgggcgtgtagac", 1));
+        int slot2 = testPred.slotOf(DnaKmer.fromString("gacgggctacacatt", 1));
+        assertTrue("Missing slot.", slot1 >= 0 && slot2 >= 0);
+        assertEquals("Missing kmer has a slot.", -1, testPred.slotOf(DnaKmer.fromString("aaaaaaaaaaaaaaa", 1)));
+        assertEquals("Wrong slot frame.", Frame.M0, testPred.slotFrame(slot1));
+        assertEquals("Wrong slot frame.", Frame.P1, testPred.slotFrame(slot2));
+        // Slot 1 belongs to both points, slot 2 only to the second.
+        long[] masks = new long[testPred.slotCount()];
+        masks[slot1] = 3;
+        masks[slot2] = 2;
+        SweepTally tally1 = new SweepTally(masks, 2, testPred.slotCount());
+        SweepTally tally2 = new SweepTally(masks, 2, testPred.slotCount());
+        tally1.found(slot1, Frame.M0, Frame.M0);
+        tally1.found(slot2, Frame.P1, Frame.P1);
+        tally1.miss();
+        tally1.addGenome();
+        tally2.found(slot1, Frame.P0, Frame.M0);
+        tally2.found(slot2, Frame.XX, Frame.P1);
+        tally2.addGenome();
+        tally1.merge(tally2);
+        assertEquals("Wrong genome count.", 2, tally1.getGenomes());
+        assertEquals("Wrong good hits for point 0.", 1, tally1.getGoodHits(0));
+        assertEquals("Wrong bad hits for point 0.", 1, tally1.getBadHits(0));
+        assertEquals("Wrong misses for point 0.", 3, tally1.getMisses(0));
+        assertEquals("Wrong good hits for point 1.", 2, tally1.getGoodHits(1));
+        assertEquals("Wrong bad hits for point 1.", 1, tally1.getBadHits(1));
+        assertEquals("Wrong misses for point 1.", 1, tally1.getMisses(1));
+        int[] good = new int[Frame.nFrames];
+        int[] bad = new int[Frame.nFrames];
+        tally1.countKmers(0, testPred, good, bad);
+        assertEquals("Wrong bad count for M0.", 1, bad[Frame.M0.ordinal()]);
+        assertEquals("Wrong good count for P1.", 0, good[Frame.P1.ordinal()]);
+        // A NULL mask gives every slot to every point.
+        SweepTally tally3 = new SweepTally(null, 1, testPred.slotCount());
+        tally3.found(slot2, Frame.P1, Frame.P1);
+        assertEquals("Wrong good hits for full mask.", 1, tally3.getGoodHits(0));
+        try {
+            new SweepTally(null, SweepTally.MAX_POINTS + 1, testPred.slotCount());
+            fail("Oversized grid accepted.");
+        } catch (IllegalArgumentException e) {
+            // This is expected.
+        }
+    }
 
+}
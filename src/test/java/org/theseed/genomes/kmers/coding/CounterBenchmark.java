@@ -0,0 +1,155 @@
+package org.theseed.genomes.kmers.coding;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.theseed.genome.Genome;
+import org.theseed.genome.kmers.DnaKmer;
+import org.theseed.genome.kmers.SequenceDnaNormalKmers;
+import org.theseed.genome.kmers.coding.CodingContigs;
+import org.theseed.genome.kmers.coding.ContigCache;
+import org.theseed.genome.kmers.coding.GenomeContigs;
+import org.theseed.genome.kmers.coding.KmerCountBuffer;
+import org.theseed.genome.kmers.coding.KmerFrameCounter;
+import org.theseed.locations.Frame;
+
+/**
+ * Timing benchmarks for the kmer frame counter.  These are not unit tests; run the main
+ * method by hand and compare the throughput figures.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class CounterBenchmark {
+
+    /** number of increments per thread in each trial */
+    private static final int INCREMENTS = 20000000;
+    /** number of passes through the genome in each counting trial */
+    private static final int PASSES = 5;
+
+    /**
+     * Run the benchmarks.
+     *
+     * @param args	optional kmer size (default 12) and GTO or contig cache file for the counting
+     * 				benchmark (default src/test/bin4.gto)
+     *
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    public static void main(String[] args) throws InterruptedException, IOException {
+        int kSize = (args.length > 0 ? Integer.valueOf(args[0]) : 12);
+        DnaKmer.setSize(kSize);
+        KmerFrameCounter counter;
+        // Threads beyond the processor count only time-slice, so they say nothing about scaling.
+        int processors = Runtime.getRuntime().availableProcessors();
+        KmerFrameCounter.Backend[] backends = new KmerFrameCounter.Backend[]
+                { KmerFrameCounter.Backend.DENSE, KmerFrameCounter.Backend.INTERLEAVED };
+        for (KmerFrameCounter.Backend backend : backends) {
+            counter = new KmerFrameCounter(SequenceDnaNormalKmers.class, false, backend);
+            System.out.println("Contention benchmark, " + backend + " backend, kmer size " + kSize + ", "
+                    + processors + " processors.");
+            if (processors < 2)
+                System.out.println("Only one processor is available, so there is no thread scaling to measure.");
+            System.out.format("%8s %12s %12s %12s %12s%n", "threads", "spread Mops", "speedup", "hot Mops", "speedup");
+            double spreadBase = 0.0;
+            double hotBase = 0.0;
+            for (int threads = 1; threads <= processors; threads *= 2) {
+                double spread = contention(counter, threads, DnaKmer.maxKmers() - 1);
+                // The hot set is 256 kmers, so threads frequently hit the same words, and the
+                // cells saturate the way the common kmers do when thousands of genomes are counted.
+                double hot = contention(counter, threads, 255);
+                if (threads == 1) {
+                    spreadBase = spread;
+                    hotBase = hot;
+                }
+                System.out.format("%8d %12.2f %12.2f %12.2f %12.2f%n", threads, spread, spread / spreadBase,
+                        hot, hot / hotBase);
+            }
+        }
+        // Compare direct and batched counting of a real genome.
+        File gtoFile = new File(args.length > 1 ? args[1] : "src/test/bin4.gto");
+        CodingContigs genome;
+        if (gtoFile.getName().endsWith(ContigCache.SUFFIX)) {
+            genome = new ContigCache(gtoFile);
+        } else {
+            genome = new GenomeContigs(new Genome(gtoFile));
+        }
+        System.out.println("Counting benchmark, genome " + genome + ".");
+        System.out.format("%12s %12s %12s %12s%n", "backend", "direct secs", "batch secs", "speedup");
+        for (KmerFrameCounter.Backend backend : backends) {
+            counter = new KmerFrameCounter(SequenceDnaNormalKmers.class, false, backend);
+            double direct = counting(counter, genome, false);
+            double batched = counting(counter, genome, true);
+            System.out.format("%12s %12.3f %12.3f %12.2f%n", backend, direct, batched, direct / batched);
+        }
+    }
+
+    /**
+     * Time repeated counting of a genome into a counter.
+     *
+     * @param counter	counter to receive the counts
+     * @param genome	genome to count
+     * @param batched	if TRUE, the increments are sorted into address order before being applied
+     *
+     * @return the number of seconds per pass through the genome
+     */
+    private static double counting(KmerFrameCounter counter, CodingContigs genome, boolean batched) {
+        counter.clear();
+        KmerCountBuffer buffer = null;
+        if (batched) {
+            buffer = new KmerCountBuffer(counter, KmerCountBuffer.DEFAULT_CAPACITY, true);
+        }
+        // Make one untimed pass to warm up the JIT and fault in the arrays.
+        counter.processContigs(genome, buffer);
+        long start = System.nanoTime();
+        for (int i = 0; i < PASSES; i++) {
+            counter.processContigs(genome, buffer);
+        }
+        return (System.nanoTime() - start) / 1e9 / PASSES;
+    }
+
+    /**
+     * Time concurrent increments from multiple threads into one counter.
+     *
+     * @param counter	counter to increment
+     * @param threads	number of threads to use
+     * @param mask		mask for the kmer indexes to increment
+     *
+     * @return the throughput in millions of increments per second
+     *
+     * @throws InterruptedException
+     */
+    private static double contention(final KmerFrameCounter counter, int threads, final int mask)
+            throws InterruptedException {
+        counter.clear();
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final int seed = i * 0x9E3779B9 + 1;
+            workers[i] = new Thread() {
+                @Override
+                public void run() {
+                    DnaKmer kmer = new DnaKmer(0);
+                    int x = seed;
+                    for (int n = 0; n < INCREMENTS; n++) {
+                        // Xorshift random number generator.
+                        x ^= x << 13;
+                        x ^= x >>> 17;
+                        x ^= x << 5;
+                        kmer.setIdx(x & mask);
+                        counter.increment(kmer, Frame.all[(x >>> 28) % Frame.nFrames]);
+                    }
+                }
+            };
+        }
+        long start = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        return ((double) INCREMENTS * threads) / secs / 1e6;
+    }
+
+}
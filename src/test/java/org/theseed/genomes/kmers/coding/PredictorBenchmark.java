@@ -0,0 +1,118 @@
+package org.theseed.genomes.kmers.coding;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.theseed.genome.kmers.DnaKmer;
+import org.theseed.genome.kmers.predictor.FramePredictor;
+import org.theseed.genome.kmers.predictor.KmerBloomFilter;
+import org.theseed.locations.Frame;
+
+/**
+ * Timing benchmarks for the frame predictor.  These are not unit tests; run the main method by
+ * hand and compare the throughput figures.  The predictor is built from random kmers, and the
+ * lookups are random kmers, so nearly all of them are misses, as in real frame calling.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class PredictorBenchmark {
+
+    /** number of lookups in each trial */
+    private static final int LOOKUPS = 20000000;
+
+    /**
+     * Run the benchmarks.
+     *
+     * @param args	optional kmer size (default 15) and number of useful kmers (default 10000000)
+     *
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        int kSize = (args.length > 0 ? Integer.valueOf(args[0]) : 15);
+        int nKmers = (args.length > 1 ? Integer.valueOf(args[1]) : 10000000);
+        DnaKmer.setSize(kSize);
+        long space = DnaKmer.kmerSpace();
+        // Create a random set of useful kmers and save it as a binary predictor.
+        Random rand = new Random(kSize);
+        long[] kmers = new long[nKmers];
+        for (int i = 0; i < nKmers; i++) {
+            kmers[i] = (rand.nextLong() >>> 1) % space;
+        }
+        Arrays.sort(kmers);
+        int n = 0;
+        for (int i = 0; i < nKmers; i++) {
+            if (n == 0 || kmers[n - 1] != kmers[i]) {
+                kmers[n++] = kmers[i];
+            }
+        }
+        byte[] frames = new byte[n];
+        for (int i = 0; i < n; i++) {
+            frames[i] = (byte) rand.nextInt(Frame.nFrames);
+        }
+        File predFile = File.createTempFile("bench", ".pred");
+        predFile.deleteOnExit();
+        FramePredictor.save(predFile, 0, kSize, kmers, frames, n);
+        // Measure the false-positive rate of the filter.
+        KmerBloomFilter filter = new KmerBloomFilter(n);
+        for (int i = 0; i < n; i++) {
+            filter.add(kmers[i]);
+        }
+        int misses = 0;
+        int falseHits = 0;
+        for (int i = 0; i < LOOKUPS; i++) {
+            long kIdx = (rand.nextLong() >>> 1) % space;
+            if (Arrays.binarySearch(kmers, 0, n, kIdx) < 0) {
+                misses++;
+                if (filter.mightContain(kIdx)) {
+                    falseHits++;
+                }
+            }
+        }
+        System.out.format("Predictor benchmark, kmer size %d, %d useful kmers, filter %d bytes.%n", kSize, n,
+                filter.byteSize());
+        System.out.format("False-positive rate = %6.4f%% of %d misses.%n", falseHits * 100.0 / misses, misses);
+        // Time the lookups.
+        System.out.format("%12s %14s %14s %12s%n", "predictor", "plain Mlookup", "filter Mlookup", "speedup");
+        for (boolean mapped : new boolean[] { false, true }) {
+            FramePredictor pred = new FramePredictor(predFile, mapped);
+            double plain = lookups(pred, space);
+            pred.enableFilter();
+            double filtered = lookups(pred, space);
+            String type = (pred.hasFilter() ? (mapped ? "mapped" : "loaded") : "table");
+            System.out.format("%12s %14.2f %14.2f %12.2f%n", type, plain, filtered, filtered / plain);
+        }
+    }
+
+    /**
+     * Time random lookups in a predictor.
+     *
+     * @param pred		predictor to test
+     * @param space		number of possible kmers
+     *
+     * @return the throughput in millions of lookups per second
+     */
+    private static double lookups(FramePredictor pred, long space) {
+        long x = 0x2545F4914F6CDD1DL;
+        int hits = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            // Xorshift random number generator.
+            x ^= x << 13;
+            x ^= x >>> 7;
+            x ^= x << 17;
+            if (pred.frameOf((x >>> 1) % space) != Frame.XX) {
+                hits++;
+            }
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        // Use the hit count so the loop cannot be optimized away.
+        if (hits < 0) {
+            System.out.println(hits);
+        }
+        return LOOKUPS / secs / 1e6;
+    }
+
+}